@@ -16,6 +16,7 @@ import java.util.ServiceConfigurationError;
 import java.util.TreeMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.LogManager;
 
@@ -482,6 +483,16 @@ public class Application implements WebMvcConfigurer {
     	}
     }
 
+    /**
+     * Create a factory for background threads.
+     * @param name	The name of the threads
+     * @param virtual	True to create virtual threads, false to create daemon platform threads
+     * @return	The thread factory
+     */
+    public static ThreadFactory newThreadFactory(String name, boolean virtual) {
+    	return virtual ? Thread.ofVirtual().name(name).factory() : Thread.ofPlatform().daemon().name(name).factory();
+    }
+
     /**
      * Enable local server management port.
      * @param additionalPort	The port to add.
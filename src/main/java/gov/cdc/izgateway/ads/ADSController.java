@@ -1,8 +1,6 @@
 package gov.cdc.izgateway.ads;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
 
 import gov.cdc.izgateway.common.HasDestinationUri;
 import gov.cdc.izgateway.common.ResourceNotFoundException;
@@ -78,6 +76,7 @@ import javax.xml.ws.http.HTTPException;
 @Lazy(false)
 public class ADSController implements ADSChecker {
 	private static final String UNKNOWN = "UNKNOWN";
+	private static final String PENDING = "PENDING";
     private static final List<String> METADATA_FIELDNAMES = getMetadataFieldNames();
     public static final String IZGW_ADS_VERSION1 = "DEX1.0";
     public static final String IZGW_ADS_VERSION2 = "DEX2.0";
@@ -110,14 +109,17 @@ public class ADSController implements ADSChecker {
         private final IDestinationService dests;
         private final DEXStorageSender dexFileSender;
 		private final AzureBlobStorageSender azureFileSender;
+		private final DeliveryVerifier deliveryVerifier;
 
 		public ADSControllerConfiguration(IAccessControlService accessControls, IDestinationService dests,
-				DEXStorageSender dexFileSender, AzureBlobStorageSender azureFileSender, AppProperties app) {
+				DEXStorageSender dexFileSender, AzureBlobStorageSender azureFileSender, DeliveryVerifier deliveryVerifier, 
+				AppProperties app) {
 			mode = app.getServerMode();
 			this.accessControls = accessControls;
 			this.dests = dests;
 			this.dexFileSender = dexFileSender;
 			this.azureFileSender = azureFileSender;
+			this.deliveryVerifier = deliveryVerifier;
 		}
 	}
 
@@ -170,7 +172,7 @@ public class ADSController implements ADSChecker {
 
 	@DeleteMapping("/ads/{destinationId}/clearTokens")
 	@ResponseStatus(HttpStatus.NO_CONTENT)
-	@Operation(summary = "Reset token cache for the specified destination.", description = "Clears the cache of OAuth tokens for the destination.")
+	@Operation(summary = "Reset token cache for the specified destination.", description = "Clears the cache of OAuth tokens and credentials for the destination.")
 	@ApiResponse(responseCode = "200", description = "Success", content = @Content)
 
 	public void clearTokens(@RequestHeader(name = "X-Message-ID", required = false) String xMessageId,
@@ -180,6 +182,10 @@ public class ADSController implements ADSChecker {
 		MetadataBuilder m = new MetadataBuilder();
 		m.setRouteId(config.getDests(), destinationId);
 		ExternalTokenStore.clearTokenStore(m.getDestUrl());
+		config.getDexFileSender().clearTokens(destinationId);
+		// Also reread credentials, in case they were just rotated
+		config.getDexFileSender().credentials.invalidate(destinationId);
+		config.getAzureFileSender().credentials.invalidate(destinationId);
 	}
 
 	@Override
@@ -203,7 +209,11 @@ public class ADSController implements ADSChecker {
         Metadata meta = m.build();
         meta.setExtEvent("Status Check");
         meta.setPath(tguid);
-		return logCall(meta, (IDestination r, FileSender f) -> f.getSubmissionStatus(r, meta));
+		return logCall(meta, (IDestination r, FileSender f) -> {
+			// Use the status found when verifying delivery if known
+			String status = config.getDeliveryVerifier().getStatus(r.getDestId(), tguid);
+			return status != null ? status : f.getSubmissionStatus(r, meta);
+		});
     }
 
 	private void startLogging(Metadata meta) {
@@ -476,31 +486,59 @@ public class ADSController implements ADSChecker {
 			throw logException(null, f);
 		}
 
-		DataHandler data = new DataHandler(file, file.getContentType()) {
-			@Override
-			public InputStream getInputStream() throws IOException {
-				return file.getInputStream();
-			}
-		};
+		UploadSource source = spool(file);
+		DataHandler data;
+		if (source != null) {
+			data = new DataHandler(source);
+		} else {
+			data = new DataHandler(file, file.getContentType()) {
+				@Override
+				public InputStream getInputStream() throws IOException {
+					return file.getInputStream();
+				}
+			};
+		}
 
 		try {
 			submitFile(meta, data);
 		} catch (Fault f) {
 			log.info(Markers2.append(f).and(Markers2.append("destination", dest.safeCopy())), 
-				"{} occurred to {} sending from {}", f.getClass().getSimpleName(), dest != null ? dest.getDestId() + ":" + dest.getDestinationUri() : "(null)", ADSUtils.getMyIpAddress(), f);
+				"{} occurred to {} sending from {}", f.getClass().getSimpleName(), dest != null ? dest.getDestId() + ":" + dest.getDestinationUri() : "(null)", ADSUtils.getEgressPoint(), f);
 			throw f;
+		} finally {
+			if (source != null) {
+				source.close();
+			}
 		}
 		String deliveryPath = StringUtils.substringAfterLast(meta.getPath(), "/");
-		// Get the submission status result from the destination.
+		// Record the delivery status, or start verifying it in the background.
 		verifyDelivery(meta, dest, deliveryPath);
 		return meta;
 	}
 
 	/**
-	 * Verify delivery data using /info endpoint
+	 * Spool the uploaded file so that senders can write it directly from disk
+	 * @param file	The uploaded file
+	 * @return	The spooled file, or null if it could not be spooled, in which case the
+	 * file is read from the multipart request.
+	 */
+	private UploadSource spool(MultipartFile file) {
+		try {
+			return UploadSource.spool(file);
+		} catch (IOException e) {
+			log.warn(Markers2.append(e), "Cannot spool upload, reading it from the request: {}", e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Verify delivery data using /info endpoint. DEX delivers files asynchronously, so delivery
+	 * is verified in the background by the {@link DeliveryVerifier}, and the submission is reported
+	 * as PENDING until then.  The result is available from /rest/ads/{destinationId}/info/{tguid}.
 	 * 
 	 * @param meta The metadata for the endpoint
 	 * @param dest The destination for the endpoint
+	 * @param deliveryPath The path identifying the submission at the destination
 	 */
 	private void verifyDelivery(MetadataImpl meta, IDestination dest, String deliveryPath) {
 		if (dest.isAzure()) {
@@ -510,47 +548,10 @@ public class ADSController implements ADSChecker {
 			return;
 		}
 
-		// Otherwise, check DEX for delivery status to NDLP
-		String result = null;
-		int retries = 0;
-		long backoff = 250;
-		JsonNode deliveries = null;
-		boolean loop = true;
-		do {
-			MetadataImpl meta2 = new MetadataImpl(meta);
-			meta2.setPath(deliveryPath);
-			try {
-				result = getSender(dest).getSubmissionStatus(dest, meta2);
-				deliveries = new ObjectMapper().readTree(result).get("deliveries").get(0);
-				loop = deliveries == null;
-			} catch (Fault f) {
-				log.error(Markers2.append(f), "Error retrieving submission status for: {}", meta2);
-				loop = false;
-			} catch (Exception e) {
-				log.warn(Markers2.append(e), "Failed to verify submission status for: {}\n {}", meta2, result);
-				loop = ++retries <= 4;
-				if (!loop) {
-					try {
-						Thread.sleep(backoff);
-					} catch (InterruptedException e1) {
-						Thread.currentThread().interrupt();
-					}
-					backoff += backoff;
-				}
-			}
-		} while (loop);
-
-		if (deliveries == null) {
-			meta.setSubmissionStatus(UNKNOWN);
-			meta.setSubmissionLocation(UNKNOWN);
-			return;
-		}
-
-		String status = deliveries.get("status").asText();
-		String location = deliveries.get("location").asText();
-		// Extract the status and location fields into metadata.
-		meta.setSubmissionStatus(status);
-		meta.setSubmissionLocation(location);
+		// Otherwise, check DEX for delivery status to NDLP in the background
+		meta.setSubmissionStatus(PENDING);
+		meta.setSubmissionLocation(UNKNOWN);
+		config.getDeliveryVerifier().track(meta, dest, getSender(dest), deliveryPath);
 	}
 
 	private void verifyRouting(IDestination iDestination) throws UnknownDestinationFault {
@@ -634,7 +635,7 @@ public class ADSController implements ADSChecker {
 				m2.put("destId", hduri.getDestinationId());
 				m2.put("uri", hduri.getDestinationUri());
 			}
-			m2.put("egress", ADSUtils.getMyIpAddress());
+			m2.put("egress", ADSUtils.getEgressPoint());
 			if (ex instanceof HubClientFault hcf && hcf.getOriginalBody() != null) {
 				m2.put("originalBody", hcf.getOriginalBody());
 			} else if (response != null && response != m2) {
@@ -11,6 +11,7 @@ import java.net.InetAddress;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.net.URLConnection;
 import java.net.UnknownHostException;
 import java.util.Arrays;
 import java.util.Collection;
@@ -128,7 +129,22 @@ public class ADSUtils {
     private static final char[] DISALLOWED = {
         '*', '\'', '?', '>', '<', ':', '|', '/', '\\', 0x7f, 0x8d, 0x8f, 0x90, 0x9d
     };
-	private static final String MY_IP_ADDRESS = getMyIpAddress();
+    /** Timeout for each call to discover the egress IP Address */
+    private static final int EGRESS_TIMEOUT = 5000;
+    /** The egress IP address, and when it was found */
+    private static volatile EgressAddress egressAddress = null;
+    
+    /**
+     * The egress IP Address of this system, and when it was found
+     * @param address	The IP Address
+     * @param resolvedAt	The time it was found
+     */
+    public record EgressAddress(String address, long resolvedAt) {
+    	/** @return The age of this address in milliseconds */
+    	public long getAge() {
+    		return System.currentTimeMillis() - resolvedAt;
+    	}
+    }
     
     /**
      * Check filenames for invalid characters
@@ -202,25 +218,27 @@ public class ADSUtils {
 			String ipAddress = StringUtils.substringBetween(token, "sip=", "&");
 			if (StringUtils.isEmpty(ipAddress)) {
 				// This token is NOT locked to an IP Address 
-				log.debug("Did not find a token matching {}", MY_IP_ADDRESS);
+				log.debug("Did not find a token matching {}", getEgressPoint());
 				return token;
 			}
-			if (ipAddress.equals(MY_IP_ADDRESS) || ipAddress.contains("-") && myIpInRange(ipAddress)) {
+			String myIpAddress = getMyIpAddress();
+			if (ipAddress.equals(myIpAddress) || ipAddress.contains("-") && myIpInRange(ipAddress, myIpAddress)) {
 				// This token is locked to my IP Address or to a range of IP addresses that my IP Address is in. 
-				log.debug("Found token for {} with parameters {}", MY_IP_ADDRESS, StringUtils.substringBefore(token, "&sig="));
+				log.debug("Found token for {} with parameters {}", myIpAddress, StringUtils.substringBefore(token, "&sig="));
 				return token;
 			}
 		}
-		throw SecurityFault.generalSecurity("No token found for IP Address " + MY_IP_ADDRESS, null, null);
+		throw SecurityFault.generalSecurity("No token found for IP Address " + getEgressPoint(), null, null);
 	}
 	
 	/**
-	 * Verify that MY_IP_ADDRESS is within the range specified by ipAddress.
+	 * Verify that my IP Address is within the range specified by ipAddress.
 	 * 
 	 * @param ipRange	The range
+	 * @param myIpAddress	My IP Address
 	 * @return true if within the range
 	 */
-	private static boolean myIpInRange(String ipRange) {
+	private static boolean myIpInRange(String ipRange, String myIpAddress) {
 		String[] range = ipRange.split("-");
 		if (range.length != 2) {
 			throw new IllegalArgumentException("Not an IP Address Range: " + ipRange);
@@ -228,7 +246,7 @@ public class ADSUtils {
 		try {
 			InetAddress low = InetAddress.getByName(range[0]);
 			InetAddress high = InetAddress.getByName(range[1]);
-			InetAddress myAddr = InetAddress.getByName(MY_IP_ADDRESS);
+			InetAddress myAddr = InetAddress.getByName(myIpAddress);
 			byte[] mine = myAddr.getAddress();
 			if (low.getClass() == high.getClass() && low.getClass() == myAddr.getClass()) {
 				return 
@@ -242,17 +260,41 @@ public class ADSUtils {
 	}
 	
 	/**
-	 * Call a web service to get this server's egress IP Address.
-	 * Tries checkip.amazonaws.com and ipv4.icanhazip.com, both of which should be highly reliable.
+	 * Get this server's egress IP Address. The address is found once, and then refreshed in the
+	 * background by the {@link EgressAddressService}, so this only calls out to the network when
+	 * the address has never been found.
 	 * 
 	 * @return The egress IP Address of this system.
+	 * @throws ServiceConfigurationError If the address has never been found, and cannot be found now
 	 */
     public static String getMyIpAddress() {
+    	EgressAddress egress = egressAddress;
+    	return egress != null ? egress.address() : refreshMyIpAddress().address();
+    }
+
+	/**
+	 * Call a web service to get this server's egress IP Address, and cache it.
+	 * Tries checkip.amazonaws.com and ipv4.icanhazip.com, both of which should be highly reliable.
+	 * 
+	 * @return The egress IP Address of this system, and when it was found.
+	 * @throws ServiceConfigurationError If the address cannot be found
+	 */
+    public static EgressAddress refreshMyIpAddress() {
     	String[] urlStrings = { "http://checkip.amazonaws.com/", "http://ipv4.icanhazip.com/" };
     	Throwable ex = null;
     	for (String urlString: urlStrings) {
-	    	try (BufferedReader br = new BufferedReader(new InputStreamReader(new URL(urlString).openStream()))) {
-	    	    return br.readLine();
+    		try {
+    			URLConnection con = new URL(urlString).openConnection();
+    			con.setConnectTimeout(EGRESS_TIMEOUT);
+    			con.setReadTimeout(EGRESS_TIMEOUT);
+		    	try (BufferedReader br = new BufferedReader(new InputStreamReader(con.getInputStream()))) {
+		    		String address = StringUtils.trim(br.readLine());
+		    		if (StringUtils.isNotEmpty(address)) {
+		    			EgressAddress egress = new EgressAddress(address, System.currentTimeMillis());
+		    			egressAddress = egress;
+		    			return egress;
+		    		}
+		    	}
 	    	} catch (Exception e) {
 	    		if (ex == null) {
 	    			ex = e;
@@ -263,9 +305,19 @@ public class ADSUtils {
 	}
     
     /**
-     * @return The egress IP address for this instance.
+     * Get the cached egress IP address without calling out to the network, 
+     * for use on error paths.
+     * @return The egress IP address for this instance, or null if not yet known.
      */
     public static String getEgressPoint() {
-    	return MY_IP_ADDRESS;
+    	EgressAddress egress = egressAddress;
+    	return egress == null ? null : egress.address();
+    }
+    
+    /**
+     * @return The cached egress IP address for this instance and when it was found, or null if not yet known.
+     */
+    public static EgressAddress getEgressAddress() {
+    	return egressAddress;
     }
 }
@@ -0,0 +1,252 @@
+package gov.cdc.izgateway.ads;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Tunes the block size and the number of blocks written in parallel for uploads to each destination.
+ *
+ * Each upload runs in a {@link Session} that starts from the settings last learned for its
+ * destination. As blocks are written, the session measures the time taken to write each block,
+ * and the throughput of each round of blocks (one block per parallel writer), and adjusts its
+ * settings in additive increase, multiplicative decrease fashion:
+ * <ul>
+ * <li>When a round is at least as fast as the best seen, one more block may be written in parallel.</li>
+ * <li>When a round is markedly slower than the best seen, or a block fails, parallelism is halved.</li>
+ * <li>While blocks are written quickly, block size is doubled to amortize the cost of each request,
+ * and when they are slow or fail, it is halved, so that a retry costs less.</li>
+ * </ul>
+ * When the session finishes, its settings are retained in memory for the destination, so that the
+ * next upload to it starts warm.
+ *
+ * @author Audacious Inquiry
+ */
+@Slf4j
+public class AdaptiveUploadTuner {
+	/**
+	 * Upload settings
+	 * @param blockSize	The size of each block in bytes
+	 * @param concurrency	The number of blocks to write in parallel
+	 */
+	public record Settings(int blockSize, int concurrency) {}
+
+	/** Blocks written faster than this are too small to amortize the cost of a request */
+	private static final long FAST_BLOCK_MILLIS = 1000;
+	/** Blocks written slower than this are too large to retry cheaply */
+	private static final long SLOW_BLOCK_MILLIS = 15000;
+	/** A round slower than this fraction of the best seen indicates congestion */
+	private static final double SLOWDOWN = 0.8;
+
+	private final Settings initial;
+	private final int minBlockSize;
+	private final int maxBlockSize;
+	private final int maxConcurrency;
+	private final Map<String, Settings> learned = new ConcurrentHashMap<>();
+
+	/**
+	 * Create a new tuner
+	 * @param initial	The settings for the first upload to a destination
+	 * @param minBlockSize	The smallest block size to use
+	 * @param maxBlockSize	The largest block size to use
+	 * @param maxConcurrency	The largest number of blocks to write in parallel
+	 */
+	AdaptiveUploadTuner(Settings initial, int minBlockSize, int maxBlockSize, int maxConcurrency) {
+		this.minBlockSize = Math.max(1, minBlockSize);
+		this.maxBlockSize = Math.max(this.minBlockSize, maxBlockSize);
+		this.maxConcurrency = Math.max(1, maxConcurrency);
+		this.initial = new Settings(
+			Math.clamp(initial.blockSize(), this.minBlockSize, this.maxBlockSize),
+			Math.clamp(initial.concurrency(), 1, this.maxConcurrency)
+		);
+	}
+
+	/**
+	 * Get the settings the next upload to a destination will start with.
+	 * @param destId	The destination
+	 * @return	The settings
+	 */
+	public Settings getSettings(String destId) {
+		return learned.getOrDefault(Objects.toString(destId, ""), initial);
+	}
+
+	/**
+	 * Start a new upload session for a destination
+	 * @param destId	The destination
+	 * @return	The session
+	 */
+	Session startSession(String destId) {
+		return new Session(Objects.toString(destId, ""), getSettings(destId));
+	}
+
+	/**
+	 * The settings and measurements for a single upload.  Sessions are guarded by a lock
+	 * rather than by synchronization, so that writers waiting in {@link #acquire()} on a
+	 * virtual thread do not pin their carrier thread.
+	 */
+	public final class Session {
+		private final ReentrantLock lock = new ReentrantLock();
+		private final Condition available = lock.newCondition();
+		private final String destId;
+		private int blockSize;
+		private int concurrency;
+		private int inFlight = 0;
+		/** Smoothed time to write a block in milliseconds */
+		private long rtt = 0;
+		/** Best throughput seen for a round in bytes per millisecond */
+		private double bestThroughput = 0;
+		private long roundStart = System.currentTimeMillis();
+		private long roundBytes = 0;
+		private int roundBlocks = 0;
+
+		private Session(String destId, Settings settings) {
+			this.destId = destId;
+			this.blockSize = settings.blockSize();
+			this.concurrency = settings.concurrency();
+		}
+
+		/**
+		 * Wait until another block may be written in parallel. Each call
+		 * must be paired with a call to {@link #release()}.
+		 * @throws InterruptedException	If interrupted while waiting
+		 */
+		void acquire() throws InterruptedException {
+			lock.lock();
+			try {
+				while (inFlight >= concurrency) {
+					available.await();
+				}
+				inFlight++;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * Release a block acquired by {@link #acquire()}
+		 */
+		void release() {
+			lock.lock();
+			try {
+				inFlight = Math.max(0, inFlight - 1);
+				available.signalAll();
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * Record a successfully written block
+		 * @param bytes	The number of bytes written
+		 * @param elapsedMillis	The time taken to write them
+		 */
+		void completed(long bytes, long elapsedMillis) {
+			lock.lock();
+			try {
+				rtt = rtt == 0 ? elapsedMillis : (7 * rtt + elapsedMillis) / 8;
+				roundBytes += bytes;
+				if (++roundBlocks < concurrency) {
+					return;
+				}
+				long now = System.currentTimeMillis();
+				double throughput = (double) roundBytes / Math.max(1, now - roundStart);
+				if (throughput >= bestThroughput) {
+					bestThroughput = throughput;
+					concurrency = Math.min(maxConcurrency, concurrency + 1);
+				} else if (throughput < bestThroughput * SLOWDOWN) {
+					// Start again from the new baseline, so that one slow round halves parallelism once
+					bestThroughput = throughput;
+					concurrency = Math.max(1, concurrency / 2);
+				}
+				if (rtt < FAST_BLOCK_MILLIS) {
+					blockSize = Math.min(maxBlockSize, blockSize * 2);
+				} else if (rtt > SLOW_BLOCK_MILLIS) {
+					blockSize = Math.max(minBlockSize, blockSize / 2);
+				}
+				startRound(now);
+				available.signalAll();
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * Record a failure to write a block
+		 */
+		void failed() {
+			lock.lock();
+			try {
+				concurrency = Math.max(1, concurrency / 2);
+				blockSize = Math.max(minBlockSize, blockSize / 2);
+				startRound(System.currentTimeMillis());
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		private void startRound(long now) {
+			roundStart = now;
+			roundBytes = 0;
+			roundBlocks = 0;
+		}
+
+		/** @return The size of the next block to write */
+		int getBlockSize() {
+			lock.lock();
+			try {
+				return blockSize;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		/** @return The number of blocks that may be written in parallel */
+		int getConcurrency() {
+			lock.lock();
+			try {
+				return concurrency;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		/** @return The smoothed time taken to write a block in milliseconds */
+		long getRtt() {
+			lock.lock();
+			try {
+				return rtt;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * Finish the session, retaining its settings for the next upload to the destination.
+		 */
+		void finish() {
+			Settings settings;
+			lock.lock();
+			try {
+				settings = new Settings(blockSize, concurrency);
+			} finally {
+				lock.unlock();
+			}
+			learned.put(destId, settings);
+			log.debug("Upload settings for {}: {}", destId, settings);
+		}
+
+		@Override
+		public String toString() {
+			lock.lock();
+			try {
+				return String.format("%d byte blocks, %d in parallel, %d ms per block", blockSize, concurrency, rtt);
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+}
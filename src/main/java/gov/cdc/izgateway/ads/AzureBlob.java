@@ -8,11 +8,13 @@ import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
-import javax.net.ssl.HttpsURLConnection;
-import javax.net.ssl.SSLSocketFactory;
-
-import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpDelete;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.util.EntityUtils;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
@@ -60,25 +62,24 @@ public class AzureBlob {
 	/**
 	 * Delete a blob
 	 * @param originalCon	The connection to use to delete it
-	 * @param sslSocketFactory	The sslSocketFactory
+	 * @param clients	The pool of clients to make the request with
 	 */
-	public void delete(HttpURLConnection originalCon, SSLSocketFactory sslSocketFactory) {
+	public void delete(HttpURLConnection originalCon, HttpClientPool clients) {
 		try {
 			String originalUrl = originalCon.getURL().toString(); 
 			String base = StringUtils.substringBefore(originalUrl, "/izgw/");
 			String auth = StringUtils.substringAfter(originalUrl, "?");
 			URL url = new URL(base + "/izgw/" + getName() + "?" + auth);
 			
-			HttpsURLConnection conx = (HttpsURLConnection) url.openConnection();
-			conx.setSSLSocketFactory(sslSocketFactory);
-			conx.setDoInput(true);
-			conx.setRequestMethod("DELETE");
-			int status = conx.getResponseCode();
-			// It could be 404 if deleted from another thread 
-			if (status != 202 && status != 404) {
-				String error = org.apache.commons.io.IOUtils.toString(conx.getErrorStream(), StandardCharsets.UTF_8);
-				log.error("Unexpected response for delete of blob {}: {} {}", getName(), status, error);
-				return;
+			try (CloseableHttpResponse response = clients.getClient(url).execute(new HttpDelete(url.toString()))) {
+				int status = response.getStatusLine().getStatusCode();
+				// It could be 404 if deleted from another thread 
+				if (status != 202 && status != 404) {
+					String error = getContent(response);
+					log.error("Unexpected response for delete of blob {}: {} {}", getName(), status, error);
+					return;
+				}
+				EntityUtils.consume(response.getEntity());
 			}
 			log.info("Deleted blob {} of length {} created on {}", getName(), getLength(), getCreated());
 		} catch (Exception e) {
@@ -86,33 +87,39 @@ public class AzureBlob {
 		}
 	}
 	
-	static AzureBlob[] listBlobs(HttpURLConnection originalCon, SSLSocketFactory sslSocketFactory) {
+	static AzureBlob[] listBlobs(HttpURLConnection originalCon, HttpClientPool clients) {
 		String originalUrl = originalCon.getURL().toString();
 		String base = StringUtils.substringBefore(originalUrl, "/izgw");
 		String auth = StringUtils.substringAfter(originalUrl, "?");
 		int status = -1;
 		try {
 			URL url = new URL(base + "/izgw?restype=container&comp=list&" + auth);
-			HttpsURLConnection conx = (HttpsURLConnection) url.openConnection();
-			conx.setSSLSocketFactory(sslSocketFactory);
-			conx.setDoInput(true);
-			conx.setRequestMethod("GET");
-			status = conx.getResponseCode();
-			if (status != 200) {
-				String error = IOUtils.toString(conx.getErrorStream(), StandardCharsets.UTF_8);
-				log.error("Cannot list blobs: {}", error);
-				return new AzureBlob[0];
+			try (CloseableHttpResponse response = clients.getClient(url).execute(new HttpGet(url.toString()))) {
+				status = response.getStatusLine().getStatusCode();
+				if (status != 200) {
+					String error = getContent(response);
+					log.error("Cannot list blobs: {}", error);
+					return new AzureBlob[0];
+				}
+				return parseBlobs(response.getEntity());
 			}
-			return parseBlobs(conx);
 		} catch (IOException e) {
 			log.error(Markers2.append(e), "Cannot list blobs: {}", e.getMessage());
 			return new AzureBlob[0];
 		} 
 	}
 
-	private static AzureBlob[] parseBlobs(HttpsURLConnection conx) throws IOException {
+	private static String getContent(HttpResponse response) throws IOException {
+		HttpEntity entity = response.getEntity();
+		return entity == null ? "" : EntityUtils.toString(entity, StandardCharsets.UTF_8);
+	}
+
+	private static AzureBlob[] parseBlobs(HttpEntity entity) throws IOException {
 		List<AzureBlob> blobs = new ArrayList<>();
-		try (InputStream is = conx.getInputStream()) {
+		if (entity == null) {
+			return new AzureBlob[0];
+		}
+		try (InputStream is = entity.getContent()) {
 			Document d = XMLUtils.parse(is, false);
 			NodeList n = d.getElementsByTagName("Blob");
 			for (int i = n.getLength(); i > 0 ; i--) {
@@ -1,5 +1,7 @@
 package gov.cdc.izgateway.ads;
 
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -7,16 +9,18 @@ import java.net.HttpURLConnection;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.URLEncoder;
+import java.nio.channels.Channels;
 import java.nio.charset.StandardCharsets;
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
-import java.util.List;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.xml.ws.http.HTTPException;
 
@@ -24,16 +28,23 @@ import jakarta.activation.DataHandler;
 import lombok.extern.slf4j.Slf4j;
 
 import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.protocol.HTTP;
+import org.apache.http.util.EntityUtils;
 import org.springframework.http.HttpStatus;
 
 import org.springframework.stereotype.Component;
 
+import gov.cdc.izgateway.Application;
 import gov.cdc.izgateway.model.IDestination;
 import gov.cdc.izgateway.security.ClientTlsSupport;
-import gov.cdc.izgateway.security.crypto.CryptoException;
-import gov.cdc.izgateway.security.crypto.CryptoSupport;
 import gov.cdc.izgateway.soap.fault.DestinationConnectionFault;
 import gov.cdc.izgateway.soap.fault.MessageTooLargeFault;
 import gov.cdc.izgateway.soap.fault.MessageTooLargeFault.Direction;
@@ -45,26 +56,24 @@ import gov.cdc.izgateway.soap.fault.SecurityFault;
 @Component
 @Slf4j
 public class AzureBlobStorageSender extends RestfulFileSender implements FileSender {
-	private static final int MAX_THREADS = 4;  // Use no more than 4 threads to upload
-	private static final int CHUNKSIZE = 8*1024*1024; // Chunk in 8 Mb blocks an 8Gb upload will have 1024 chunks 
+	private static final int CHUNKSIZE = 8*1024*1024; // Start with 8 Mb blocks an 8Gb upload will have 1024 chunks 
+	private static final int MIN_CHUNKSIZE = 4*1024*1024;
+	private static final int MAX_CHUNKSIZE = 16*1024*1024;
+	private static final int INITIAL_THREADS = 4;
 	/**
-	 * Chunks are used to track memory regions to read and write.
+	 * Blocks track the content of each block to write, and the pooled buffer holding it, if any.
 	 * @author Audacious Inquiry
 	 */
-	private static record Chunk(byte[] buffer, int offset, int length) { // NOSONAR Array == is OK
-		/** Break a chunk into a list of chunks each bufferSize in length
-		 * This method allows chunks to be read in one size and written
-		 * in another size.
-		 * @param bufferSize	The size of the new chunks to create. 
-		 */
-		List<Chunk> chunks(int bufferSize) {
-			List<Chunk> l = new ArrayList<>();
-			for (int i = 0; i < length; i += bufferSize) {
-				l.add(new Chunk(buffer, offset + i, Math.min(bufferSize, length - i)));
-			}
-			return l;
-		}
+	private static record Block(HttpEntity entity, long length, byte[] buffer) { // NOSONAR Array == is OK
 	}
+	/** Uploads blocks for all uploads in progress */
+	private final ExecutorService uploader;
+	/** Buffers available for reuse by the next block read */
+	private final BlockingQueue<byte[]> buffers;
+	/** The maximum number of blocks read ahead of the upload, for each upload */
+	private final int uploadWindow;
+	/** Tunes block size and parallelism for each destination */
+	private final AdaptiveUploadTuner tuner;
     /**
      * Create a new storage sender to create an AzureBlob
      * @param config	The configuration for the sender
@@ -72,7 +81,19 @@ public class AzureBlobStorageSender extends RestfulFileSender implements FileSen
      */
     public AzureBlobStorageSender(SenderConfig config, ClientTlsSupport tlsSupport) {
 		super(config, tlsSupport);
+		int threads = Math.max(1, config.getUploadThreads());
+		this.uploadWindow = Math.max(1, config.getUploadWindow());
+		this.uploader = Executors.newFixedThreadPool(threads, 
+			Application.newThreadFactory("ADS-Upload", config.isVirtualThreads()));
+		this.buffers = new LinkedBlockingQueue<>(uploadWindow + threads);
+		this.tuner = new AdaptiveUploadTuner(new AdaptiveUploadTuner.Settings(CHUNKSIZE, INITIAL_THREADS), MIN_CHUNKSIZE, MAX_CHUNKSIZE, threads);
 	}
+    
+    @Override
+    public void destroy() {
+    	uploader.shutdownNow();
+    	super.destroy();
+    }
     @Override
     protected HttpURLConnection getConnection(String type, IDestination route, Metadata meta, DataHandler data) 
     		throws IOException, MetadataFault, DestinationConnectionFault, URISyntaxException, SecurityFault 
@@ -86,11 +107,7 @@ public class AzureBlobStorageSender extends RestfulFileSender implements FileSen
         } else {
             base = new URL(route.getDestUri());
         }
-		try {
-			token = ADSUtils.getAzureToken(CryptoSupport.decrypt(route.getPassword()));
-		} catch (CryptoException e) {
-			throw SecurityFault.decryptionFailure(route, e);
-		}
+		token = credentials.getAzureToken(route);
     	base = new URL(base + "?" + token);
     	
         switch (type) {
@@ -135,6 +152,10 @@ public class AzureBlobStorageSender extends RestfulFileSender implements FileSen
             for (Header h: getHeaders(meta, data)) {
                 con.addRequestProperty(h.getName(), h.getValue());
             }
+            if (con.getDoOutput()) {
+            	// Stream the content rather than buffering all of it before sending
+            	con.setFixedLengthStreamingMode(getSingleBlockLength(meta));
+            }
         }
         // We always want to read the response.
         con.setDoInput(true);
@@ -149,12 +170,10 @@ public class AzureBlobStorageSender extends RestfulFileSender implements FileSen
     protected int writeData(HttpURLConnection con, IDestination route, DataHandler data, Metadata meta) throws IOException {
     	// OK, we have a connection, and we want to write data to it.
     	// If it fits in a single buffer, we just write it like normal.
-		byte[] buffer = new byte[(int) Math.min(meta.getFileSize(), BUFFERSIZE)];
-
 		// Only write on first block if entire blob can be written.
-		int bytesToSend = meta.getFileSize() <= BUFFERSIZE ? (int)meta.getFileSize() : 0;
+		long bytesToSend = getSingleBlockLength(meta);
 		
-		int result = writeAsSingleBlock(con, route, data, meta, buffer, bytesToSend);
+		int result = writeAsSingleBlock(con, route, data, meta, bytesToSend);
 		
     	if (bytesToSend != 0) {
         	return result; 
@@ -165,144 +184,248 @@ public class AzureBlobStorageSender extends RestfulFileSender implements FileSen
     		throw new HTTPException(result);
     	}
     	
-    	return writeInMultipleBlocks(con.getURL(), route, data, meta, buffer);
+    	return writeInMultipleBlocks(con.getURL(), route, data, meta);
     }
     
-    protected int writeAsSingleBlock(HttpURLConnection con, IDestination route, DataHandler data, Metadata meta, byte[] buffer, int bytesToSend) throws IOException {
-    	try (OutputStream os = con.getOutputStream();
-            InputStream is = data.getInputStream()) {
-    		int n = 0;
+    /**
+     * Get the number of bytes to write with the initial request
+     * @param meta	The metadata
+     * @return	The size of the file if it can be written in a single block, otherwise 0.
+     */
+    private static long getSingleBlockLength(Metadata meta) {
+    	return meta.getFileSize() <= BUFFERSIZE ? meta.getFileSize() : 0;
+    }
+    
+    protected int writeAsSingleBlock(HttpURLConnection con, IDestination route, DataHandler data, Metadata meta, long bytesToSend) throws IOException {
+    	UploadSource source = UploadSource.from(data);
+    	DigestingInputStream digester = null;
+    	try (OutputStream os = con.getOutputStream()) {
+    		long n = 0;
 			try {
-				if ((n = is.read(buffer, 0, bytesToSend)) > 0) {
-					os.write(buffer, 0, n);
+				if (bytesToSend <= 0) {
+					// Nothing to write, the data will be written in multiple blocks
+				} else if (source != null) {
+					// Write directly from the spooled file
+					n = source.transferTo(0, bytesToSend, Channels.newChannel(os));
+					if (config.isIntegrityCheck()) {
+						// Digest it with a second read of the spooled file, as for multiple blocks
+						try (DigestingInputStream in = new DigestingInputStream(source.getInputStream())) {
+							in.skipNBytes(bytesToSend);
+							digester = in;
+						}
+					}
+				} else {
+					// Only content that is not spooled is copied through the heap
+					try (InputStream is = data.getInputStream()) {
+						InputStream in = is;
+						if (config.isIntegrityCheck()) {
+							// Compute the integrity check while writing
+							digester = new DigestingInputStream(is);
+							in = digester;
+						}
+						n = IOUtils.copyLarge(in, os, 0, bytesToSend);
+					}
 				}
 			} finally {
-	            logProgress(route, meta, n);
+	            logProgress(route, meta, n, null);
 			}
         }
-        return con.getResponseCode();
+        int result = con.getResponseCode();
+        if (digester != null && result == HttpStatus.CREATED.value()) {
+        	// Azure reports the MD5 hash of the content it received
+        	verifyIntegrity(meta, digester.getIntegrityCheck(), con.getHeaderField("Content-MD5"));
+        }
+        return result;
     }
-	private void logProgress(IDestination route, Metadata meta, long count) {
-    	log.info("ADS write to {} of {} ({}%) of {} bytes", route.getDestId(), 
+	private void logProgress(IDestination route, Metadata meta, long count, AdaptiveUploadTuner.Session session) {
+		if (session == null) {
+			log.info("ADS write to {} of {} ({}%) of {} bytes", route.getDestId(), 
     			count, (count * 100.0) / meta.getFileSize(), meta.getFileSize());
+			return;
+		}
+		log.info("ADS write to {} of {} ({}%) of {} bytes using {}", route.getDestId(), 
+			count, (count * 100.0) / meta.getFileSize(), meta.getFileSize(), session);
 	}
     
 	/**
-	 * This method appends any additional data beyond BUFFERSIZE to the Blob
-	 * @param con	The original connection.
+	 * This method appends any additional data beyond BUFFERSIZE to the Blob.
+	 * 
+	 * The data is read into blocks while previously read blocks are uploaded
+	 * in parallel by the shared uploader pool, so that reading from the source and writing
+	 * to the destination overlap.  No more than uploadWindow blocks are read ahead of the
+	 * upload, which bounds the memory used by each upload to uploadWindow * MAX_CHUNKSIZE.
+	 * Buffers are returned to a pool for reuse once their block has been written.
+	 * 
+	 * When the data has been spooled to an {@link UploadSource}, blocks are not read into
+	 * buffers, each block is written directly from its region of the spooled file.
+	 * 
+	 * When integrity checking is enabled, the reader computes the integrity check data, and
+	 * the MD5 hash is stored with the blob when the block list is committed.  Blocks read into
+	 * buffers are digested from the same buffers that are uploaded.  Blocks written from a
+	 * spooled file never pass through a buffer of ours, so their integrity check data comes
+	 * from a second, sequential read of the spooled file, made while the blocks are written.
+	 * That read checks what was spooled and sent, not the bytes as they left the socket.
+	 * 
+	 * The size of each block and the number written in parallel are adjusted as the upload
+	 * progresses by an {@link AdaptiveUploadTuner} session for the destination.
+	 * 
+	 * @param url	The url of the blob
 	 * @param route	The route we are sending to
 	 * @param data	The data we are sending
 	 * @param meta	The metadata
-	 * @param buffer	The buffer to use
-	 * @return
-	 * @throws IOException
+	 * @return	The status of the final commit of the block list
+	 * @throws IOException	If an error occurs reading or writing a block
 	 */
-	protected int writeInMultipleBlocks(URL url, IDestination route, DataHandler data, Metadata meta, byte[] buffer) throws IOException {
-    	// So here, the connection passed in has already been used, but no data has been written yet.
+	protected int writeInMultipleBlocks(URL url, IDestination route, DataHandler data, Metadata meta) throws IOException {
+		Semaphore window = new Semaphore(uploadWindow);
+		AdaptiveUploadTuner.Session session = tuner.startSession(route.getDestId());
+		AtomicReference<Throwable> failure = new AtomicReference<>();
+		AtomicLong written = new AtomicLong();
+		String requestId = meta.getExtObjectKey();
 		long count = 0;
-		// We need to modify the URL, with slightly different parameters to append blocks.
-    	InputStream is = data.getInputStream();
-    	int status = HttpStatus.CREATED.value();
-    	do {
-    		int n = is.read(buffer);
-			// if we read no data, what do we do here.
-			
-			try {
-				Chunk chunk = new Chunk(buffer, 0, n);
-				status = writeChunks(chunk, url, count, meta.getExtObjectKey());
-				count += n;
-			} finally {
-	            logProgress(route, meta, count);
+		int numBlocks = 0;
+		UploadSource source = UploadSource.from(data);
+		boolean integrityCheck = config.isIntegrityCheck();
+		InputStream raw = source == null || integrityCheck ? data.getInputStream() : InputStream.nullInputStream();
+		DigestingInputStream digester = integrityCheck ? new DigestingInputStream(raw) : null;
+		// True while this thread holds a window permit not yet handed to a block
+		boolean holding = false;
+		try (InputStream is = digester != null ? digester : raw) {
+			while (count < meta.getFileSize() && failure.get() == null) {
+				// Wait for a block to be written if the window is full
+				window.acquire();
+				holding = true;
+				int blockSize = session.getBlockSize();
+				Block block;
+				if (source == null) {
+					block = readBlock(is, blockSize);
+				} else {
+					long length = Math.min(blockSize, meta.getFileSize() - count);
+					block = new Block(source.getEntity(count, length), length, null);
+				}
+				if (block == null) {
+					throw new EOFException(String.format("Unexpected end of data after %d of %d bytes", count, meta.getFileSize()));
+				}
+				int blockId = numBlocks++;
+				count += block.length();
+				// Wait until another block may be written in parallel
+				session.acquire();
+				uploader.execute(() -> writeBlock(block, url, blockId, requestId, 
+					new BlockUpload(route, meta, session, window, failure, written)));
+				holding = false;
+				if (source != null && digester != null) {
+					// Digest this block with a second read of the spooled file while it is written
+					digester.skipNBytes(block.length());
+				}
 			}
-	    	if (status != HttpStatus.CREATED.value()) {
-	    		throw new HTTPException(status);
-	    	}
-    	} while (count < meta.getFileSize());
-    	
-    	int numBlockWritten = (int) ((count + CHUNKSIZE - 1) / CHUNKSIZE);
-		return markComplete(url, meta, numBlockWritten);
-    }
+			// Wait for all blocks in flight to be written
+			window.acquire(uploadWindow);
+		} catch (IOException | RuntimeException e) {
+			// Skip any blocks not yet started
+			failure.compareAndSet(null, e);
+			awaitBlocks(window, holding);
+			throw e;
+		} catch (InterruptedException e) {
+			failure.compareAndSet(null, e);
+			awaitBlocks(window, holding);
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Upload interrupted", e);  // NOSONAR
+		} finally {
+			session.finish();
+			logProgress(route, meta, written.get(), session);
+		}
+		
+		Throwable cause = failure.get();
+		if (cause instanceof IOException ioex) {
+			throw ioex;
+		}
+		if (cause instanceof RuntimeException rex) {
+			throw rex;
+		}
+		if (cause != null) {
+			throw new RuntimeException(cause);  // NOSONAR Should never get here, but if we do we throw
+		}
+		IntegrityCheck ic = null;
+		if (digester != null) {
+			ic = digester.getIntegrityCheck();
+			verifyIntegrity(meta, ic, null);
+		}
+		return markComplete(url, meta, numBlocks, ic);
+	}
 
 	/**
-	 * This method enables a large block to be written in several parallel threads.
-	 * 
-	 * A single connection may only be able to handle a fraction of the available bandwidth 
-	 * to the Azure endpoint, and so it would be better to run uploads of the large buffer in 
-	 * smaller chunks in parallel. To optimize upload speed, we must determine the appropriate 
-	 * chunking by tuning the number of connections used.
-	 * 
-	 * @param chunk	The (big) chunk to upload
-	 * @param url	The url of the blob where it is to be uploaded
-	 * @param count	The number of bytes already written
-	 * @param requestId	The request identifier
-	 * @return	The status of the writes (either all CREATED or status of first failed block)
-	 * @throws IOException	If an error occurs
+	 * Wait for the blocks in flight to finish after a failure, so that the session is not
+	 * finished, nor the failure reported, while blocks are still being written.
+	 * @param window	The window of blocks in flight
+	 * @param holding	True if the caller holds a permit from the window
 	 */
-	private int writeChunks(Chunk chunk, URL url, long count, String requestId) throws IOException {
-		List<Chunk> chunkList = chunk.chunks(CHUNKSIZE);
-		List<Callable<Integer>> taskList = new ArrayList<>();
-		int blockId = (int) (count / CHUNKSIZE);
-		// Write in multiple threads.
-		for (int i = 0; i < chunkList.size(); i++) {
-			Chunk cnk = chunkList.get(i);
-			int theBlock = blockId + i;
-			taskList.add(() -> 
-				writeWithRetries(
-					cnk,
-					url,
-					theBlock,
-					requestId
-				)
-			);
-			count += cnk.length;
+	private void awaitBlocks(Semaphore window, boolean holding) {
+		window.acquireUninterruptibly(holding ? uploadWindow - 1 : uploadWindow);
+	}
+
+	/** The state shared by the blocks of a single upload */
+	private record BlockUpload(IDestination route, Metadata meta, AdaptiveUploadTuner.Session session, 
+		Semaphore window, AtomicReference<Throwable> failure, AtomicLong written) {}
+
+	private Block readBlock(InputStream is, int blockSize) throws IOException {
+		byte[] buffer = getBuffer(blockSize);
+		int n = is.readNBytes(buffer, 0, blockSize);
+		if (n <= 0) {
+			releaseBuffer(buffer);
+			return null;
 		}
-		int status = 0;
-		ExecutorService executor = Executors.newFixedThreadPool(MAX_THREADS);
+		return new Block(new ByteArrayEntity(buffer, 0, n), n, buffer);
+	}
+
+	private void writeBlock(Block block, URL url, int blockId, String requestId, BlockUpload u) {
+		long start = System.currentTimeMillis();
 		try {
-			List<Future<Integer>> futures = executor.invokeAll(taskList);
-			for (Future<Integer> result: futures) {
-				status = result.get();
-		    	if (status != HttpStatus.CREATED.value()) {
-		    		throw new HTTPException(status);
-		    	}
-			}
-		} catch (InterruptedException e) {
-			Thread.currentThread().interrupt();
-			throw new RuntimeException("Upload interrupted", e);  // NOSONAR
-		} catch (ExecutionException e) {
-			Throwable cause = e.getCause();
-			if (cause instanceof IOException ioex) {
-				throw ioex;
-			}
-			if (cause instanceof RuntimeException rex) {
-				throw rex;
+			if (u.failure().get() == null) {
+				writeWithRetries(block.entity(), url, blockId, requestId);
+				u.session().completed(block.length(), System.currentTimeMillis() - start);
+				long total = u.written().addAndGet(block.length());
+				if (total / BUFFERSIZE != (total - block.length()) / BUFFERSIZE) {
+					logProgress(u.route(), u.meta(), total, u.session());
+				}
 			}
-			throw new RuntimeException(e);  // NOSONAR Should never get here, but if we do we throw
+		} catch (Throwable t) {  // NOSONAR Report any failure to the reader
+			u.session().failed();
+			u.failure().compareAndSet(null, t);
 		} finally {
-			executor.shutdownNow();
+			u.session().release();
+			if (block.buffer() != null) {
+				releaseBuffer(block.buffer());
+			}
+			u.window().release();
 		}
-		return status;
+	}
+
+	private byte[] getBuffer(int size) {
+		byte[] buffer = buffers.poll();
+		// Buffers smaller than the current block size are discarded
+		return buffer != null && buffer.length >= size ? buffer : new byte[size];
+	}
+
+	private void releaseBuffer(byte[] buffer) {
+		// If the pool is full, the buffer is discarded.
+		buffers.offer(buffer);  // NOSONAR Return value is not needed
 	}
 	
 	/**
-	 * Write a chunk to the blob
-	 * @param chunk	The chunk to write
+	 * Write a block to the blob
+	 * @param entity	The content of the block, which must be repeatable
 	 * @param url	The base url for accessing the blob.
 	 * @param blockId	The block being written
 	 * @param requestId	The request identifier
 	 * @return	The status of the write
 	 * @throws IOException	If an unrecoverable IO Exception occurs
 	 */
-	private int writeWithRetries(Chunk chunk, URL url, int blockId, String requestId) throws IOException {
+	private int writeWithRetries(HttpEntity entity, URL url, int blockId, String requestId) throws IOException {
 		return retry(() -> {
 			String blockIdString = encodeBlockId(blockId);
 	
-			// Open a new connection for each block to be appended.
-			//
-			// This does two things:
-			// 1. It enables each write operation to be retryable on an exception
-			// 2. It escapes from firewall attempts to block sockets from sending more
-			//    than N bytes of data, since each append is <= BUFFERSIZE.
+			// Write each block in its own request, on a pooled connection, so that
+			// each write operation is retryable on an exception.
 			URL newUrl = new URL(
 				url.toString().replace("?", 
 					"?comp=block&blockid=" 
@@ -311,33 +434,44 @@ public class AzureBlobStorageSender extends RestfulFileSender implements FileSen
 				)
 			);
 			
-			HttpURLConnection con = getBlobConnection(newUrl, requestId);
-			con.setFixedLengthStreamingMode(chunk.length());
-			con.getOutputStream().write(chunk.buffer(), chunk.offset(), chunk.length());
-			
-			int result = con.getResponseCode();
-			if (result != HttpStatus.CREATED.value()) {
-				InputStream errorStream = con.getErrorStream();
-				throw new HttpException(result, errorStream, null);
-			}
-			return result;
+			HttpPut put = getBlobRequest(newUrl, requestId);
+			put.setEntity(entity);
+			return execute(newUrl, put);
 		});
 	}
 	
 	/**
-	 * Get a connection to a blob
-	 * @param url	The URL for the connection
+	 * Create a request to PUT to a blob
+	 * @param url	The URL for the request
 	 * @param requestId	The request identifier
-	 * @return	An HttpURLConnection set up to call an Azure Blop API
-	 * @throws IOException	If the connection cannot be opened
+	 * @return	An HttpPut set up to call an Azure Blob API
 	 */
-	private HttpURLConnection getBlobConnection(URL url, String requestId) throws IOException {
-		HttpURLConnection con = (HttpURLConnection) url.openConnection();
-		con.setRequestMethod("PUT");
-		con.setDoInput(true);
-		con.setDoOutput(true);
-		con.setRequestProperty("x-ms-client-request-id", requestId);
-		return con;
+	private HttpPut getBlobRequest(URL url, String requestId) {
+		HttpPut put = new HttpPut(url.toString());
+		put.setHeader("x-ms-client-request-id", requestId);
+		return put;
+	}
+
+	/**
+	 * Execute a request to the blob store on a pooled connection
+	 * @param url	The URL for the request
+	 * @param request	The request
+	 * @return	The status of the request
+	 * @throws IOException	If an IO Exception occurs, or an HttpException if the status is not CREATED
+	 */
+	private int execute(URL url, HttpUriRequest request) throws IOException {
+		try (CloseableHttpResponse response = httpClients.getClient(url).execute(request)) {
+			int result = response.getStatusLine().getStatusCode();
+			HttpEntity entity = response.getEntity();
+			if (result != HttpStatus.CREATED.value()) {
+				// Buffer the error, the connection is returned to the pool on close.
+				InputStream errorStream = entity == null ? null : new ByteArrayInputStream(EntityUtils.toByteArray(entity));
+				throw new HttpException(result, errorStream, null);
+			}
+			// Consume the response so that the connection can be reused
+			EntityUtils.consume(entity);
+			return result;
+		}
 	}
 
 	/**
@@ -354,36 +488,38 @@ public class AzureBlobStorageSender extends RestfulFileSender implements FileSen
 	 * Mark the blob as "Done"
 	 * Adds metadata to the blob with the name "uploaded" and the value=date
 	 * @param url	The request URL.
+	 * @param meta	The metadata
+	 * @param numBlocks	The number of blocks written
+	 * @param ic	The integrity check data for the blob, or null if not computed
 	 * @return	The status code.
 	 * @throws IOException On error marking the blob complete
 	 */
-	private int markComplete(URL url, Metadata meta, int numBlocks) throws IOException {
+	private int markComplete(URL url, Metadata meta, int numBlocks, IntegrityCheck ic) throws IOException {
 		return retry(() -> {
 			// Update the URL
 			String urlString = url.toString().replace("?", "?comp=blocklist&"); 
 			
 			URL newUrl = new URL(urlString);
-			HttpURLConnection con = getBlobConnection(newUrl, meta.getExtObjectKey());
+			HttpPut put = getBlobRequest(newUrl, meta.getExtObjectKey());
 	
 			// Compute the payload
 			String blockList = getBlockList(numBlocks);
 			byte[] data = blockList.getBytes(StandardCharsets.UTF_8);
 	
 			for (Header h: getHeaders(meta, null, null)) {
-				con.addRequestProperty(h.getName(), h.getValue());
+				// Content-Length is computed from the entity
+				if (!HTTP.CONTENT_LEN.equalsIgnoreCase(h.getName())) {
+					put.setHeader(h);
+				}
 			}
-            
-			// Write the data
-			con.setFixedLengthStreamingMode(data.length);
-			con.getOutputStream().write(data);
-			
-			// Check the response
-			int result = con.getResponseCode();
-			if (result != HttpStatus.CREATED.value()) {
-				InputStream errorStream = con.getErrorStream();
-				throw new HttpException(result, errorStream, null);
+			if (ic != null && ic.getHash().length != 0) {
+				// Store the MD5 hash of the whole blob
+				put.setHeader("x-ms-blob-content-md5", ic.toString());
 			}
-			return result;
+            
+			// Write the data and check the response
+			put.setEntity(new ByteArrayEntity(data));
+			return execute(newUrl, put);
 		});
 	}
 
@@ -455,10 +591,10 @@ public class AzureBlobStorageSender extends RestfulFileSender implements FileSen
 			return;
 		}
 		
-		AzureBlob[] b = AzureBlob.listBlobs(con, getSslSocketFactory());
+		AzureBlob[] b = AzureBlob.listBlobs(con, httpClients);
 		Arrays.sort(b, AzureBlobStorageSender::blobSizeComparator);
 		for (AzureBlob nextToDelete: b) {
-			nextToDelete.delete(con, getSslSocketFactory());
+			nextToDelete.delete(con, httpClients);
 			if (fileSize + getMaxUploadSize() < getDiskFreeSpace()) {
 				// There's enough room
 				return;
@@ -0,0 +1,138 @@
+package gov.cdc.izgateway.ads;
+
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.lang3.StringUtils;
+
+import gov.cdc.izgateway.model.IDestination;
+import gov.cdc.izgateway.security.crypto.CryptoException;
+import gov.cdc.izgateway.security.crypto.CryptoSupport;
+import gov.cdc.izgateway.soap.fault.SecurityFault;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * A cache of the decrypted credentials for each destination used by a file sender,
+ * so that secrets are not decrypted, and SAS tokens are not parsed and matched against
+ * the egress IP Address, on every connection.
+ *
+ * Entries are keyed by destination id, and are only used while the encrypted password of
+ * the destination is unchanged, so a credential rotated in the database takes effect as
+ * soon as the destination service refreshes.  The SAS token selected for an Azure destination
+ * is recomputed when the egress IP Address changes, or when the token expires according to
+ * its se= (signed expiry) parameter.
+ *
+ * @author Audacious Inquiry
+ */
+@Slf4j
+public class CredentialCache {
+	/**
+	 * The decrypted credential for a destination
+	 * @param encryptedPassword	The encrypted password it was decrypted from, identifying the version of the password
+	 * @param password	The decrypted password
+	 * @param sasToken	The SAS token selected for the egress IP Address, or null if not yet selected
+	 * @param egressAddress	The egress IP Address the SAS token was selected for
+	 * @param expiresAt	The expiration time of the SAS token in milliseconds, or Long.MAX_VALUE if it does not expire
+	 */
+	private record Credential(String encryptedPassword, String password, String sasToken, String egressAddress, long expiresAt) {
+		private boolean isCurrent(IDestination route) {
+			return Objects.equals(encryptedPassword, route.getPassword());
+		}
+		private boolean hasCurrentToken() {
+			return sasToken != null && Objects.equals(egressAddress, ADSUtils.getEgressPoint()) &&
+				System.currentTimeMillis() < expiresAt;
+		}
+	}
+
+	/** The length of an ISO-8601 date without a time */
+	private static final int DATE_LENGTH = 10;
+	private final Map<String, Credential> credentials = new ConcurrentHashMap<>();
+
+	/**
+	 * Get the decrypted password for a destination
+	 * @param route	The destination
+	 * @return	The decrypted password
+	 * @throws SecurityFault	If the password cannot be decrypted
+	 */
+	public String getPassword(IDestination route) throws SecurityFault {
+		Credential c = credentials.get(route.getDestId());
+		if (c != null && c.isCurrent(route)) {
+			return c.password();
+		}
+		return decrypt(route).password();
+	}
+
+	/**
+	 * Get the SAS token to use for an Azure destination from this server's egress IP Address.
+	 * @see ADSUtils#getAzureToken(String)
+	 * @param route	The destination
+	 * @return	The SAS token
+	 * @throws SecurityFault	If the password cannot be decrypted, or no token is valid for this server
+	 */
+	public String getAzureToken(IDestination route) throws SecurityFault {
+		Credential c = credentials.get(route.getDestId());
+		if (c != null && c.isCurrent(route) && c.hasCurrentToken()) {
+			return c.sasToken();
+		}
+		if (c == null || !c.isCurrent(route)) {
+			c = decrypt(route);
+		}
+		String token = ADSUtils.getAzureToken(c.password());
+		long expiresAt = getExpiration(token);
+		if (expiresAt <= System.currentTimeMillis()) {
+			log.warn("SAS token for {} expired at {}", route.getDestId(), Instant.ofEpochMilli(expiresAt));
+		}
+		credentials.put(route.getDestId(),
+			new Credential(c.encryptedPassword(), c.password(), token, ADSUtils.getEgressPoint(), expiresAt));
+		return token;
+	}
+
+	/**
+	 * Remove the credentials for a destination
+	 * @param destId	The destination id
+	 */
+	public void invalidate(String destId) {
+		credentials.remove(destId);
+	}
+
+	private Credential decrypt(IDestination route) throws SecurityFault {
+		String encrypted = route.getPassword();
+		try {
+			Credential c = new Credential(encrypted, CryptoSupport.decrypt(encrypted), null, null, Long.MAX_VALUE);
+			credentials.put(route.getDestId(), c);
+			return c;
+		} catch (CryptoException e) {
+			throw SecurityFault.decryptionFailure(route, e);
+		}
+	}
+
+	/**
+	 * Get the expiration time from the se= (signed expiry) parameter of a SAS token
+	 * @param token	The SAS token
+	 * @return	The expiration time in milliseconds, or Long.MAX_VALUE if not present or not parseable
+	 */
+	static long getExpiration(String token) {
+		for (String param: StringUtils.split(StringUtils.removeStart(token, "?"), '&')) {
+			if (param.startsWith("se=")) {
+				String value = URLDecoder.decode(param.substring(3), StandardCharsets.UTF_8);
+				try {
+					if (value.length() == DATE_LENGTH) {
+						// A date without a time expires at the start of the day
+						return LocalDate.parse(value).atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli();
+					}
+					return Instant.parse(value).toEpochMilli();
+				} catch (DateTimeParseException e) {
+					log.debug("Cannot parse SAS token expiration {}", value);
+				}
+			}
+		}
+		return Long.MAX_VALUE;
+	}
+}
@@ -1,13 +1,14 @@
 package gov.cdc.izgateway.ads;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 
+import gov.cdc.izgateway.Application;
 import gov.cdc.izgateway.ads.mockdex.DexConfiguration;
 import gov.cdc.izgateway.logging.markers.Markers2;
 import gov.cdc.izgateway.model.IDestination;
 import gov.cdc.izgateway.security.ClientTlsSupport;
-import gov.cdc.izgateway.security.crypto.CryptoException;
-import gov.cdc.izgateway.security.crypto.CryptoSupport;
 import gov.cdc.izgateway.security.oauth.ExternalTokenStore;
 import gov.cdc.izgateway.soap.fault.DestinationConnectionFault;
 import gov.cdc.izgateway.soap.fault.MessageTooLargeFault;
@@ -16,12 +17,11 @@ import gov.cdc.izgateway.utils.CapturingSSLSocketFactory;
 import io.tus.java.client.*;
 import jakarta.servlet.http.HttpServletResponse;
 import jakarta.validation.constraints.NotNull;
-import lombok.Getter;
-import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.time.DateFormatUtils;
 
 
@@ -46,6 +46,14 @@ import java.net.HttpURLConnection;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * This class implements the FileSender interface to Azure and the Azurite Azure emulator.
@@ -54,12 +62,39 @@ import java.util.*;
 @Component
 public class DEXStorageSender extends RestfulFileSender implements FileSender {
     private static final Random RANDOM = new Random();
-    @Getter
-    @Setter
-    private static int currentChunkSize = 2 << 20;		// 1Mb
-    @Getter
-    @Setter
-	private static int maxChunkSize = 10 * (2 << 20);   // 10MB : NOTE: We'd like to go to 128Mb, but DataHandler somehow limits read to 10Mb
+    private static final String UPLOAD_CONCAT = "Upload-Concat";
+    /** Size of chunks used for chunked transfer encoding */
+    private static final int STREAMING_CHUNK_SIZE = 2 << 20;		// 2Mb
+    private static final int MIN_CHUNK_SIZE = 2 << 20;
+	private static final int MAX_CHUNK_SIZE = 10 * (2 << 20);   // 10MB : NOTE: We'd like to go to 128Mb, but DataHandler somehow limits read to 10Mb
+	/** Tunes the TUS chunk size for each destination */
+	private final AdaptiveUploadTuner tuner = new AdaptiveUploadTuner(
+		new AdaptiveUploadTuner.Settings(MIN_CHUNK_SIZE, 1), MIN_CHUNK_SIZE, MAX_CHUNK_SIZE, 1);
+	/** The TUS extension used to upload parts of a file in parallel */
+	private static final String CONCATENATION = "concatenation";
+	/** Files are not split into parts smaller than this */
+	private static final long MIN_PART_SIZE = 64L << 20;	// 64Mb
+	/** Whether the TUS endpoint for each destination supports the concatenation extension */
+	private final Map<String, Boolean> concatenationSupported = new ConcurrentHashMap<>();
+	/** Uploads the parts of files sent in parallel */
+	private final ExecutorService partUploader;
+	/** Tokens for destinations not used for this long are not refreshed */
+	private static final long TOKEN_IDLE_TIME = TimeUnit.HOURS.toMillis(1);
+	/** Tokens are refreshed this long before they expire */
+	private static final long TOKEN_REFRESH_MARGIN = TimeUnit.MINUTES.toMillis(1);
+	/** The least time between refreshes of the token for a destination, including after a failure */
+	private static final long MIN_TOKEN_REFRESH_DELAY = TimeUnit.SECONDS.toMillis(30);
+	private static final ObjectMapper MAPPER = new ObjectMapper();
+	/** A destination for which a token was obtained, and when */
+	private record TokenUse(IDestination route, long lastUsed) {}
+	/** Destinations for which tokens are refreshed in the background */
+	private final Map<String, TokenUse> tokenUses = new ConcurrentHashMap<>();
+	/** Destinations which have a token refresh scheduled */
+	private final Set<String> refreshing = ConcurrentHashMap.newKeySet();
+	/** The token store for each destination, replaced in one step when its token is refreshed */
+	private final Map<String, ExternalTokenStore> tokenStores = new ConcurrentHashMap<>();
+	private final ScheduledExecutorService tokenRefresher;
+	
     private final class DexTusExecutor extends TusExecutor {
 		private static final String FINGERPRINT = "fingerprint";
 		private static final String METADATA = "metadata";
@@ -68,38 +103,27 @@ public class DEXStorageSender extends RestfulFileSender implements FileSender {
 		private final Metadata meta; 
 		private static final int MAX_RETRIES = 4;
 		private final long startTime = System.currentTimeMillis();
+		private final AdaptiveUploadTuner.Session session;
+		/** The URL of the upload, once complete */
+		private URL uploadURL = null;
 
-		private DexTusExecutor(IDestination route, HttpURLConnection con, DataHandler data, Metadata meta) throws IOException, MetadataFault {
-			this.client = new DexTusClient(route, con);
+		private DexTusExecutor(IDestination route, DexTusClient client, TusUpload upload, Metadata meta) {
+			this.client = client;
+			this.session = tuner.startSession(route.getDestId());
 			this.meta = meta;
-			this.upload = getUploader(data);
+			this.upload = upload;
 		}
 		
-	    private TusUpload getUploader(DataHandler data) throws IOException, MetadataFault {
-	        TusUpload u = new TusUpload();
-	        u.setMetadata(getMetadataAsMap(meta));
-			Map<String, String> metadataAsMap = getMetadataAsMap(meta);
-			metadataAsMap.put("filename", metadataAsMap.get("meta_ext_filename"));
-	        u.setInputStream(data.getInputStream());
-	        u.setSize(meta.getFileSize());
-	        u.setFingerprint(getFingerprint());
-	        return u;
-	    }
-	    
-	    private String getFingerprint() {
-	        byte[] fingerprint = new byte[16];
-	        RANDOM.nextBytes(fingerprint);
-	        return Base64.getEncoder().encodeToString(fingerprint);
-	    }
-	    
-	    private int updateChunkSize(TusUploader uploader, int chunkSize) {
+	    private void updateChunkSize(TusUploader uploader) {
+	    	int chunkSize = session.getBlockSize();
+	    	if (chunkSize == uploader.getChunkSize()) {
+	    		return;
+	    	}
         	try {
         		uploader.setChunkSize(chunkSize);
-        		return Math.min(chunkSize + chunkSize, maxChunkSize);
         	} catch (OutOfMemoryError omerr) {
         		// If we could not get the memory, don't cause a failure. The original buffer should still be good.
         	}
-    		return uploader.getChunkSize();
 	    }
 
 		@Override
@@ -107,7 +131,6 @@ public class DEXStorageSender extends RestfulFileSender implements FileSender {
 			int retries = 0;
 			boolean success = false;
 			ProtocolException lastPex = null;
-			int chunkSize = currentChunkSize;
 			while (!success && retries < MAX_RETRIES) {
 		        try {
 		            // First try to resume an upload. If that's not possible we will create a new
@@ -115,21 +138,27 @@ public class DEXStorageSender extends RestfulFileSender implements FileSender {
 		            // a connection to the remote server and doing the uploading.
 		            TusUploader uploader = client.resumeOrCreateUpload(upload);
    
-		            // Upload the file in chunks.
+		            // Upload the file in chunks, adjusting the chunk size as we go.
+		            int n;
 	   	            do {
-		            	chunkSize = updateChunkSize(uploader, chunkSize);
+		            	updateChunkSize(uploader);
 						reportProgress(uploader);
 						
 			            // Upload the file as long as data is available. Once the
 			            // file has been fully uploaded the method will return -1
-		            } while (uploader.uploadChunk() > -1);
-		            meta.setPath(uploader.getUploadURL().getPath());
+						long chunkStart = System.currentTimeMillis();
+						n = uploader.uploadChunk();
+						if (n > 0) {
+							session.completed(n, System.currentTimeMillis() - chunkStart);
+						}
+		            } while (n > -1);
+		            uploadURL = uploader.getUploadURL();
 		            // Allow the HTTP connection to be closed and cleaned up
 		            uploader.finish();
 		            success = true;
 		        } catch (ProtocolException pex ) {  // NOSONAR: Logging and throwing OK
   		        	++retries;
-  		        	chunkSize = currentChunkSize;	// Reset chunk size on failure.
+  		        	session.failed();	// Reduce chunk size on failure.
 		    		String error = getError(pex);
 		    		lastPex = pex;
   		            log.error(Markers2.append(METADATA, meta, FINGERPRINT, upload.getFingerprint()), 
@@ -146,7 +175,10 @@ public class DEXStorageSender extends RestfulFileSender implements FileSender {
 		            // Log it and defer to makeAttempts to perform exponential back-off.
 		            log.error(Markers2.append(ex, METADATA, meta, FINGERPRINT, upload.getFingerprint()), 
 		                    "RuntimeException while uploading to {}: {}", upload.getFingerprint(), ex.getMessage());
+		            session.failed();
 		            throw ex;
+		        } finally {
+		        	session.finish();
 		        }
 			}
 			if (!success) {
@@ -174,8 +206,11 @@ public class DEXStorageSender extends RestfulFileSender implements FileSender {
 			        		"rate", mbpsRate,
 			        		"totaBytes", totalBytes,
 			        		"url", client.getUploadCreationURL(),
+			        		"chunkSize", session.getBlockSize(),
+			        		"chunkTime", session.getRtt(),
 			        		FINGERPRINT, upload.getFingerprint()), 
-			        "{} progress {} (estimated {} b / {} s remaining @ {} mbps)", upload.getFingerprint(), progress, remaining, estimatedRemaining, mbpsRate);
+			        "{} progress {} (estimated {} b / {} s remaining @ {} mbps using {} byte chunks)", upload.getFingerprint(), progress, remaining, estimatedRemaining, mbpsRate,
+			        session.getBlockSize());
 			}
 		}
 
@@ -195,10 +230,13 @@ public class DEXStorageSender extends RestfulFileSender implements FileSender {
     
 	private final class DexTusClient extends TusClient {
 		private final IDestination route;
+		/** The value of the Upload-Concat header sent when creating uploads, or null for a regular upload */
+		private final String uploadConcat;
 		private String token = null;
 
-		private DexTusClient(IDestination route, HttpURLConnection con) {
+		private DexTusClient(IDestination route, HttpURLConnection con, String uploadConcat) {
 			this.route = route;
+			this.uploadConcat = uploadConcat;
 			
 			// Configure tus HTTP endpoint. This URL will be used for creating new uploads
 	        // using the Creation extension
@@ -247,10 +285,13 @@ public class DEXStorageSender extends RestfulFileSender implements FileSender {
 				}
 		    	break;
 		    case "POST", "PUT", "PATCH": // NOSONAR: Fallthrough OK
+		    	if (uploadConcat != null && "POST".equals(connection.getRequestMethod())) {
+		    		connection.addRequestProperty(UPLOAD_CONCAT, uploadConcat);
+		    	}
 		    	connection.setDoOutput(true);  
 		    	// falling through
 		    default:
-		        connection.setChunkedStreamingMode(currentChunkSize);
+		        connection.setChunkedStreamingMode(STREAMING_CHUNK_SIZE);
 		    }
 		}
 
@@ -282,6 +323,20 @@ public class DEXStorageSender extends RestfulFileSender implements FileSender {
     public DEXStorageSender(SenderConfig config, final ClientTlsSupport tlsSupport, final DexConfiguration dexConfig) {
     	super(config, tlsSupport);
     	this.dexConfig = dexConfig;
+    	this.partUploader = Executors.newFixedThreadPool(Math.max(1, dexConfig.getParallelUploads()), 
+    		Application.newThreadFactory("DEX-Upload", config.isVirtualThreads()));
+    	this.tokenRefresher = Executors.newSingleThreadScheduledExecutor(
+    		r -> Thread.ofPlatform().daemon().name("DEX-Token-Refresh").unstarted(r));
+    }
+    
+    /**
+     * Stop uploading parts on shutdown
+     */
+    @Override
+    public void destroy() {
+    	partUploader.shutdownNow();
+    	tokenRefresher.shutdownNow();
+    	super.destroy();
     }
 
 	@Override
@@ -352,7 +407,7 @@ public class DEXStorageSender extends RestfulFileSender implements FileSender {
         
         // Write output in CHUNK_SIZE (1Mb) Chunks
         if (con.getDoOutput()) {
-        	con.setChunkedStreamingMode(currentChunkSize);
+        	con.setChunkedStreamingMode(STREAMING_CHUNK_SIZE);
         }
         
         return con;
@@ -369,10 +424,192 @@ public class DEXStorageSender extends RestfulFileSender implements FileSender {
         // exceptions and issue retries with small delays between them and take fully
         // advantage of tus' resumability to offer more reliability.
         // This step is optional but highly recommended.
-        TusExecutor executor = new DexTusExecutor(route, con, data, meta);
-        executor.makeAttempts();
+        UploadSource source = UploadSource.from(data);
+        int parts = getNumberOfParts(meta.getFileSize());
+        if (source != null && parts > 1 && isConcatenationSupported(route, con)) {
+        	return writeInParallel(con, route, source, meta, parts);
+        }
+        
+        InputStream is = data.getInputStream();
+        DigestingInputStream digester = null;
+        if (config.isIntegrityCheck()) {
+        	digester = new DigestingInputStream(is);
+        	is = digester;
+        }
+        TusUpload upload = getUpload(is, meta.getFileSize());
+        upload.setMetadata(getMetadataAsMap(meta));
+        DexTusExecutor executor = new DexTusExecutor(route, new DexTusClient(route, con, null), upload, meta);
+        if (executor.makeAttempts()) {
+        	meta.setPath(executor.uploadURL.getPath());
+        }
+        if (digester != null) {
+        	verifyIntegrity(meta, digester.getIntegrityCheck(), null);
+        }
+        return HttpServletResponse.SC_CREATED;
+    }
+    
+    private static TusUpload getUpload(InputStream is, long size) {
+        TusUpload u = new TusUpload();
+        u.setInputStream(is);
+        u.setSize(size);
+        u.setFingerprint(getFingerprint());
+        return u;
+    }
+    
+    private static String getFingerprint() {
+        byte[] fingerprint = new byte[16];
+        RANDOM.nextBytes(fingerprint);
+        return Base64.getEncoder().encodeToString(fingerprint);
+    }
+    
+    private int getNumberOfParts(long fileSize) {
+    	return (int) Math.min(dexConfig.getParallelUploads(), fileSize / MIN_PART_SIZE);
+    }
+    
+    /**
+     * Write a spooled file as parts uploaded in parallel, and then concatenate them, using the 
+     * TUS concatenation extension. Each part is uploaded with the same retry and chunk size
+     * tuning as a file uploaded serially.  While the parts are uploaded, the integrity check
+     * data for the whole file is computed by a second, sequential read of the spooled file,
+     * since the parts are read and sent concurrently, and cannot be digested in order.
+     * 
+     * @param con	The connection for the upload creation URL
+     * @param route	The destination
+     * @param source	The spooled file
+     * @param meta	The metadata for the file
+     * @param parts	The number of parts to upload
+     * @return	The HTTP Status (201 Created) on success.
+     * @throws IOException	If an error occurred uploading a part or verifying the content
+     * @throws ProtocolException	If the TUS endpoint rejected a part or the concatenation
+     * @throws MetadataFault	If the metadata could not be sent
+     */
+    private int writeInParallel(HttpURLConnection con, IDestination route, UploadSource source, Metadata meta, int parts) throws IOException, ProtocolException, MetadataFault {
+    	long size = meta.getFileSize();
+    	long partSize = (size + parts - 1) / parts;
+    	log.info("Uploading {} to {} in {} parts", meta.getExtObjectKey(), route.getDestId(), parts);
+    	List<Future<URL>> futures = new ArrayList<>();
+    	for (long offset = 0; offset < size; offset += partSize) {
+    		long partOffset = offset;
+    		long length = Math.min(partSize, size - offset);
+    		futures.add(partUploader.submit(() -> uploadPart(con, route, source, meta, partOffset, length)));
+    	}
+    	
+    	List<String> partPaths = new ArrayList<>();
+    	try {
+        	IntegrityCheck ic = null;
+        	if (config.isIntegrityCheck()) {
+        		try (DigestingInputStream digester = new DigestingInputStream(source.getInputStream())) {
+        			digester.skip(size);
+        			ic = digester.getIntegrityCheck();
+        		}
+        	}
+    		for (Future<URL> f: futures) {
+    			URL partURL = f.get();
+    			if (partURL == null) {
+    				throw new IOException("Upload interrupted for " + meta.getExtObjectKey());
+    			}
+    			partPaths.add(partURL.getPath());
+    		}
+    		meta.setPath(concatenate(con, route, meta, partPaths).getPath());
+        	if (ic != null) {
+        		verifyIntegrity(meta, ic, null);
+        	}
+    	} catch (InterruptedException e) {
+    		Thread.currentThread().interrupt();
+    		throw new IOException("Upload interrupted for " + meta.getExtObjectKey(), e);
+    	} catch (ExecutionException e) {
+    		if (e.getCause() instanceof IOException ioex) {
+    			throw ioex;
+    		}
+    		if (e.getCause() instanceof ProtocolException pex) {
+    			throw pex;
+    		}
+    		if (e.getCause() instanceof MetadataFault mf) {
+    			throw mf;
+    		}
+    		throw new IOException(e.getCause().getMessage(), e.getCause());
+    	} finally {
+    		// Stop any parts still uploading if one has failed
+    		futures.forEach(f -> f.cancel(true));
+    	}
         return HttpServletResponse.SC_CREATED;
     }
+    
+    private URL uploadPart(HttpURLConnection con, IDestination route, UploadSource source, Metadata meta, long offset, long length) throws IOException, ProtocolException {
+    	try (InputStream is = source.getInputStream(offset, length)) {
+    		TusUpload upload = getUpload(is, length);
+    		upload.setMetadata(new HashMap<>());
+    		DexTusExecutor executor = new DexTusExecutor(route, new DexTusClient(route, con, "partial"), upload, meta);
+    		return executor.makeAttempts() ? executor.uploadURL : null;
+    	}
+    }
+    
+    /**
+     * Create the final upload from the uploaded parts
+     * @param con	The connection for the upload creation URL
+     * @param route	The destination
+     * @param meta	The metadata for the file
+     * @param partPaths	The paths of the uploaded parts, in order
+     * @return	The URL of the final upload
+     * @throws IOException	If an IO error occurred
+     * @throws ProtocolException	If the TUS endpoint rejected the request
+     * @throws MetadataFault	If the metadata could not be sent
+     */
+    private URL concatenate(HttpURLConnection con, IDestination route, Metadata meta, List<String> partPaths) throws IOException, ProtocolException, MetadataFault {
+    	DexTusClient client = new DexTusClient(route, con, "final;" + String.join(" ", partPaths));
+    	TusUpload upload = new TusUpload();
+    	upload.setMetadata(getMetadataAsMap(meta));
+    	
+    	HttpURLConnection post = (HttpURLConnection) con.getURL().openConnection();
+    	post.setRequestMethod("POST");
+    	client.prepareConnection(post);
+    	post.addRequestProperty("Upload-Metadata", upload.getEncodedMetadata());
+    	// The final upload has no content of its own
+    	post.getOutputStream().close();
+    	
+    	int status = post.getResponseCode();
+    	if (status < 200 || status >= 300) {
+    		throw new ProtocolException("unexpected status code (" + status + ") while concatenating upload", post);
+    	}
+    	String location = post.getHeaderField(HttpHeaders.LOCATION);
+    	if (StringUtils.isBlank(location)) {
+    		throw new ProtocolException("missing upload URL in response for concatenating upload", post);
+    	}
+    	return new URL(con.getURL(), location);
+    }
+    
+    /**
+     * Determine if the TUS endpoint for a destination supports the concatenation extension.
+     * The result is remembered for the destination, unless the endpoint could not be reached.
+     * @param route	The destination
+     * @param con	The connection for the upload creation URL
+     * @return	true if the endpoint advertises the concatenation extension
+     */
+    private boolean isConcatenationSupported(IDestination route, HttpURLConnection con) {
+    	Boolean supported = concatenationSupported.get(route.getDestUri());
+    	if (supported != null) {
+    		return supported;
+    	}
+    	try {
+	    	HttpURLConnection options = (HttpURLConnection) con.getURL().openConnection();
+	    	options.setRequestMethod("OPTIONS");
+	    	new DexTusClient(route, con, null).prepareConnection(options);
+	    	int status = options.getResponseCode();
+	    	if (status < 200 || status >= 300) {
+	    		log.warn("Unexpected status {} checking TUS extensions for {}", status, route.getDestId());
+	    		return false;
+	    	}
+	    	String extensions = options.getHeaderField("Tus-Extension");
+	    	supported = extensions != null && 
+	    		Arrays.stream(extensions.split(",")).map(String::trim).anyMatch(CONCATENATION::equals);
+	    	concatenationSupported.put(route.getDestUri(), supported);
+	    	log.info("TUS endpoint for {} {} concatenation", route.getDestId(), supported ? "supports" : "does not support");
+	    	return supported;
+    	} catch (IOException e) {
+    		log.warn(Markers2.append(e), "Cannot check TUS extensions for {}: {}", route.getDestId(), e.getMessage());
+    		return false;
+    	}
+    }
 
     /**
      * Convert a metadata object to a map
@@ -409,21 +646,113 @@ public class DEXStorageSender extends RestfulFileSender implements FileSender {
     }
     
     private String getToken(IDestination route) throws IOException, SecurityFault {
-        URL base = new URL(route.getDestUri());
-        ExternalTokenStore ts = null;
-		try {
-			ts = ExternalTokenStore.getTokenStore(base, route.getUsername(), CryptoSupport.decrypt(route.getPassword()));
-		} catch (CryptoException e) {
-			throw SecurityFault.decryptionFailure(route, e);
-		}
-        ts.setUsingQueryParameters(dexConfig.isUsingQueryParameters());
-        ts.setTlsSupport(tlsSupport);
-        ts.setDebugging(fiddle);
+        String destId = route.getDestId();
+        ExternalTokenStore ts = tokenStores.get(destId);
+        if (ts == null) {
+        	ExternalTokenStore created = newTokenStore(route);
+        	ts = tokenStores.computeIfAbsent(destId, k -> created);
+        }
         String token = ts.getToken();
         log.debug("Obtained Token: {}", token);
+        tokenUses.put(destId, new TokenUse(route, System.currentTimeMillis()));
+        if (refreshing.add(destId)) {
+        	scheduleRefresh(destId, getRefreshDelay(token));
+        }
         return token;
     }
 
+    private ExternalTokenStore newTokenStore(IDestination route) throws IOException, SecurityFault {
+        ExternalTokenStore ts = new ExternalTokenStore(new URL(route.getDestUri()), route.getUsername(), credentials.getPassword(route));
+        ts.setUsingQueryParameters(dexConfig.isUsingQueryParameters());
+        ts.setTlsSupport(tlsSupport);
+        ts.setDebugging(fiddle);
+        return ts;
+    }
+    
+    /**
+     * Forget the OAuth token for a destination, so that the next upload obtains a new one.
+     * @param destId	The destination id
+     */
+    public void clearTokens(String destId) {
+    	tokenStores.remove(destId);
+    }
+    
+    private void scheduleRefresh(String destId, long delay) {
+    	try {
+    		tokenRefresher.schedule(() -> refreshToken(destId), delay, TimeUnit.MILLISECONDS);
+    	} catch (RejectedExecutionException e) {
+    		// Shutting down
+    		refreshing.remove(destId);
+    	}
+    }
+    
+    /**
+     * Refresh the OAuth token for a recently used destination ahead of its expiration,
+     * so that uploads do not wait for a new token to be issued.  The new token is obtained
+     * in a new token store, which replaces the one in use only if that succeeds, so that
+     * uploads always find a token, and a failure to refresh leaves the current token in use.
+     * @param destId	The destination id
+     */
+    private void refreshToken(String destId) {
+    	if (!isRecentlyUsed(tokenUses.get(destId))) {
+    		refreshing.remove(destId);
+    		// Unless it was used again meanwhile, the next use schedules its refresh
+    		if (!isRecentlyUsed(tokenUses.get(destId)) || !refreshing.add(destId)) {
+    			return;
+    		}
+    	}
+    	IDestination route = tokenUses.get(destId).route();
+    	long delay;
+    	try {
+    		ExternalTokenStore ts = newTokenStore(route);
+    		String token = ts.getToken();
+    		tokenStores.put(destId, ts);
+    		delay = getRefreshDelay(token);
+    		log.debug("Refreshed token for {}, next refresh in {} seconds", destId, TimeUnit.MILLISECONDS.toSeconds(delay));
+    	} catch (IOException | SecurityFault | RuntimeException e) {
+    		log.warn(Markers2.append(e), "Cannot refresh token for {}: {}", destId, e.getMessage());
+    		delay = MIN_TOKEN_REFRESH_DELAY;
+    	}
+    	scheduleRefresh(destId, delay);
+    }
+    
+    private static boolean isRecentlyUsed(TokenUse use) {
+    	return use != null && System.currentTimeMillis() - use.lastUsed() <= TOKEN_IDLE_TIME;
+    }
+    
+    /**
+     * Get the time until a token should be refreshed, which is a margin before it expires. 
+     * The expiration is read from the token when it is a JWT, otherwise the token is 
+     * refreshed every dex.token-refresh-period seconds.
+     * @param token	The token
+     * @return	The time until the token should be refreshed in milliseconds
+     */
+    private long getRefreshDelay(String token) {
+    	long expiresAt = getExpiration(token);
+    	if (expiresAt == 0) {
+    		return TimeUnit.SECONDS.toMillis(Math.max(60, dexConfig.getTokenRefreshPeriod()));
+    	}
+    	return Math.max(MIN_TOKEN_REFRESH_DELAY, expiresAt - System.currentTimeMillis() - TOKEN_REFRESH_MARGIN);
+    }
+    
+    /**
+     * Get the expiration time of a JWT from its exp claim
+     * @param token	The token
+     * @return	The expiration time in milliseconds, or 0 if it is not a JWT with an exp claim
+     */
+    static long getExpiration(String token) {
+    	String[] parts = StringUtils.split(token, '.');
+    	if (parts == null || parts.length != 3) {
+    		return 0;
+    	}
+    	try {
+    		JsonNode exp = MAPPER.readTree(Base64.getUrlDecoder().decode(parts[1])).get("exp");
+    		return exp != null && exp.canConvertToLong() ? TimeUnit.SECONDS.toMillis(exp.asLong()) : 0;
+    	} catch (IOException | IllegalArgumentException e) {
+    		return 0;
+    	}
+    }
+
 
 	@Override
 	protected void setExpiration(HttpURLConnection con, Date date) {
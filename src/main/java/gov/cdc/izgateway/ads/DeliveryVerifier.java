@@ -0,0 +1,219 @@
+package gov.cdc.izgateway.ads;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import gov.cdc.izgateway.logging.markers.Markers2;
+import gov.cdc.izgateway.model.IDestination;
+import gov.cdc.izgateway.soap.fault.Fault;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Verifies the delivery of ADS submissions in the background.
+ *
+ * DEX delivers uploaded files onward asynchronously.  Rather than holding the request
+ * thread until that completes, submissions are tracked here, and their status is polled
+ * from the destination with jittered exponential backoff.  Each poll cycle checks all
+ * submissions that are due for a destination together, so that they share the token and
+ * pooled connections for that destination.
+ *
+ * Once a submission has been delivered, its status no longer changes, so the status reported for
+ * it is retained in a bounded cache, from which /rest/ads/{destinationId}/info/{tguid} is answered
+ * without another call to the destination.  Submissions that are not yet delivered are not cached,
+ * so that requests for them go to the destination.
+ *
+ * @author Audacious Inquiry
+ */
+@Slf4j
+@Component
+public class DeliveryVerifier implements InitializingBean, DisposableBean {
+	private static final ObjectMapper MAPPER = new ObjectMapper();
+
+	@Value("${ads.delivery.poll-interval:1}")
+	private int pollIntervalInSeconds;
+
+	@Value("${ads.delivery.initial-backoff:2000}")
+	private long initialBackoffInMillis;
+
+	@Value("${ads.delivery.max-backoff:60000}")
+	private long maxBackoffInMillis;
+
+	@Value("${ads.delivery.max-attempts:12}")
+	private int maxAttempts;
+
+	@Value("${ads.delivery.cache-size:1000}")
+	private int cacheSize;
+
+	/** Submissions awaiting delivery, by destination, and then by delivery path */
+	private final Map<String, Map<String, Submission>> outstanding = new ConcurrentHashMap<>();
+	/** The status reported by the destination for delivered submissions, by destination and delivery path */
+	private Map<String, String> statusCache;
+	private ScheduledExecutorService scheduler;
+
+	private static final class Submission {
+		private final MetadataImpl meta;
+		private final IDestination dest;
+		private final FileSender sender;
+		private int attempts = 0;
+		private long nextPoll;
+		private String lastResult = null;
+
+		private Submission(MetadataImpl meta, IDestination dest, FileSender sender, long nextPoll) {
+			this.meta = meta;
+			this.dest = dest;
+			this.sender = sender;
+			this.nextPoll = nextPoll;
+		}
+	}
+
+	@Override
+	public void afterPropertiesSet() {
+		int maxEntries = Math.max(1, cacheSize);
+		statusCache = new LinkedHashMap<>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+				return size() > maxEntries;
+			}
+		};
+		scheduler = Executors.newSingleThreadScheduledExecutor(
+			r -> Thread.ofPlatform().daemon().name("ADS-Delivery-Verifier").unstarted(r));
+		int interval = Math.max(1, pollIntervalInSeconds);
+		scheduler.scheduleWithFixedDelay(this::poll, interval, interval, TimeUnit.SECONDS);
+	}
+
+	@Override
+	public void destroy() {
+		scheduler.shutdownNow();
+	}
+
+	/**
+	 * Track a submission until the destination reports that it has been delivered.
+	 * @param meta	The metadata of the submission
+	 * @param dest	The destination it was sent to
+	 * @param sender	The sender used to check its status
+	 * @param deliveryPath	The path identifying the submission at the destination
+	 */
+	public void track(MetadataImpl meta, IDestination dest, FileSender sender, String deliveryPath) {
+		// Copy the metadata, the original is returned to the caller
+		MetadataImpl copy = new MetadataImpl(meta);
+		copy.setPath(deliveryPath);
+		Submission s = new Submission(copy, dest, sender, System.currentTimeMillis() + getBackoff(0));
+		// Add it atomically, so that it cannot be added to a map being removed by poll()
+		outstanding.compute(dest.getDestId(), (k, v) -> {
+			Map<String, Submission> pending = v == null ? new ConcurrentHashMap<>() : v;
+			pending.put(deliveryPath, s);
+			return pending;
+		});
+	}
+
+	/**
+	 * Get the status reported for a delivered submission
+	 * @param destId	The destination
+	 * @param deliveryPath	The path identifying the submission at the destination
+	 * @return	The status reported by the destination, or null if not known to be delivered
+	 */
+	public String getStatus(String destId, String deliveryPath) {
+		synchronized (statusCache) {
+			return statusCache.get(getKey(destId, deliveryPath));
+		}
+	}
+
+	private void putStatus(String destId, String deliveryPath, String status) {
+		synchronized (statusCache) {
+			statusCache.put(getKey(destId, deliveryPath), status);
+		}
+	}
+
+	private static String getKey(String destId, String deliveryPath) {
+		return destId + "/" + deliveryPath;
+	}
+
+	/**
+	 * Compute the delay before the next poll, using exponential backoff with jitter,
+	 * so that submissions made together are not polled together.
+	 * @param attempts	The number of polls made so far
+	 * @return	The delay in milliseconds
+	 */
+	long getBackoff(int attempts) {
+		long backoff = Math.min(maxBackoffInMillis, initialBackoffInMillis << Math.min(attempts, 20));
+		return backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+	}
+
+	private void poll() {
+		try {
+			long now = System.currentTimeMillis();
+			for (Map.Entry<String, Map<String, Submission>> e: outstanding.entrySet()) {
+				List<Submission> due = new ArrayList<>();
+				for (Submission s: e.getValue().values()) {
+					if (s.nextPoll <= now) {
+						due.add(s);
+					}
+				}
+				if (!due.isEmpty()) {
+					pollDestination(e.getKey(), e.getValue(), due);
+				}
+			}
+			for (String destId: outstanding.keySet()) {
+				outstanding.computeIfPresent(destId, (k, v) -> v.isEmpty() ? null : v);
+			}
+		} catch (RuntimeException ex) {
+			// Don't let an unexpected error stop the scheduled task
+			log.error(Markers2.append(ex), "Unexpected error verifying delivery: {}", ex.getMessage());
+		}
+	}
+
+	private void pollDestination(String destId, Map<String, Submission> pending, List<Submission> due) {
+		for (Submission s: due) {
+			String deliveryPath = s.meta.getPath();
+			try {
+				s.lastResult = s.sender.getSubmissionStatus(s.dest, s.meta);
+				JsonNode delivery = getDelivery(s.lastResult);
+				if (delivery != null) {
+					pending.remove(deliveryPath);
+					putStatus(destId, deliveryPath, s.lastResult);
+					log.info(Markers2.append("metadata", s.meta), "Delivery of {} to {} verified: {} at {}",
+						deliveryPath, destId, delivery.path("status").asText(), delivery.path("location").asText());
+					continue;
+				}
+			} catch (Fault | JsonProcessingException | RuntimeException ex) {
+				log.debug(Markers2.append(ex), "Cannot retrieve submission status for {}: {}", deliveryPath, ex.getMessage());
+			}
+			if (++s.attempts >= maxAttempts) {
+				// The status is not cached, as it may yet change
+				pending.remove(deliveryPath);
+				log.warn(Markers2.append("metadata", s.meta), "Failed to verify delivery of {} to {} after {} attempts: {}",
+					deliveryPath, destId, s.attempts, s.lastResult);
+			} else {
+				s.nextPoll = System.currentTimeMillis() + getBackoff(s.attempts);
+			}
+		}
+	}
+
+	/**
+	 * Get the first delivery reported in a submission status
+	 * @param result	The submission status reported by DEX
+	 * @return	The delivery, or null if it has not been delivered yet
+	 * @throws JsonProcessingException	If the status could not be parsed
+	 */
+	static JsonNode getDelivery(String result) throws JsonProcessingException {
+		JsonNode delivery = MAPPER.readTree(result).path("deliveries").path(0);
+		return delivery.isMissingNode() || delivery.isNull() ? null : delivery;
+	}
+}
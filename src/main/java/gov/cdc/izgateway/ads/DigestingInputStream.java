@@ -0,0 +1,119 @@
+package gov.cdc.izgateway.ads;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.ServiceConfigurationError;
+
+import gov.cdc.izgateway.logging.markers.Markers2;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * An input stream that computes the integrity check data for the content read through it,
+ * so that a sender reading content through buffers can verify it in the same pass in which
+ * it uploads it, or a sender writing spooled content directly can digest it in a second read.
+ *
+ * As bytes are read, the stream updates MD5 and SHA-256 digests, counts the total length,
+ * and captures the leading bytes used to detect the file type.  Skipped bytes are read
+ * and digested, so that the digests always cover the entire content.  Mark and reset
+ * are not supported.
+ *
+ * @author Audacious Inquiry
+ */
+@Slf4j
+public class DigestingInputStream extends FilterInputStream {
+	private static final int SKIP_BUFFER_SIZE = 65536;
+	private final MessageDigest md5;
+	private final MessageDigest sha256;
+	private final byte[] magic = new byte[IntegrityCheck.MAGIC_LENGTH];
+	private long length = 0;
+	private byte[] skipBuffer = null;
+
+	/**
+	 * Create a new digesting stream
+	 * @param in	The stream to read from
+	 */
+	public DigestingInputStream(InputStream in) {
+		super(in);
+		md5 = getDigest("MD5");
+		sha256 = getDigest("SHA-256");
+	}
+
+	private static MessageDigest getDigest(String algorithm) {
+		try {
+			return MessageDigest.getInstance(algorithm);
+		} catch (NoSuchAlgorithmException e) {
+			log.error(Markers2.append(e), "No {} Algorithm available: {}", algorithm, e);
+			throw new ServiceConfigurationError("Misconfigured System");
+		}
+	}
+
+	@Override
+	public int read() throws IOException {
+		int b = super.read();
+		if (b >= 0) {
+			update(new byte[] { (byte) b }, 0, 1);
+		}
+		return b;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		int n = super.read(b, off, len);
+		if (n > 0) {
+			update(b, off, n);
+		}
+		return n;
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+		if (skipBuffer == null) {
+			skipBuffer = new byte[SKIP_BUFFER_SIZE];
+		}
+		long skipped = 0;
+		while (skipped < n) {
+			int read = read(skipBuffer, 0, (int) Math.min(skipBuffer.length, n - skipped));
+			if (read < 0) {
+				break;
+			}
+			skipped += read;
+		}
+		return skipped;
+	}
+
+	@Override
+	public boolean markSupported() {
+		return false;
+	}
+
+	private void update(byte[] b, int off, int len) {
+		if (length < magic.length) {
+			System.arraycopy(b, off, magic, (int) length, (int) Math.min(len, magic.length - length));
+		}
+		md5.update(b, off, len);
+		sha256.update(b, off, len);
+		length += len;
+	}
+
+	/** @return The number of bytes read so far */
+	public long getLength() {
+		return length;
+	}
+
+	/**
+	 * Complete the digests of the content read.  This should only be called once,
+	 * after all content has been read.
+	 * @return	The integrity check data for the content read
+	 */
+	public IntegrityCheck getIntegrityCheck() {
+		if (length == 0) {
+			return new IntegrityCheck(new byte[0], 0, null);
+		}
+		byte[] leading = Arrays.copyOf(magic, (int) Math.min(length, magic.length));
+		return new IntegrityCheck(md5.digest(), sha256.digest(), length, IntegrityCheck.getMimeType(leading));
+	}
+}
@@ -0,0 +1,72 @@
+package gov.cdc.izgateway.ads;
+
+import java.util.ServiceConfigurationError;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Component;
+
+import gov.cdc.izgateway.ads.ADSUtils.EgressAddress;
+import gov.cdc.izgateway.common.HealthService;
+import gov.cdc.izgateway.logging.markers.Markers2;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Finds the egress IP Address of this server at startup, and refreshes it periodically
+ * in the background, so that callers of {@link ADSUtils#getMyIpAddress()}, including
+ * error handlers, use the cached value rather than calling out to the network.
+ *
+ * If a refresh fails, the previously found address continues to be used, and its
+ * age is reported.
+ *
+ * @author Audacious Inquiry
+ */
+@Slf4j
+@Component
+@Lazy(false)
+public class EgressAddressService implements InitializingBean, DisposableBean {
+	@Value("${ads.egress.refresh-period:15}")
+	private int refreshPeriodInMinutes;
+
+	private ScheduledExecutorService scheduler;
+
+	@Override
+	public void afterPropertiesSet() {
+		refresh();
+		scheduler = Executors.newSingleThreadScheduledExecutor(
+			r -> Thread.ofPlatform().daemon().name("Egress-Address-Refresh").unstarted(r));
+		int period = Math.max(1, refreshPeriodInMinutes);
+		scheduler.scheduleWithFixedDelay(this::refresh, period, period, TimeUnit.MINUTES);
+	}
+
+	@Override
+	public void destroy() {
+		scheduler.shutdownNow();
+	}
+
+	/**
+	 * Refresh the egress IP address
+	 */
+	void refresh() {
+		EgressAddress previous = ADSUtils.getEgressAddress();
+		try {
+			EgressAddress current = ADSUtils.refreshMyIpAddress();
+			if (previous == null || !previous.address().equals(current.address())) {
+				log.info("Egress IP Address is {}", current.address());
+				HealthService.setEgressDnsAddress(current.address());
+			}
+		} catch (ServiceConfigurationError e) {
+			if (previous == null) {
+				log.error(Markers2.append(e), "Cannot find egress IP Address: {}", e.getMessage());
+			} else {
+				log.warn(Markers2.append(e), "Cannot refresh egress IP Address, using {} found {}s ago: {}",
+					previous.address(), TimeUnit.MILLISECONDS.toSeconds(previous.getAge()), e.getMessage());
+			}
+		}
+	}
+}
@@ -0,0 +1,144 @@
+package gov.cdc.izgateway.ads;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URL;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocketFactory;
+
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.bouncycastle.jsse.util.SNISocketFactory;
+
+import gov.cdc.izgateway.logging.markers.Markers2;
+import gov.cdc.izgateway.security.ClientTlsSupport;
+import gov.cdc.izgateway.utils.CapturingSSLSocketFactory;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * A set of pooled, keep-alive HTTP clients used by file senders, one for each destination host.
+ *
+ * Opening a new HttpURLConnection for every request performs a full TLS handshake each time,
+ * which for a large upload written in 8Mb blocks means thousands of handshakes. Clients from
+ * this pool reuse connections to the same host, up to a configurable number of connections per
+ * host, and close connections that have been idle for longer than the idle timeout.
+ *
+ * Connections use the SSL context from {@link ClientTlsSupport}, and send the destination host
+ * name in the SNI extension, as connections from {@link ClientTlsSupport#getSNIEnabledConnection(URL)} do.
+ * When the SSL context changes, e.g., because the client certificate has been reloaded, the client for
+ * a host is replaced on its next use, and the old client is closed once requests using it have had
+ * time to finish.
+ *
+ * @author Audacious Inquiry
+ */
+@Slf4j
+public class HttpClientPool implements Closeable {
+	private final ClientTlsSupport tlsSupport;
+	private final int maxConnectionsPerHost;
+	private final long idleTimeoutMillis;
+	private final boolean fiddle;
+	private final Map<String, PooledClient> clients = new ConcurrentHashMap<>();
+
+	/** How long a replaced client is kept open for requests already using it */
+	private static final long RETIRE_DELAY_IN_MINUTES = 5;
+
+	/** A client, and the SSL context its connections were created with */
+	private record PooledClient(SSLContext context, CloseableHttpClient client) {}
+
+	/**
+	 * Create a new pool of clients
+	 * @param tlsSupport	The TLS support for client connections
+	 * @param maxConnectionsPerHost	The maximum number of connections to retain for each host
+	 * @param idleTimeoutInSeconds	The time after which idle connections are closed
+	 * @param fiddle	If true, capture TLS traffic for debugging
+	 */
+	HttpClientPool(ClientTlsSupport tlsSupport, int maxConnectionsPerHost, int idleTimeoutInSeconds, boolean fiddle) {
+		this.tlsSupport = tlsSupport;
+		this.maxConnectionsPerHost = Math.max(1, maxConnectionsPerHost);
+		this.idleTimeoutMillis = TimeUnit.SECONDS.toMillis(Math.max(1, idleTimeoutInSeconds));
+		this.fiddle = fiddle;
+	}
+
+	/**
+	 * Get the client for the host of a URL
+	 * @param url	The URL
+	 * @return	A client that pools connections to the host
+	 */
+	public CloseableHttpClient getClient(URL url) {
+		SSLContext context = tlsSupport.getSSLContext();
+		PooledClient pooled = clients.get(getOrigin(url));
+		if (pooled != null && pooled.context() == context) {
+			return pooled.client();
+		}
+		return clients.compute(getOrigin(url), (k, v) -> {
+			if (v != null && v.context() == context) {
+				return v;
+			}
+			if (v != null) {
+				log.info("Replacing connection pool for {} after change to SSL context", k);
+				CompletableFuture.delayedExecutor(RETIRE_DELAY_IN_MINUTES, TimeUnit.MINUTES).execute(() -> close(v.client()));
+			}
+			return new PooledClient(context, createClient(url, context));
+		}).client();
+	}
+
+	private static String getOrigin(URL url) {
+		int port = url.getPort() == -1 ? url.getDefaultPort() : url.getPort();
+		return url.getProtocol() + "://" + url.getHost() + ":" + port;
+	}
+
+	private CloseableHttpClient createClient(URL url, SSLContext context) {
+		SSLSocketFactory delegate = context.getSocketFactory();
+		if (fiddle) {
+			delegate = new CapturingSSLSocketFactory(delegate);
+		}
+		// Ensure connections to this host use SNI
+		SSLConnectionSocketFactory sslFactory = new SSLConnectionSocketFactory(
+			new SNISocketFactory(delegate, url), HttpsURLConnection.getDefaultHostnameVerifier());
+		Registry<ConnectionSocketFactory> registry = RegistryBuilder.<ConnectionSocketFactory>create()
+			.register("http", PlainConnectionSocketFactory.getSocketFactory())
+			.register("https", sslFactory)
+			.build();
+
+		PoolingHttpClientConnectionManager cm = new PoolingHttpClientConnectionManager(registry);
+		cm.setMaxTotal(maxConnectionsPerHost);
+		cm.setDefaultMaxPerRoute(maxConnectionsPerHost);
+		// Check connections that have been idle for a while before reuse, the server may have closed them.
+		cm.setValidateAfterInactivity(2000);
+
+		log.info("Created connection pool for {} with {} connections", getOrigin(url), maxConnectionsPerHost);
+		return HttpClients.custom()
+			.setConnectionManager(cm)
+			.evictExpiredConnections()
+			.evictIdleConnections(idleTimeoutMillis, TimeUnit.MILLISECONDS)
+			.build();
+	}
+
+	@Override
+	public void close() {
+		for (PooledClient pooled: clients.values()) {
+			close(pooled.client());
+		}
+		clients.clear();
+	}
+
+	private static void close(CloseableHttpClient client) {
+		try {
+			client.close();
+		} catch (IOException e) {
+			log.warn(Markers2.append(e), "Error closing connection pool: {}", e.getMessage());
+		}
+	}
+}
@@ -5,18 +5,13 @@ import org.apache.commons.lang3.StringUtils;
 import org.bouncycastle.util.encoders.Base64;
 import org.springframework.web.multipart.MultipartFile;
 
-import gov.cdc.izgateway.logging.markers.Markers2;
 import jakarta.activation.DataHandler;
 import lombok.extern.slf4j.Slf4j;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.ServiceConfigurationError;
 
 /**
  * Utility class to compute integrity check data
@@ -28,17 +23,22 @@ public class IntegrityCheck {
     private static final byte[] MSOXML_FILE_MAGIC = { 0x50, 0x4B, 0x03, 0x04, 0x14, 0x00, 0x06, 0x00 };
     private static final byte[] MSOOLE_FILE_MAGIC = { (byte) 0xD0, (byte) 0xCF, 0x11, (byte) 0xE0, (byte) 0xA1, (byte) 0xB1, 0x1A, (byte) 0xE1 };
     private static final byte[] ZIP_FILE_MAGIC = { 0x50, 0x4B, 0x03, 0x04 };
-    private static final Map<String, byte[]> MAGIC_NUMBERS = new HashMap<>();
+    /** The number of leading bytes needed to detect a file type */
+    static final int MAGIC_LENGTH = 8;
+    /** Mime types by magic number, in the order they are checked (ZIP is a prefix of MSOXML) */
+    private static final Map<String, byte[]> MAGIC_NUMBERS = new LinkedHashMap<>();
     static {
-        MAGIC_NUMBERS.put("", MSOXML_FILE_MAGIC);
-        MAGIC_NUMBERS.put("", MSOOLE_FILE_MAGIC);
-        MAGIC_NUMBERS.put("", ZIP_FILE_MAGIC);
+        MAGIC_NUMBERS.put("application/vnd.openxmlformats-officedocument.spreadsheetml.sheet", MSOXML_FILE_MAGIC);
+        MAGIC_NUMBERS.put("application/vnd.ms-excel", MSOOLE_FILE_MAGIC);
+        MAGIC_NUMBERS.put("application/x-zip-compressed", ZIP_FILE_MAGIC);
     }
 
     /** The MD5 Hash of the data.  While MD5 is considered insecure for many security functions,
      * it is still perfectly accepable for use as a data integrity check.
      */
     private final byte[] hash;
+    /** The SHA-256 Hash of the data, or an empty array if not computed */
+    private final byte[] sha256;
     /** Length of data is basic integrity check */
     private final long length;
 
@@ -51,20 +51,35 @@ public class IntegrityCheck {
      * @param mimeType The mime type of the content
      */
     public IntegrityCheck(byte[] hash, long length, String mimeType) {
+        this(hash, new byte[0], length, mimeType);
+    }
+
+    /** Construct a new integity check object
+     * @param hash The MD5 hash code value
+     * @param sha256 The SHA-256 hash code value
+     * @param length The length of the content
+     * @param mimeType The mime type of the content
+     */
+    public IntegrityCheck(byte[] hash, byte[] sha256, long length, String mimeType) {
         this.hash = hash;
+        this.sha256 = sha256;
         this.length = length;
         this.mimeType = mimeType;
     }
 
     /**
-     * Compute the length of the data. Attempts to get it from the MultipartFile if it
-     * exists, otherwise, computes an IntegrityCheck from the file data.
+     * Compute the length of the data. Attempts to get it from the spooled upload or
+     * MultipartFile if it exists, otherwise, computes an IntegrityCheck from the file data.
      * 
      * @param data The DataHandler
      * @return	The length of content in the data handler
      * @throws IOException	If an IO Exception occurs
      */
     public static IntegrityCheck getLength(DataHandler data) throws IOException {
+    	UploadSource source = UploadSource.from(data);
+    	if (source != null) {
+    		return new IntegrityCheck(new byte[0], source.getSize(), null);
+    	}
     	if (data.getContent() instanceof MultipartFile mp) {
     		long fileSize = mp.getSize();
     		return new IntegrityCheck(new byte[0], fileSize, null);
@@ -72,45 +87,32 @@ public class IntegrityCheck {
     	return getIntegrityCheck(data);
     }
     /** 
-     * Compute MD5 Hash and length of DataHandler content 
+     * Compute MD5 Hash and length of DataHandler content.  This reads all of the content,
+     * senders should instead read content through a {@link DigestingInputStream} while sending it.
      * @param data  The data handler
      * @return An IntegrityCheck object containing the MD5 Hash and length
      * @throws IOException 
      */
     public static IntegrityCheck getIntegrityCheck(DataHandler data) throws IOException {
-        MessageDigest md;
-        try {
-            md = MessageDigest.getInstance("MD5");
-        } catch (NoSuchAlgorithmException e) {
-            log.error(Markers2.append(e), "No MD5 Algorithm available: {}", e);
-            throw new ServiceConfigurationError("Misconfigured System");
-        }
-        byte[] buffer = new byte[1048576];
-        byte[] magic = null;
-        InputStream is;
-        long fileSize = 0;
-        is = data.getInputStream();
-        int read = 0;
-        while ((read = is.read(buffer)) > 0) {
-            if (magic == null) {
-                magic = Arrays.copyOf(buffer, 8);
-            }
-            fileSize += read;
-            md.update(buffer, 0, read);
+        try (DigestingInputStream is = new DigestingInputStream(data.getInputStream())) {
+            is.skip(Long.MAX_VALUE);
+            return is.getIntegrityCheck();
         }
-        if (magic == null) {
-        	return new IntegrityCheck(new byte[0], fileSize, null);
-        }
-        byte[] hash = md.digest();
-        String mimeType = null;
+    }
+
+    /**
+     * Detect the mime type of content from its leading bytes
+     * @param leading	The first bytes of the content
+     * @return	The mime type, or null if not recognized
+     */
+    static String getMimeType(byte[] leading) {
         for (Map.Entry<String, byte[]> e: MAGIC_NUMBERS.entrySet()) {
             byte[] key = e.getValue();
-            if (Arrays.compare(magic, 0, key.length, key, 0, key.length) == 0) {
-                mimeType = e.getKey();
-                break;
+            if (leading.length >= key.length && Arrays.compare(leading, 0, key.length, key, 0, key.length) == 0) {
+                return e.getKey();
             }
         }
-        return new IntegrityCheck(hash, fileSize, mimeType); 
+        return null;
     }
 
     
@@ -121,6 +123,13 @@ public class IntegrityCheck {
         return hash;
     }
 
+    /**
+     * @return the SHA-256 hash code, or an empty array if not computed.
+     */
+    public byte[] getSha256() {
+        return sha256;
+    }
+
     /**
      * @return the length.
      */
@@ -17,6 +17,7 @@ import lombok.Data;
 import lombok.EqualsAndHashCode;
 import lombok.extern.slf4j.Slf4j;
 
+import org.apache.commons.codec.binary.Hex;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.ObjectUtils;
 import org.apache.commons.lang3.StringUtils;
@@ -27,6 +28,7 @@ import org.apache.commons.lang3.tuple.Pair;
 import org.apache.http.Header;
 import org.apache.http.HttpHeaders;
 import org.apache.http.client.HttpResponseException;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
@@ -54,14 +56,15 @@ import javax.xml.ws.http.HTTPException;
  */
 @Slf4j
 @Component
-public abstract class RestfulFileSender implements FileSender {
+public abstract class RestfulFileSender implements FileSender, DisposableBean {
     private static final String FILENAME_INVALID = "Filename invalid";
     private static final File STORAGE = new File(".");
 	protected static final int CHUNK_SIZE = 2 << 20; // 2 MB
 	/** Set to true to see output in debug console */
     protected boolean fiddle = false;
     protected final ClientTlsSupport tlsSupport;
-    private static final boolean DO_INTEGRITY_CHECK = false; 
+    /** Pooled keep-alive clients for requests to the destination */
+    protected final HttpClientPool httpClients;
     
     /**
      * This class is used to throw an HttpException in derived
@@ -98,6 +101,31 @@ public abstract class RestfulFileSender implements FileSender {
         
         @Value("${ads.ssl.debug:true}")
         private boolean sslDebug;
+        
+        /** Verify the integrity of content as it is sent */
+        @Value("${ads.integrity-check:true}")
+        private boolean integrityCheck;
+        
+        /** Maximum number of pooled connections to each destination host */
+        @Value("${ads.http.max-connections-per-host:8}")
+        private int maxConnectionsPerHost;
+        
+        /** Time in seconds after which idle pooled connections are closed */
+        @Value("${ads.http.idle-timeout:60}")
+        private int idleTimeoutInSeconds;
+        
+        /** Number of threads uploading blocks, shared by all uploads, and the most used by one upload */
+        @Value("${ads.upload.threads:6}")
+        private int uploadThreads;
+        
+        /** Maximum number of blocks read ahead of the upload, for each upload */
+        @Value("${ads.upload.window:8}")
+        private int uploadWindow;
+        
+        /** Upload on virtual threads, so that threads waiting on the network do not hold platform threads */
+        @Value("${spring.threads.virtual.enabled:false}")
+        private boolean virtualThreads;
+        
         private final IDestinationService destinationService;
         
         /**
@@ -112,12 +140,23 @@ public abstract class RestfulFileSender implements FileSender {
     
     private static final List<String> LOCALHOST = Arrays.asList(HostInfo.LOCALHOST_IP4, HostInfo.LOCALHOST_IP6, HostInfo.LOCALHOST);
 	protected final SenderConfig config;
+	/** Decrypted credentials for the destinations this sender sends to */
+	protected final CredentialCache credentials = new CredentialCache();
 	static final int  BUFFERSIZE = 134217728; // 128MB
     
     protected RestfulFileSender(SenderConfig config, ClientTlsSupport tlsSupport) {
     	this.config = config;
     	this.fiddle = tlsSupport.getConfig().isSslDebug() || config.isSslDebug();
     	this.tlsSupport = tlsSupport;
+    	this.httpClients = new HttpClientPool(tlsSupport, config.getMaxConnectionsPerHost(), config.getIdleTimeoutInSeconds(), fiddle);
+    }
+    
+    /**
+     * Close pooled connections on shutdown
+     */
+    @Override
+    public void destroy() {
+    	httpClients.close();
     }
     /**
      *  Connect the socket to the phiz_trust_ws_client trust store for endpoint certificate validation.
@@ -356,8 +395,9 @@ public abstract class RestfulFileSender implements FileSender {
         // set the file size before the header is generated.
         IntegrityCheck ic = null;
         if (data != null) {
-        	// IntegrityCheck is costly on large files, takes a few minutes to compute.
-            ic = DO_INTEGRITY_CHECK ? IntegrityCheck.getIntegrityCheck(data) : IntegrityCheck.getLength(data);
+        	// Computing a hash here is costly on large files, it would take another pass over the data.
+        	// Instead, senders verify integrity while sending using a DigestingInputStream.
+            ic = IntegrityCheck.getLength(data);
             if (ic.getHash().length != 0) {
             	headers.add(new BasicHeader("Content-MD5", ic.toString()));
             }
@@ -367,6 +407,24 @@ public abstract class RestfulFileSender implements FileSender {
         return getHeaders(meta, headers, ic == null ? null : ic.getMimeType());
     }
     
+    /**
+     * Verify the integrity check data computed while sending content, and report it.
+     * @param meta	The metadata for the content
+     * @param ic	The integrity check data computed while sending the content
+     * @param reportedMd5	The base64 encoded MD5 hash of the content reported by the destination, or null if not reported
+     * @throws IOException	If the content sent does not match the metadata, or the hash reported by the destination
+     */
+    protected void verifyIntegrity(Metadata meta, IntegrityCheck ic, String reportedMd5) throws IOException {
+    	if (ic.getLength() != meta.getFileSize()) {
+    		throw new IOException(String.format("Integrity check failed, sent %d of %d bytes", ic.getLength(), meta.getFileSize()));
+    	}
+    	if (reportedMd5 != null && !reportedMd5.equals(ic.toString())) {
+    		throw new IOException(String.format("Integrity check failed, destination reported MD5 %s, expected %s", reportedMd5, ic));
+    	}
+    	log.info(Markers2.append("md5", ic.toString(), "sha256", Hex.encodeHexString(ic.getSha256()), "mimeType", ic.getMimeType()), 
+    		"Integrity verified for {} ({} bytes)", meta.getExtObjectKey(), ic.getLength());
+    }
+    
 	protected List<Header> getHeaders(Metadata meta, List<Header> headers, String mimeType) {
 		if (headers == null) {
 	        headers = new ArrayList<>();
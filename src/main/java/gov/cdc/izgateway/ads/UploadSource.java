@@ -0,0 +1,198 @@
+package gov.cdc.izgateway.ads;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.apache.commons.io.input.BoundedInputStream;
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.AbstractHttpEntity;
+import org.springframework.web.multipart.MultipartFile;
+
+import gov.cdc.izgateway.logging.markers.Markers2;
+import jakarta.activation.DataHandler;
+import jakarta.activation.DataSource;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * The content of an ADS upload, spooled to a file so that senders can write any region
+ * of it directly from the file's channel, rather than copying the content through large
+ * buffers on the heap.
+ *
+ * Regions are written with {@link FileChannel#transferTo(long, long, WritableByteChannel)},
+ * which needs no buffer of its own when the target is a plain socket or file, and only a
+ * small fixed size buffer otherwise (e.g., when the data must be encrypted for TLS).
+ *
+ * @author Audacious Inquiry
+ */
+@Slf4j
+public class UploadSource implements DataSource, Closeable {
+	private final Path path;
+	private final FileChannel channel;
+	private final String name;
+	private final String contentType;
+	private final long size;
+
+	private UploadSource(Path path, String name, String contentType) throws IOException {
+		this.path = path;
+		this.channel = FileChannel.open(path, StandardOpenOption.READ);
+		this.name = name;
+		this.contentType = contentType;
+		this.size = channel.size();
+	}
+
+	/**
+	 * Spool an uploaded file. When the multipart content is already stored on disk, it
+	 * is moved to the spool file rather than copied.
+	 * @param file	The uploaded file
+	 * @return	The spooled content, which must be closed to remove the spooled file
+	 * @throws IOException	If the file cannot be spooled
+	 */
+	public static UploadSource spool(MultipartFile file) throws IOException {
+		Path path = Files.createTempFile("ads-", ".upload");
+		try {
+			// transferTo(File) moves a file stored on disk, transferTo(Path) always copies it.
+			file.transferTo(path.toFile());
+			return new UploadSource(path, file.getOriginalFilename(), file.getContentType());
+		} catch (IOException | RuntimeException e) {
+			Files.deleteIfExists(path);
+			throw e;
+		}
+	}
+
+	/**
+	 * Get the spooled content of a DataHandler
+	 * @param data	The DataHandler
+	 * @return	The spooled content, or null if the content is not spooled
+	 */
+	public static UploadSource from(DataHandler data) {
+		return data != null && data.getDataSource() instanceof UploadSource source ? source : null;
+	}
+
+	/** @return The size of the content in bytes */
+	public long getSize() {
+		return size;
+	}
+
+	@Override
+	public InputStream getInputStream() throws IOException {
+		// Each stream has its own position
+		return Files.newInputStream(path);
+	}
+
+	@Override
+	public OutputStream getOutputStream() throws IOException {
+		throw new IOException("Upload content is read only");
+	}
+
+	@Override
+	public String getContentType() {
+		return contentType;
+	}
+
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Get a stream reading a region of the content
+	 * @param offset	The offset of the region
+	 * @param length	The length of the region
+	 * @return	A stream that reads only the region
+	 * @throws IOException	If the spooled file cannot be read
+	 */
+	public InputStream getInputStream(long offset, long length) throws IOException {
+		FileChannel ch = FileChannel.open(path, StandardOpenOption.READ);
+		ch.position(offset);
+		return new BoundedInputStream(Channels.newInputStream(ch), length);
+	}
+
+	/**
+	 * Write a region of the content to a channel
+	 * @param offset	The offset of the region
+	 * @param length	The length of the region
+	 * @param target	The channel to write it to
+	 * @return	The number of bytes written
+	 * @throws IOException	If an error occurs writing the region
+	 */
+	public long transferTo(long offset, long length, WritableByteChannel target) throws IOException {
+		long written = 0;
+		while (written < length) {
+			long n = channel.transferTo(offset + written, length - written, target);
+			if (n <= 0) {
+				throw new EOFException(String.format("Unexpected end of upload after %d of %d bytes", offset + written, size));
+			}
+			written += n;
+		}
+		return written;
+	}
+
+	/**
+	 * Get an entity that writes a region of the content to a request.
+	 * The entity is repeatable, so the request can be retried.
+	 * @param offset	The offset of the region
+	 * @param length	The length of the region
+	 * @return	The entity
+	 */
+	public HttpEntity getEntity(long offset, long length) {
+		return new RegionEntity(offset, length);
+	}
+
+	private final class RegionEntity extends AbstractHttpEntity {
+		private final long offset;
+		private final long length;
+
+		private RegionEntity(long offset, long length) {
+			this.offset = offset;
+			this.length = length;
+		}
+
+		@Override
+		public boolean isRepeatable() {
+			return true;
+		}
+
+		@Override
+		public long getContentLength() {
+			return length;
+		}
+
+		@Override
+		public InputStream getContent() throws IOException {
+			return UploadSource.this.getInputStream(offset, length);
+		}
+
+		@Override
+		public void writeTo(OutputStream out) throws IOException {
+			transferTo(offset, length, Channels.newChannel(out));
+			out.flush();
+		}
+
+		@Override
+		public boolean isStreaming() {
+			return false;
+		}
+	}
+
+	/**
+	 * Close the content and remove the spooled file
+	 */
+	@Override
+	public void close() {
+		try {
+			channel.close();
+			Files.deleteIfExists(path);
+		} catch (IOException e) {
+			log.warn(Markers2.append(e), "Cannot remove spooled upload {}: {}", path, e.getMessage());
+		}
+	}
+}
@@ -33,6 +33,14 @@ public class DexConfiguration {
 
     @Value("${dex.numRetries:2}")
 	private int numRetries;
+
+    // Number of parts uploaded in parallel for large files when the endpoint supports TUS concatenation
+    @Value("${dex.parallel-uploads:4}")
+	private int parallelUploads;
+
+    // Seconds between background refreshes of OAuth tokens whose expiration cannot be read from the token
+    @Value("${dex.token-refresh-period:600}")
+	private int tokenRefreshPeriod;
     
     public DexConfiguration(@Autowired AppProperties app) {
     	mode = app.getServerMode();
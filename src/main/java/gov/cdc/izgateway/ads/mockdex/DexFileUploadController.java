@@ -50,6 +50,7 @@ import javax.xml.ws.http.HTTPException;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.URI;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
@@ -57,11 +58,17 @@ import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * This is a Mock File Upload Controller that duplicates the API supplied by the CDC DEX endpoint.
  * 
+ * It supports the TUS concatenation extension, so that files can be uploaded as parts in parallel. 
+ * Partial uploads are retained until the final upload that concatenates them is created, at which
+ * point the concatenated file is delivered and the parts are removed.
+ * 
  * @author Audacious Inquiry
  */
 @Slf4j
@@ -76,6 +83,9 @@ public class DexFileUploadController {
     private final Path tusUploadDirectory;
     private final DexConfiguration config;
     private static final int MAX_ENTRIES = 10;
+    private static final String UPLOAD_CONCAT = "Upload-Concat";
+    /** URIs of partial uploads waiting to be concatenated */
+    private final Set<String> partialUploads = ConcurrentHashMap.newKeySet();
     private final Map<String, Object> submissions = new LinkedHashMap<>() {
 		private static final long serialVersionUID = 1L;
 		@Override
@@ -358,7 +368,15 @@ public class DexFileUploadController {
         
         this.uploadService.process(servletRequest, servletResponse);
 
-        String uploadURI = servletRequest.getRequestURI();
+        String uploadURI = getUploadURI(servletRequest, servletResponse);
+        if (uploadURI == null) {
+        	return;
+        }
+        String uploadConcat = servletRequest.getHeader(UPLOAD_CONCAT);
+        if ("POST".equals(method) && StringUtils.startsWith(uploadConcat, "partial")) {
+        	// Partial uploads are delivered when they are concatenated
+        	partialUploads.add(uploadURI);
+        }
 
         UploadInfo uploadInfo = null;
         try {
@@ -368,7 +386,7 @@ public class DexFileUploadController {
             throw e;
         }
 
-        if (uploadInfo != null && !uploadInfo.isUploadInProgress()) {
+        if (uploadInfo != null && !uploadInfo.isUploadInProgress() && !partialUploads.contains(uploadURI)) {
         	submissions.put(StringUtils.substringAfterLast(uploadURI, "/"), getInfo(uploadInfo));
             try (InputStream is = this.uploadService.getUploadedBytes(uploadURI)) {
                 Path output = this.appUploadDirectory.resolve(uploadInfo.getFileName());
@@ -385,9 +403,44 @@ public class DexFileUploadController {
                 // If an error occurs deleting data in mock, this is not an essential failure of the service.
                 log.error(Markers2.append(e), "delete upload");
             }
+            if ("POST".equals(method) && StringUtils.startsWith(uploadConcat, "final")) {
+            	deleteParts(uploadConcat);
+            }
         }
     }
     
+    /**
+     * Get the URI of the upload a request applies to.
+     * @param servletRequest	The request
+     * @param servletResponse	The response
+     * @return	The upload URI, or null if no upload was created
+     */
+    private static String getUploadURI(HttpServletRequest servletRequest, HttpServletResponse servletResponse) {
+    	if (!"POST".equals(servletRequest.getMethod())) {
+    		return servletRequest.getRequestURI();
+    	}
+    	// Uploads are created by POST, the URI of the new upload is in the Location header
+    	String location = servletResponse.getHeader(HttpHeaders.LOCATION);
+    	return location == null ? null : URI.create(location).getPath();
+    }
+    
+    /**
+     * Remove the parts of a concatenated upload
+     * @param uploadConcat	The Upload-Concat header of the final upload, listing its parts
+     */
+    private void deleteParts(String uploadConcat) {
+    	String parts = StringUtils.substringAfter(uploadConcat, ";").trim();
+    	for (String part: StringUtils.split(parts)) {
+    		String partURI = URI.create(part).getPath();
+    		partialUploads.remove(partURI);
+    		try {
+    			this.uploadService.deleteUpload(partURI);
+    		} catch (IOException | TusException e) {
+    			log.error(Markers2.append(e), "delete upload part");
+    		}
+    	}
+    }
+    
 	private Object getInfo(UploadInfo uploadInfo) {
     	String date = FastDateFormat
 				.getInstance(Constants.TIMESTAMP_FORMAT)
@@ -428,6 +481,14 @@ public class DexFileUploadController {
         throw new HTTPException(HttpServletResponse.SC_UNAUTHORIZED);
     }
 
+    private boolean isRemoved(String uploadURI) {
+    	try {
+    		return this.uploadService.getUploadInfo(uploadURI) == null;
+    	} catch (IOException | TusException e) {
+    		return false;
+    	}
+    }
+
     // Check every two hours for cleanup.
     @Scheduled(fixedDelayString = "PT1H")
     private void cleanup() {
@@ -438,6 +499,8 @@ public class DexFileUploadController {
             } catch (IOException e) {
                 log.error(Markers2.append(e), "error during cleanup");
             }
+            // Forget partial uploads that expired before they were concatenated
+            partialUploads.removeIf(this::isRemoved);
         }
         
     }
@@ -16,6 +16,7 @@ import gov.cdc.izgateway.dynamodb.repository.AccessControlRepository;
 import gov.cdc.izgateway.dynamodb.repository.AccessGroupRepository;
 import gov.cdc.izgateway.dynamodb.repository.AllowedUserRepository;
 import gov.cdc.izgateway.dynamodb.repository.CertificateStatusRepository;
+import gov.cdc.izgateway.dynamodb.repository.ChangeVersionRepository;
 import gov.cdc.izgateway.dynamodb.repository.DestinationRepository;
 import gov.cdc.izgateway.dynamodb.repository.EventRepository;
 import gov.cdc.izgateway.dynamodb.repository.JurisdictionRepository;
@@ -59,6 +60,7 @@ public class DynamoDbRepositoryFactory implements RepositoryFactory {
 	private DenyListRecordRepository dlr;
 	private FileTypeRepository ftr;
 	private OrganizationRecordRepository orr;
+	private ChangeVersionRepository cvr;
 
 	/**
 	 * Create the factory for DynamoDb Repositories
@@ -224,4 +226,15 @@ public class DynamoDbRepositoryFactory implements RepositoryFactory {
 		}
 		return orr;
 	}
+
+	/**
+	 * Get the DynamoDbRepository for Change Versions
+	 * @return The ChangeVersionRepository
+	 */
+	public ChangeVersionRepository changeVersionRepository() {
+		if (cvr == null) {
+			cvr = new ChangeVersionRepository(client, this.tableName);
+		}
+		return cvr;
+	}
 }
\ No newline at end of file
@@ -0,0 +1,175 @@
+package gov.cdc.izgateway.dynamodb;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+
+import gov.cdc.izgateway.hub.service.DestinationService;
+import gov.cdc.izgateway.hub.service.JurisdictionService;
+import gov.cdc.izgateway.hub.service.MessageHeaderService;
+import gov.cdc.izgateway.hub.service.accesscontrol.AccessControlService;
+import gov.cdc.izgateway.logging.markers.Markers2;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Loads the service caches from DynamoDB concurrently at startup.
+ *
+ * This runs as a lifecycle bean in an earlier phase than the embedded web server,
+ * so all caches are populated before Tomcat begins accepting traffic, and the
+ * wall clock time for startup is that of the slowest load rather than the sum
+ * of all of them.  The time taken to load each cache is reported when loading
+ * is complete.
+ *
+ * The periodic refresh of each service starts one refresh period after startup, so a
+ * cache which fails to load, or does not load within data.cache.startupTimeout seconds,
+ * is loaded again every data.cache.startupRetry seconds until it succeeds.
+ *
+ * @author Audacious Inquiry
+ */
+@Slf4j
+@Component
+public class StartupCacheLoader implements SmartLifecycle {
+	/** Start before the web server, which starts in a phase close to Integer.MAX_VALUE */
+	private static final int PHASE = 0;
+
+	private final AccessControlService accessControlService;
+	private final DestinationService destinationService;
+	private final MessageHeaderService messageHeaderService;
+	private final JurisdictionService jurisdictionService;
+	private volatile boolean running = false;
+	private ScheduledExecutorService retrier;
+
+	@Value("${data.cache.startupTimeout:120}")
+	private int startupTimeout;
+
+	@Value("${data.cache.startupRetry:15}")
+	private int startupRetry;
+
+	/**
+	 * Create the startup loader
+	 * @param accessControlService	The access control service
+	 * @param destinationService	The destination service
+	 * @param messageHeaderService	The message header service
+	 * @param jurisdictionService	The jurisdiction service
+	 */
+	public StartupCacheLoader(
+		AccessControlService accessControlService,
+		DestinationService destinationService,
+		MessageHeaderService messageHeaderService,
+		JurisdictionService jurisdictionService
+	) {
+		this.accessControlService = accessControlService;
+		this.destinationService = destinationService;
+		this.messageHeaderService = messageHeaderService;
+		this.jurisdictionService = jurisdictionService;
+	}
+
+	@Override
+	public void start() {
+		Map<String, Runnable> loaders = new LinkedHashMap<>();
+		loaders.put("AccessControl", accessControlService::refresh);
+		loaders.put("Destination", destinationService::refresh);
+		loaders.put("MessageHeader", messageHeaderService::refresh);
+		loaders.put("Jurisdiction", jurisdictionService::refresh);
+
+		Map<String, Long> timings = new LinkedHashMap<>();
+		Set<String> loaded = ConcurrentHashMap.newKeySet();
+		long start = System.currentTimeMillis();
+		ExecutorService executor = Executors.newFixedThreadPool(loaders.size(),
+			r -> Thread.ofPlatform().daemon().name("Startup-Cache-Loader").unstarted(r));
+		try {
+			List<CompletableFuture<Void>> futures = loaders.entrySet().stream()
+				.map(e -> CompletableFuture.runAsync(() -> {
+					load(e.getKey(), e.getValue(), timings);
+					loaded.add(e.getKey());
+				}, executor))
+				.toList();
+			CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(startupTimeout, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			log.error("Interrupted while loading caches");
+		} catch (Exception e) {
+			// Failures are reported by load, and retried below.
+			log.error(Markers2.append(e), "Caches not fully loaded at startup: {}", e.getMessage());
+		} finally {
+			executor.shutdownNow();
+		}
+		long elapsed = System.currentTimeMillis() - start;
+		synchronized (timings) {
+			log.info(Markers2.append("timings", timings, "elapsed", elapsed), "Loaded caches in {}ms: {}", elapsed, timings);
+		}
+		loaders.forEach((name, loader) -> {
+			if (!loaded.contains(name)) {
+				retry(name, loader);
+			}
+		});
+		running = true;
+	}
+
+	/**
+	 * Load a cache again after a delay, and keep trying until it loads.
+	 * @param name	The name of the cache
+	 * @param loader	The loader for the cache
+	 */
+	private synchronized void retry(String name, Runnable loader) {
+		if (retrier == null) {
+			retrier = Executors.newSingleThreadScheduledExecutor(
+				r -> Thread.ofPlatform().daemon().name("Startup-Cache-Retry").unstarted(r));
+		}
+		log.warn("{} not loaded at startup, retrying in {}s", name, startupRetry);
+		retrier.schedule(() -> {
+			try {
+				loader.run();
+				log.info("Loaded {} after startup", name);
+			} catch (RuntimeException ex) {
+				log.error(Markers2.append(ex), "Error loading {} after startup: {}", name, ex.getMessage());
+				retry(name, loader);
+			}
+		}, Math.max(1, startupRetry), TimeUnit.SECONDS);
+	}
+
+	private static void load(String name, Runnable loader, Map<String, Long> timings) {
+		long start = System.currentTimeMillis();
+		try {
+			loader.run();
+		} catch (RuntimeException ex) {
+			log.error(Markers2.append(ex), "Error loading {} at startup: {}", name, ex.getMessage());
+			throw ex;
+		} finally {
+			long elapsed = System.currentTimeMillis() - start;
+			synchronized (timings) {
+				timings.put(name, elapsed);
+			}
+			log.debug("Loaded {} in {}ms", name, elapsed);
+		}
+	}
+
+	@Override
+	public synchronized void stop() {
+		running = false;
+		if (retrier != null) {
+			retrier.shutdownNow();
+		}
+	}
+
+	@Override
+	public boolean isRunning() {
+		return running;
+	}
+
+	@Override
+	public int getPhase() {
+		return PHASE;
+	}
+}
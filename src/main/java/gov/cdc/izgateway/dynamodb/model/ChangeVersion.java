@@ -0,0 +1,69 @@
+package gov.cdc.izgateway.dynamodb.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.NoArgsConstructor;
+import software.amazon.awssdk.enhanced.dynamodb.mapper.annotations.DynamoDbBean;
+import software.amazon.awssdk.enhanced.dynamodb.mapper.annotations.DynamoDbConvertedBy;
+import io.swagger.v3.oas.annotations.media.Schema;
+
+import java.io.Serializable;
+import java.util.Date;
+import java.util.UUID;
+
+import gov.cdc.izgateway.model.DateConverter;
+import gov.cdc.izgateway.model.DynamoDbAudit;
+import gov.cdc.izgateway.model.DynamoDbEntity;
+
+/**
+ * Records the current version of the data for an entity type.  There is a single
+ * item per entity type, and its version is replaced each time an entity of that
+ * type is stored or deleted through the hub, so that caches can cheaply determine
+ * whether they need to reload the full set of entities.
+ *
+ * @author Audacious Inquiry
+ */
+@SuppressWarnings("serial")
+@Data
+@EqualsAndHashCode(callSuper=true)
+@AllArgsConstructor
+@NoArgsConstructor
+@DynamoDbBean
+public class ChangeVersion extends DynamoDbAudit implements DynamoDbEntity, Serializable {
+    @Schema(description = "The entity type this version applies to (e.g., Destination)")
+    private String entityType;
+
+    @Schema(description = "An opaque version identifier, replaced on each change")
+    private String version = UUID.randomUUID().toString();
+
+    @Schema(description = "When the change was made")
+    private Date changedOn = new Date();
+
+    @Schema(description = "The host which made the change")
+    private String changedBy;
+
+    /**
+     * Create a new version for an entity type.
+     * @param entityType	The entity type
+     * @param changedBy	The host which made the change
+     */
+    public ChangeVersion(String entityType, String changedBy) {
+    	this.entityType = entityType;
+    	this.changedBy = changedBy;
+    }
+
+	@Override
+	public String getPrimaryId() {
+		return entityType + "#";
+	}
+
+    /**
+     * Get the time of the change as a date
+     * @return	The time of the change
+     */
+    @DynamoDbConvertedBy(DateConverter.class)
+    public Date getChangedOn() {
+    	return changedOn;
+    }
+}
@@ -26,6 +26,8 @@ import com.fasterxml.jackson.annotation.JsonIgnore;
 @DynamoDbBean
 @SuppressWarnings("serial")
 public class Destination extends AbstractDestination implements DynamoDbEntity, IEndpoint, Serializable, IDestination {
+	/** The maximum number of messages sent to this destination at once, or null to adapt the limit to its latency */
+	private Integer maxConcurrency;
 	
 	@Override
 	@DynamoDbConvertedBy(DateConverter.class)
@@ -67,6 +69,9 @@ public class Destination extends AbstractDestination implements DynamoDbEntity,
 	 */
 	public Destination(IDestination that) {
 		super(that);
+		if (that instanceof Destination d) {
+			this.maxConcurrency = d.maxConcurrency;
+		}
 	}
 	
 	@Override
@@ -102,6 +107,23 @@ public class Destination extends AbstractDestination implements DynamoDbEntity,
 		getId().setDestId(id);
 	}
 	
+	/**
+	 * Get the maximum number of messages that may be sent to this destination at once.
+	 * @return	The limit, or null if the limit adapts to the latency of the destination
+	 */
+	@Schema(description = "The maximum number of messages sent to the destination at once, or null to adapt to its latency")
+	public Integer getMaxConcurrency() {
+		return maxConcurrency;
+	}
+
+	/**
+	 * Set the maximum number of messages that may be sent to this destination at once.
+	 * @param maxConcurrency	The limit, or null if the limit should adapt to the latency of the destination
+	 */
+	public void setMaxConcurrency(Integer maxConcurrency) {
+		this.maxConcurrency = maxConcurrency;
+	}
+
 	@Override
 	@JsonIgnore
 	public int getDestTypeId() {
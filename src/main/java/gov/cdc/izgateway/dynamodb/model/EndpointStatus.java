@@ -1,7 +1,9 @@
 package gov.cdc.izgateway.dynamodb.model;
 
+import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.annotation.JsonPropertyOrder;
 
+import gov.cdc.izgateway.hub.service.CircuitBreakerService;
 import gov.cdc.izgateway.hub.service.JurisdictionService;
 import gov.cdc.izgateway.model.AbstractEndpointStatus;
 import gov.cdc.izgateway.model.DynamoDbEntity;
@@ -11,6 +13,7 @@ import gov.cdc.izgateway.model.IEndpointStatus;
 import gov.cdc.izgateway.service.IJurisdictionService;
 import io.swagger.v3.oas.annotations.media.Schema;
 import software.amazon.awssdk.enhanced.dynamodb.mapper.annotations.DynamoDbBean;
+import software.amazon.awssdk.enhanced.dynamodb.mapper.annotations.DynamoDbIgnore;
 import java.io.Serializable;
 import java.util.TreeMap;
 
@@ -63,4 +66,17 @@ public class EndpointStatus extends AbstractEndpointStatus implements DynamoDbEn
 	public IJurisdictionService getJurisdictionService() {
 		return JurisdictionService.getInstance();
 	}
+
+	/**
+	 * Get the state of the circuit breaker driven by traffic to this destination through this server.
+	 * This is not stored.
+	 * @return The state of the circuit breaker, or null if no messages have been sent to the destination
+	 */
+	@DynamoDbIgnore
+	@JsonProperty(access = JsonProperty.Access.READ_ONLY)
+	@Schema(description = "The state of the circuit breaker driven by traffic to the destination through this server")
+	public CircuitBreakerService.Snapshot getCircuitBreaker() {
+		CircuitBreakerService breakers = CircuitBreakerService.getInstance();
+		return breakers == null ? null : breakers.getSnapshot(getDestId());
+	}
 }
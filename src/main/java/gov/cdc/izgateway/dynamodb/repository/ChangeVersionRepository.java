@@ -0,0 +1,41 @@
+package gov.cdc.izgateway.dynamodb.repository;
+
+import java.util.List;
+
+import org.apache.commons.lang3.SystemUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import gov.cdc.izgateway.dynamodb.model.ChangeVersion;
+import gov.cdc.izgateway.hub.repository.IChangeVersionRepository;
+import gov.cdc.izgateway.repository.DynamoDbRepository;
+import software.amazon.awssdk.enhanced.dynamodb.DynamoDbEnhancedClient;
+
+/**
+ * Class representing the DynamoDb repository for Change Versions.
+ * Reading a version is a query for a single small item, which is much cheaper
+ * than reading all of the entities of that type.
+ * 
+ * @author Audacious Inquiry
+ */
+public class ChangeVersionRepository extends DynamoDbRepository<ChangeVersion> implements IChangeVersionRepository {
+	/**
+	 * Construct a new ChangeVersionRepository from the DynamoDb enhanced client.
+	 * @param client The client
+	 * @param tableName The table to use
+	 */
+	public ChangeVersionRepository(@Autowired DynamoDbEnhancedClient client, String tableName) {
+		super(ChangeVersion.class, client, tableName);
+	}
+
+	@Override
+	public String getVersion(String entityType) {
+		List<ChangeVersion> versions = findByType(entityType + "#");
+		return versions.isEmpty() ? null : versions.get(0).getVersion();
+	}
+
+	@Override
+	public String markChanged(String entityType) {
+		ChangeVersion version = new ChangeVersion(entityType, SystemUtils.getHostName());
+		return saveAndFlush(version).getVersion();
+	}
+}
@@ -0,0 +1,411 @@
+package gov.cdc.izgateway.elastic;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import gov.cdc.izgateway.elastic.ElasticStatusRepository.ParsedResponse;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Decodes the status aggregations returned by ElasticSearch for statusquery.json
+ * directly from the response stream, without reading the response into a String or
+ * a tree of JsonNode objects.
+ *
+ * The response takes the form:
+ * <pre>
+ * [rawResponse.]aggregations.histogram.buckets[]: One bucket per minute, with key giving its start time
+ *   destination.buckets[]: One bucket per destination, with key giving the destination id
+ *     hasProcessError.buckets[]: One bucket per value of hasProcessError, given by key_as_string, with:
+ *       doc_count: The number of transactions
+ *       latestTxTime.value, firstTxTime.value: The time of the last and first transactions
+ *       {name}-bucket.{name}-metric.top[0].metrics: The most recent value of url, faultCode, faultName,
+ *         errorSummary, errorDetail, destVersion and tags
+ * </pre>
+ *
+ * Each hasProcessError bucket is reduced to a small record as it is read.  The histogram is then
+ * folded into a {@link ParsedResponse} for each destination, from the most recent minute back,
+ * because accumulation of errors depends on that order.
+ *
+ * @author Audacious Inquiry
+ */
+@Slf4j
+class ElasticStatusParser {
+	private static final JsonFactory FACTORY = new JsonFactory();
+	private static final String BUCKETS = "buckets";
+	private static final String BUCKET_SUFFIX = "-bucket";
+
+	private final int maxFailuresBeforeCircuitBreaker;
+	private int errors = 0;
+
+	private static class HistogramBucket {
+		private long key;
+		private final List<DestinationBucket> destinations = new ArrayList<>();
+	}
+
+	private static class DestinationBucket {
+		private String key;
+		private final List<StatusBucket> statii = new ArrayList<>();
+	}
+
+	private static class StatusBucket {
+		private String hasError;
+		private int count;
+		private long latestTxTime;
+		private long firstTxTime;
+		private final Map<String, String> values = new HashMap<>();
+	}
+
+	/**
+	 * Create a parser for a single response
+	 * @param maxFailuresBeforeCircuitBreaker	The number of errors to accumulate for a destination
+	 */
+	ElasticStatusParser(int maxFailuresBeforeCircuitBreaker) {
+		this.maxFailuresBeforeCircuitBreaker = maxFailuresBeforeCircuitBreaker;
+	}
+
+	/**
+	 * Parse a response from ElasticSearch
+	 * @param is	The stream containing the response
+	 * @return	The parsed response for each destination, by destination id
+	 * @throws IOException	If the response cannot be read, or is not in the expected form
+	 */
+	Map<String, ParsedResponse> parse(InputStream is) throws IOException {
+		List<HistogramBucket> histogram;
+		try (JsonParser p = FACTORY.createParser(is)) {
+			expect(p, p.nextToken(), JsonToken.START_OBJECT, "response");
+			histogram = readResponse(p);
+		}
+		if (histogram == null) {
+			log.error("Expected array at rawResponse.aggregations.histogram.buckets");
+			throw new IOException("Array expected at rawResponse.aggregations.histogram.buckets");
+		}
+		Map<String, ParsedResponse> map = new HashMap<>();
+		for (int i = histogram.size() - 1; i >= 0; --i) {
+			HistogramBucket h = histogram.get(i);
+			if (h.key == 0) {
+				continue;
+			}
+			for (DestinationBucket d: h.destinations) {
+				if (StringUtils.isEmpty(d.key)) {
+					continue;
+				}
+				for (StatusBucket s: d.statii) {
+					fold(map, h.key, d.key, s);
+				}
+			}
+		}
+		return map;
+	}
+
+	/**
+	 * Read the response, or its rawResponse part, looking for the histogram
+	 * @return	The histogram buckets, or null if not found
+	 */
+	private List<HistogramBucket> readResponse(JsonParser p) throws IOException {
+		List<HistogramBucket> histogram = null;
+		while (p.nextToken() == JsonToken.FIELD_NAME) {
+			String name = p.currentName();
+			JsonToken t = p.nextToken();
+			if ("rawResponse".equals(name) && t == JsonToken.START_OBJECT) {
+				List<HistogramBucket> raw = readResponse(p);
+				if (raw != null) {
+					histogram = raw;
+				}
+			} else if ("aggregations".equals(name) && t == JsonToken.START_OBJECT && histogram == null) {
+				histogram = readObjectPath(p, "histogram") ? readHistogram(p) : null;
+			} else {
+				p.skipChildren();
+			}
+		}
+		return histogram;
+	}
+
+	/**
+	 * Read an object until the named field is reached, leaving the parser at the start of an
+	 * object value for that field.  If the field is not present, the whole object is read.
+	 * @return	true if the field was found
+	 */
+	private static boolean readObjectPath(JsonParser p, String field) throws IOException {
+		while (p.nextToken() == JsonToken.FIELD_NAME) {
+			String name = p.currentName();
+			JsonToken t = p.nextToken();
+			if (field.equals(name) && t == JsonToken.START_OBJECT) {
+				return true;
+			}
+			p.skipChildren();
+		}
+		return false;
+	}
+
+	/**
+	 * Read the rest of the current object, skipping its fields.
+	 */
+	private static void skipRest(JsonParser p) throws IOException {
+		while (p.nextToken() == JsonToken.FIELD_NAME) {
+			p.nextToken();
+			p.skipChildren();
+		}
+	}
+
+	private List<HistogramBucket> readHistogram(JsonParser p) throws IOException {
+		List<HistogramBucket> histogram = null;
+		while (p.nextToken() == JsonToken.FIELD_NAME) {
+			String name = p.currentName();
+			JsonToken t = p.nextToken();
+			if (BUCKETS.equals(name) && t == JsonToken.START_ARRAY) {
+				histogram = new ArrayList<>();
+				while (p.nextToken() == JsonToken.START_OBJECT) {
+					histogram.add(readHistogramBucket(p));
+				}
+			} else {
+				p.skipChildren();
+			}
+		}
+		// Finish the aggregations object
+		skipRest(p);
+		return histogram;
+	}
+
+	private HistogramBucket readHistogramBucket(JsonParser p) throws IOException {
+		HistogramBucket h = new HistogramBucket();
+		while (p.nextToken() == JsonToken.FIELD_NAME) {
+			String name = p.currentName();
+			JsonToken t = p.nextToken();
+			if ("key".equals(name)) {
+				h.key = p.getValueAsLong();
+			} else if ("destination".equals(name) && t == JsonToken.START_OBJECT) {
+				if (!readBuckets(p, () -> h.destinations.add(readDestinationBucket(p))) && errors++ == 0) {
+					log.error("Expected array at destination.buckets");
+				}
+			} else {
+				p.skipChildren();
+			}
+		}
+		return h;
+	}
+
+	private DestinationBucket readDestinationBucket(JsonParser p) throws IOException {
+		DestinationBucket d = new DestinationBucket();
+		while (p.nextToken() == JsonToken.FIELD_NAME) {
+			String name = p.currentName();
+			JsonToken t = p.nextToken();
+			if ("key".equals(name)) {
+				d.key = p.getValueAsString();
+			} else if ("hasProcessError".equals(name) && t == JsonToken.START_OBJECT) {
+				if (!readBuckets(p, () -> d.statii.add(readStatusBucket(p))) && errors++ == 0) {
+					log.error("Expected array at hasProcessError.buckets");
+				}
+			} else {
+				p.skipChildren();
+			}
+		}
+		return d;
+	}
+
+	private StatusBucket readStatusBucket(JsonParser p) throws IOException {
+		StatusBucket s = new StatusBucket();
+		while (p.nextToken() == JsonToken.FIELD_NAME) {
+			String name = p.currentName();
+			JsonToken t = p.nextToken();
+			if ("key_as_string".equals(name)) {
+				s.hasError = p.getValueAsString();
+			} else if ("doc_count".equals(name)) {
+				s.count = p.getValueAsInt();
+			} else if ("latestTxTime".equals(name) && t == JsonToken.START_OBJECT) {
+				s.latestTxTime = readValue(p);
+			} else if ("firstTxTime".equals(name) && t == JsonToken.START_OBJECT) {
+				s.firstTxTime = readValue(p);
+			} else if (name.endsWith(BUCKET_SUFFIX) && t == JsonToken.START_OBJECT) {
+				String key = name.substring(0, name.length() - BUCKET_SUFFIX.length());
+				String value = readTopValue(p, key);
+				if (!StringUtils.isEmpty(value)) {
+					s.values.put(key, value);
+				}
+			} else {
+				p.skipChildren();
+			}
+		}
+		return s;
+	}
+
+	/**
+	 * Read the value field of a metric object
+	 * @return	The value, or 0 if missing or null
+	 */
+	private static long readValue(JsonParser p) throws IOException {
+		long value = 0;
+		while (p.nextToken() == JsonToken.FIELD_NAME) {
+			String name = p.currentName();
+			p.nextToken();
+			if ("value".equals(name)) {
+				value = p.getValueAsLong();
+			} else {
+				p.skipChildren();
+			}
+		}
+		return value;
+	}
+
+	/**
+	 * Read the first metric of the first top value from {key}-bucket.{key}-metric.top[0].metrics
+	 * @return	The value, or null if missing
+	 */
+	private static String readTopValue(JsonParser p, String key) throws IOException {
+		String value = null;
+		if (!readObjectPath(p, key + "-metric")) {
+			return null;
+		}
+		while (p.nextToken() == JsonToken.FIELD_NAME) {
+			String name = p.currentName();
+			JsonToken t = p.nextToken();
+			if ("top".equals(name) && t == JsonToken.START_ARRAY) {
+				while (p.nextToken() == JsonToken.START_OBJECT) {
+					if (value == null && readObjectPath(p, "metrics")) {
+						value = readFirstField(p);
+						skipRest(p);
+					} else {
+						p.skipChildren();
+					}
+				}
+			} else {
+				p.skipChildren();
+			}
+		}
+		// Finish the bucket object
+		skipRest(p);
+		return value;
+	}
+
+	private static String readFirstField(JsonParser p) throws IOException {
+		String value = null;
+		if (p.nextToken() == JsonToken.FIELD_NAME) {
+			p.nextToken();
+			value = p.getValueAsString();
+			p.skipChildren();
+			skipRest(p);
+		}
+		return value;
+	}
+
+	@FunctionalInterface
+	private interface BucketReader {
+		void read() throws IOException;
+	}
+
+	/**
+	 * Read the buckets array of an aggregation object, calling reader at the start of each bucket.
+	 * @return	true if a buckets array was found
+	 */
+	private static boolean readBuckets(JsonParser p, BucketReader reader) throws IOException {
+		boolean found = false;
+		while (p.nextToken() == JsonToken.FIELD_NAME) {
+			String name = p.currentName();
+			JsonToken t = p.nextToken();
+			if (BUCKETS.equals(name) && t == JsonToken.START_ARRAY) {
+				found = true;
+				while (p.nextToken() == JsonToken.START_OBJECT) {
+					reader.read();
+				}
+			} else {
+				p.skipChildren();
+			}
+		}
+		return found;
+	}
+
+	private static void expect(JsonParser p, JsonToken actual, JsonToken expected, String what) throws IOException {
+		if (actual != expected) {
+			throw new IOException(String.format("Expected %s at %s of %s, got %s", expected, p.currentLocation(), what, actual));
+		}
+	}
+
+	private void fold(Map<String, ParsedResponse> map, long histogramTime, String destId, StatusBucket s) {
+		String hasErrorStr = s.hasError;
+		if (StringUtils.isEmpty(hasErrorStr)) {
+			// Missing value
+			if (errors++ == 0) {
+				log.error("Missing boolean value at key_as_string");
+			}
+			return;
+		}
+		boolean hasError = "true".equals(hasErrorStr.trim());
+		if (!hasErrorStr.equalsIgnoreCase(Boolean.toString(hasError))) {
+			// Not really a boolean value.
+			if (errors++ == 0) {
+				log.error("Expected boolean at key_as_string, got {}", hasErrorStr);
+			}
+			return;
+		}
+		if (s.count == 0) {
+			// Either there are no documents (no error, no foul),
+			// or the count field is missing.
+			return;
+		}
+		if (s.latestTxTime == 0 && errors++ == 0) {
+			log.error("latestTxTime.value invalid for {}", destId);
+		}
+		if (s.firstTxTime == 0 && errors++ == 0) {
+			log.error("firstTxTime.value invalid for {}", destId);
+		}
+
+		ParsedResponse p = map.get(destId);
+		// If there's no original record, create one.
+		boolean update = true;
+		if (p == null) {
+			p = new ParsedResponse(histogramTime, destId, s.count, hasError, s.latestTxTime, s.firstTxTime);
+			map.put(destId, p);
+		} else {
+			// Otherwise update the existing one.
+			update = p.updateResponse(histogramTime, s.count, hasError, s.latestTxTime, s.firstTxTime, maxFailuresBeforeCircuitBreaker);
+		}
+		if (update) {
+			setExtraValues(s.values, p);
+		}
+	}
+
+	/**
+	 * Set all of the other metadata about the status, the url, faultCode, faultName, et cetera.
+	 * @param values	The values read from the bucket
+	 * @param p	The parsed response to update with the values.
+	 */
+	private static void setExtraValues(Map<String, String> values, ParsedResponse p) {
+		String value = values.get("url");
+		if (value != null) {
+			p.setUrl(value);
+		}
+		value = values.get("faultCode");
+		if (value != null) {
+			p.setFaultCode(value);
+		}
+		value = values.get("faultName");
+		if (value != null) {
+			p.setFaultName(value);
+		}
+		value = values.get("errorDetail");
+		if (value != null) {
+			p.setErrorDetail(value);
+		}
+		value = values.get("errorSummary");
+		if (value != null) {
+			p.setErrorSummary(value);
+		}
+		value = values.get("destVersion");
+		if (value != null) {
+			p.setDestVersion(value);
+		}
+		value = values.get("tags");
+		if (value != null) {
+			p.setTag(value);
+		}
+	}
+}
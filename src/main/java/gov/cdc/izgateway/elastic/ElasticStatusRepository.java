@@ -7,28 +7,37 @@ import java.nio.charset.StandardCharsets;
 import java.security.NoSuchAlgorithmException;
 import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.GregorianCalendar;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.NoSuchElementException;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.apache.commons.io.IOUtils;
-import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.time.FastDateFormat;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.JsonNodeType;
 
+import gov.cdc.izgateway.Application;
 import gov.cdc.izgateway.common.Constants;
 import gov.cdc.izgateway.dynamodb.model.EndpointStatus;
+import gov.cdc.izgateway.hub.service.CircuitBreakerService;
 import gov.cdc.izgateway.soap.fault.FaultSupport;
 import gov.cdc.izgateway.soap.fault.MessageSupport;
 import gov.cdc.izgateway.logging.markers.Markers2;
@@ -52,33 +61,59 @@ import javax.net.ssl.HttpsURLConnection;
  */
 @Slf4j
 @Component
-public class ElasticStatusRepository extends ElasticRepository implements EndpointStatusRepository<EndpointStatus> {
+public class ElasticStatusRepository extends ElasticRepository implements EndpointStatusRepository<EndpointStatus>, InitializingBean, DisposableBean {
 	private static final Duration QUARTER_HOUR = Duration.ofMinutes(15);
 	private static final String STATUS_QUERY = "statusquery.json";
 	private static final FastDateFormat FORMATTER = FastDateFormat.getInstance(Constants.TIMESTAMP_FORMAT);
+	/** How long after a quarter hour closes before all of its transactions are expected to be in Elastic */
+	private static final Duration INGEST_ALLOWANCE = Duration.ofMinutes(2);
+	
+	/** The key for the status history of a quarter hour */
+	private record Quarter(long end, String environment) {}
 	
-	private final ObjectMapper mapper = new ObjectMapper();
 	private Map<String, EndpointStatus> cache = new ConcurrentHashMap<>();
     @Value("${hub.statuscheck.maxfailures:3}")
 	private int maxFailuresBeforeCircuitBreaker;
     @Value("${hub.statuscheck.period:5}")
     private int statusCheckPeriodInMinutes;
+    @Value("${hub.status.history-size:16}")
+    private int historySize;
+    /** The status history of closed quarter hours, oldest first */
+    private final NavigableMap<Quarter, CompletableFuture<List<EndpointStatus>>> history = new ConcurrentSkipListMap<>(
+    	Comparator.comparingLong(Quarter::end).thenComparing(Quarter::environment));
+    @Value("${spring.threads.virtual.enabled:false}")
+    private boolean virtualThreads;
+    /** Loads the status history of quarter hours in parallel */
+    private ExecutorService historyLoader;
     
 	private final IDestinationService destinationService;
+	private final CircuitBreakerService breakers;
 
 	/**
 	 * Create a new ElasticStatusRepository
 	 * 
 	 * @param config The configuration for the elastic search service
 	 * @param destinationService	The destination service this works with
+	 * @param breakers	The circuit breakers driven by traffic through this server
 	 */
 	@Autowired
-	public ElasticStatusRepository(ElasticConfiguration config, IDestinationService destinationService) {
+	public ElasticStatusRepository(ElasticConfiguration config, IDestinationService destinationService, CircuitBreakerService breakers) {
 		super(config, STATUS_QUERY);
 		if (!config.isConfigured()) {
 			log.warn("Status checking not configured with ElasticSearch endpoint, API Key or index");
 		}
 		this.destinationService = destinationService;
+		this.breakers = breakers;
+	}
+
+	@Override
+	public void afterPropertiesSet() {
+		historyLoader = Executors.newThreadPerTaskExecutor(Application.newThreadFactory("Status-History", virtualThreads));
+	}
+
+	@Override
+	public void destroy() {
+		historyLoader.shutdownNow();
 	}
 
 	@Override
@@ -109,18 +144,59 @@ public class ElasticStatusRepository extends ElasticRepository implements Endpoi
 		}
 		// Drop fractional part of 15 minutes from time
 		long from = (System.currentTimeMillis() / QUARTER_HOUR.toMillis()) * QUARTER_HOUR.toMillis(); 
+		// Start loading all quarters not yet cached before waiting on any of them
+		List<CompletableFuture<List<EndpointStatus>>> quarters = new ArrayList<>();
 		while (--maxQuarterHours > 0) {
+			quarters.add(getHistory(from));
+			from -= QUARTER_HOUR.toMillis();
+		}
+		Set<String> included = new HashSet<>(Arrays.asList(include));
+		for (CompletableFuture<List<EndpointStatus>> quarter: quarters) {
 			try {
-				l.addAll(getData(new Date(from), include).values());
-			} catch (NoSuchAlgorithmException | IOException e) {
+				quarter.join().stream()
+					.filter(s -> included.isEmpty() || included.contains(s.getDestId()))
+					.forEach(l::add);
+			} catch (CompletionException | CancellationException e) {
 				// Ignore this, error is already logged.
 			}
-			from -= QUARTER_HOUR.toMillis();
 		}
 
 		return l;
 	}
 
+	/**
+	 * Get the status reported for the quarter hour ending at a given time.  Once the quarter
+	 * has closed, its status does not change, so it is loaded once, and kept until it is among
+	 * the oldest of more than hub.status.history-size quarters.
+	 * 
+	 * @param end	The end of the quarter hour
+	 * @return	The status of all destinations reported for the quarter
+	 */
+	CompletableFuture<List<EndpointStatus>> getHistory(long end) {
+		Quarter q = new Quarter(end, SystemUtils.getDestTag());
+		boolean closed = end + INGEST_ALLOWANCE.toMillis() < System.currentTimeMillis();
+		CompletableFuture<List<EndpointStatus>> loading = new CompletableFuture<>();
+		if (closed) {
+			CompletableFuture<List<EndpointStatus>> cached = history.putIfAbsent(q, loading);
+			if (cached != null) {
+				return cached;
+			}
+			while (history.size() > Math.max(1, historySize)) {
+				history.pollFirstEntry();
+			}
+		}
+		historyLoader.execute(() -> {
+			try {
+				loading.complete(List.copyOf(getData(new Date(end), INCLUDE_ALL, false).values()));
+			} catch (IOException | NoSuchAlgorithmException | RuntimeException e) {
+				// Try again on the next request
+				history.remove(q, loading);
+				loading.completeExceptionally(e);
+			}
+		});
+		return loading;
+	}
+
 	@Override
 	public EndpointStatus findById(String id) {
 		if (cache.isEmpty()) {
@@ -149,7 +225,7 @@ public class ElasticStatusRepository extends ElasticRepository implements Endpoi
 	public boolean refresh() {
 		boolean refreshed = false;
 		try {
-			Map<String, EndpointStatus> m = getData(new Date(), INCLUDE_ALL);
+			Map<String, EndpointStatus> m = getData(new Date(), INCLUDE_ALL, true);
 			// Add any values for which we previously had a status, but we didn't compute one.
 			// These at least keeps the system safe from a complete failure to track status
 			// if it cannot reach the data in the repository (ElasticSearch).
@@ -163,7 +239,7 @@ public class ElasticStatusRepository extends ElasticRepository implements Endpoi
 		return refreshed;
 	}
 	
-	private Map<String, EndpointStatus> getData(Date from, String[] include) throws IOException, NoSuchAlgorithmException {
+	Map<String, EndpointStatus> getData(Date from, String[] include, boolean live) throws IOException, NoSuchAlgorithmException {
 		
 		if (config.getUrl() == null) {
 			return new ConcurrentHashMap<>(); 
@@ -174,9 +250,9 @@ public class ElasticStatusRepository extends ElasticRepository implements Endpoi
 			OutputStream os = con.getOutputStream();
 			os.write(request.getBytes(StandardCharsets.UTF_8));
 			if (con.getResponseCode() == 200) {
-				InputStream is = con.getInputStream();
-				String result = IOUtils.toString(is, StandardCharsets.UTF_8);
-				return parseResult(result);
+				try (InputStream is = con.getInputStream()) {
+					return parseResult(is, live);
+				}
 			} else {
 				InputStream err = con.getErrorStream();
 				String error = IOUtils.toString(err, StandardCharsets.UTF_8);
@@ -322,7 +398,7 @@ public class ElasticStatusRepository extends ElasticRepository implements Endpoi
 	 * 
 	 * Anything that has had the circuit breaker thrown on it should be rechecked every few minutes, and if it's running again, the circuit breaker should be reset.
 	 * Anything worth looking at that is failing more than three times in a row should have the circuit breaker thrown.
-	 * @param result	The query result from ElasticSearch.  This is a JSON String in the form
+	 * @param result	The query result from ElasticSearch, read by {@link ElasticStatusParser}.  This is JSON in the form
 	 * 					of a response with multiple aggregates.
 	 * 					rawResponse.aggregations.histogram: This aggregate tracks the timestamp associated with the histogram buckets.
 	 * 						histogram.buckets[].key is a long value giving the start of the histogram bucket.
@@ -334,25 +410,21 @@ public class ElasticStatusRepository extends ElasticRepository implements Endpoi
 	 * 						latestTxTime.buckets[].key is a long value giving the time of the last transaction to this destination with the given status.
 	 * 					hasProcessError.buckets[].firstTxTime: This aggregate reports the last transaction time for the destination.
 	 * 						firstTxTime.buckets[].key is a long value giving the time of the last transaction to this destination with the given status.
+	 * @param live	True for the current status, to which the state of circuit breakers on this server is applied,
+	 * 					false for history
 	 * @return
 	 */
-	private Map<String, EndpointStatus> parseResult(String result) {
-		Map<String, ParsedResponse> map = new ConcurrentHashMap<>();
+	private Map<String, EndpointStatus> parseResult(InputStream result, boolean live) throws IOException {
+		Map<String, ParsedResponse> map;
 		try {
-			JsonNode node = getBucket(result);
-			if (node.getNodeType() != JsonNodeType.ARRAY) {
-				log.error("Expected array at rawResponse.aggregations.histogram.buckets");
-				throw new IllegalStateException("Array expected at rawResponse.aggregations.histogram.buckets");
-			} else {
-				parseHistogram(map, node);
-			}
+			map = new ElasticStatusParser(maxFailuresBeforeCircuitBreaker).parse(result);
 		} catch (Exception e ) {
 			log.error(Markers2.append(e), "Error reading status response from ElasticSearch: {}", e.getMessage());
-			return cache;
+			throw e instanceof IOException ioe ? ioe : new IOException(e.getMessage(), e);
 		}
 		Map<String, EndpointStatus> newCache = new HashMap<>();
 		for (ParsedResponse r: map.values()) {
-			EndpointStatus s = convertToStatus(r);
+			EndpointStatus s = convertToStatus(r, live);
             if ( s != null) {
             	newCache.put(s.getDestId(), s);
             }
@@ -360,17 +432,7 @@ public class ElasticStatusRepository extends ElasticRepository implements Endpoi
 		return newCache;
 	}
 
-	private JsonNode getBucket(String result) throws JsonProcessingException {
-		JsonNode node = mapper.readTree(result);
-		try {
-			node = getNode("rawResponse.aggregations.histogram.buckets", node);
-		} catch (IllegalArgumentException e) {
-			node = getNode("aggregations.histogram.buckets", node);
-		}
-		return node;
-	}
-
-	private EndpointStatus convertToStatus(ParsedResponse r) {
+	private EndpointStatus convertToStatus(ParsedResponse r, boolean live) {
 		EndpointStatus s = newEndpointStatus();
 
         IDestination d = destinationService.findByDestId(r.destinationId);
@@ -383,9 +445,13 @@ public class ElasticStatusRepository extends ElasticRepository implements Endpoi
 
 		s.setDestId(r.destinationId);
 		s.setJurisdictionId(d.getJurisdictionId());
-		if (r.isAvailable()) {
+		// Traffic through this server is more current than the aggregates in Elastic, but only for current status
+		CircuitBreakerService.Snapshot breaker = live ? breakers.getSnapshot(r.destinationId) : null;
+		if (breaker != null && breaker.state() == CircuitBreakerService.State.OPEN) {
+			s.setStatus(IEndpointStatus.CIRCUIT_BREAKER_THROWN);
+		} else if (r.isAvailable()) {
 			s.setStatus(IEndpointStatus.CONNECTED);
-		} else if (r.isCircuitBroken(maxFailuresBeforeCircuitBreaker)) {
+		} else if (breaker == null && r.isCircuitBroken(maxFailuresBeforeCircuitBreaker)) {
 			s.setStatus(IEndpointStatus.CIRCUIT_BREAKER_THROWN);
 		} else {
 			s.setStatus(r.getErrorSummary());
@@ -410,153 +476,6 @@ public class ElasticStatusRepository extends ElasticRepository implements Endpoi
         return s == null ? null : s.getDiagnostics();
     }
 
-	private void parseHistogram(Map<String, ParsedResponse> map, JsonNode node) {
-		int errors = 0;
-		int destinationErrors = 0;
-		for (int i = node.size() - 1; i >= 0; --i) {
-			JsonNode histBucket = node.get(i);
-			long histogramTime = histBucket.get("key").asLong();
-			if (histogramTime != 0) {
-				JsonNode dests = getNode("destination.buckets", histBucket);
-				if (dests.getNodeType() != JsonNodeType.ARRAY) {
-					if (errors++ == 0) {	// Report the first error of this type
-						log.error("Expected array at destination.buckets");
-					}
-					continue;
-				}
-				destinationErrors = parseDestination(map, destinationErrors, node, histogramTime, dests);
-			}
-		}
-	}
-
-	private int parseDestination(Map<String, ParsedResponse> map, int errors, JsonNode node, long histogramTime,
-			JsonNode dests) {
-		for (JsonNode destBucket: dests) {
-			String destId = destBucket.get("key").asText();
-			if (!StringUtils.isEmpty(destId)) {
-				JsonNode statii = getNode("hasProcessError.buckets", destBucket);
-				if (node.getNodeType() != JsonNodeType.ARRAY) {
-					if (errors++ == 0) {	// Report the first error of this type
-						log.error("Expected array at hasProcessError.buckets");
-					}
-					continue;
-				}
-				errors = parseStatus(map, errors, histogramTime, destId, statii);
-			}
-		}
-		return errors;
-	}
-
-	private int parseStatus( // NOSONAR Cognitive complexity OK
-		Map<String, ParsedResponse> map, int errors, long histogramTime, String destId, JsonNode statii
-	) {  
-		for (JsonNode statusBucket: statii) {
-			String hasErrorStr = statusBucket.get("key_as_string").asText();
-			if (StringUtils.isEmpty(hasErrorStr)) {
-				// Missing value
-				if (errors++ == 0) {
-					log.error("Missing boolean value at key_as_string");
-				}
-				continue;
-			}
-			boolean hasError = statusBucket.get("key_as_string").asBoolean();
-			if (!hasErrorStr.equalsIgnoreCase(Boolean.toString(hasError))) {
-				// Not really a boolean value.
-				if (errors++ == 0) {
-					log.error("Expected boolean at key_as_string, got {}", hasErrorStr);
-				}
-				continue;
-			}
-			int count = statusBucket.get("doc_count").asInt();
-			if (count == 0) {
-				// Either there are no documents (no error, no foul),
-				// or the count field is missing.
-				continue;
-			}
-			JsonNode n = getNode("latestTxTime.value", statusBucket);
-			long latestTxTime = n.asLong();
-			if (latestTxTime == 0 && errors++ == 0 && log.isErrorEnabled()) {
-				log.error("latestTxTime.value invalid: {}", n.asText());
-			}
-			n = getNode("firstTxTime.value", statusBucket);
-			long firstTxTime = n.asLong();
-			if (firstTxTime == 0 && errors++ == 0 && log.isErrorEnabled()) {
-				log.error("firstTxTime.value invalid: {}", n.asText());
-			}
-			
-			ParsedResponse p = map.get(destId);
-			// If there's no records matching this time frame, status, and destination, don't bother updating status.
-			if (count != 0) {
-				// If there's no original record, create one.
-				boolean update = true;
-				if (p == null) {
-					p = new ParsedResponse(histogramTime, destId, count, hasError, latestTxTime, firstTxTime);
-					map.put(destId, p);
-				} else {
-					// Otherwise update the existing one.
-					update = p.updateResponse(histogramTime, count, hasError, latestTxTime, firstTxTime, maxFailuresBeforeCircuitBreaker);
-				}
-				if (update) {
-					parseExtraValues(statusBucket, p);
-				}
-			}
-		}
-		return errors;
-	}
-
-	/**
-	 * Get all of the other metadata about the status, the url, faultCode, faultName, et cetera.
-	 * @param statusBucket	The bucket to parse these values from
-	 * @param p	The parsed response to update with the values.
-	 */
-	private void parseExtraValues(JsonNode statusBucket, ParsedResponse p) {
-		String value = getTopValue("url", statusBucket);
-		if (!StringUtils.isEmpty(value)) {
-			p.setUrl(value);
-		}
-		value = getTopValue("faultCode", statusBucket);
-		if (!StringUtils.isEmpty(value)) {
-			p.setFaultCode(value);
-		}
-		value = getTopValue("faultName", statusBucket);
-		if (!StringUtils.isEmpty(value)) {
-			p.setFaultName(value);
-		}
-		value = getTopValue("errorDetail", statusBucket);
-		if (!StringUtils.isEmpty(value)) {
-			p.setErrorDetail(value);
-		}
-		value = getTopValue("errorSummary", statusBucket);
-		if (!StringUtils.isEmpty(value)) {
-			p.setErrorSummary(value);
-		}
-		value = getTopValue("destVersion", statusBucket);
-		if (!StringUtils.isEmpty(value)) {
-			p.setDestVersion(value);
-		}
-		value = getTopValue("tags", statusBucket);
-		if (!StringUtils.isEmpty(value)) {
-			p.setTag(value);
-		}
-	}
-
-	/**
-	 * Get the top value of a bucket
-	 * @param key	The name of the value being retrieved.
-	 * @param statusBucket	The bucket to retrieve values from
-	 * @return	The string value associated with the bucket.
-	 */
-	private String getTopValue(String key, JsonNode statusBucket) {
-		String find = key + "-bucket." + key + "-metric.top.1.metrics";
-		try {
-			JsonNode node = getNode(find, statusBucket);
-			return node.properties().iterator().next().getValue().asText();
-		} catch (NoSuchElementException | IllegalArgumentException e) {
-			log.warn("Could not find {}", find);
-			return null;
-		}
-	}
-
 	/**
 	 * Compute the request we need to submit from the template and return it as a String.
 	 * @param now 
@@ -3,7 +3,10 @@ package gov.cdc.izgateway.hub;
 import gov.cdc.izgateway.Application;
 import gov.cdc.izgateway.ads.ADSController;
 import gov.cdc.izgateway.configuration.SenderConfig;
+import gov.cdc.izgateway.hub.service.CircuitBreakerService;
+import gov.cdc.izgateway.hub.service.DestinationLimiter;
 import gov.cdc.izgateway.hub.service.DestinationService;
+import gov.cdc.izgateway.hub.service.RouteTable;
 import gov.cdc.izgateway.hub.service.accesscontrol.AccessControlService;
 import gov.cdc.izgateway.logging.RequestContext;
 import gov.cdc.izgateway.logging.info.DestinationInfo;
@@ -26,15 +29,15 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 
-import java.net.InetAddress;
-import java.net.UnknownHostException;
 import java.util.List;
+import java.util.regex.Pattern;
 
 /**
  * Base controller class that contains common functionality shared between HubWSDLController and CDCWSDLController.
  */
 @Slf4j
 public abstract class BaseGatewayController extends SoapControllerBase {
+    private static final Pattern ID_PATTERN = Pattern.compile(IDestination.ID_PATTERN);
 
     /**
      * The destination service used to obtain routing information.
@@ -44,6 +47,10 @@ public abstract class BaseGatewayController extends SoapControllerBase {
     protected final MessageSender messageSender;
     protected final ADSController adsController;
     protected final AccessControlService accessControlService;
+    /** Limits the messages in progress to each destination */
+    protected final DestinationLimiter limiter;
+    /** Opens the circuit to destinations whose recent messages have failed */
+    protected final CircuitBreakerService breakers;
 
     @Value("${server.hostname:dev.izgateway.org}")
     protected String serverName;
@@ -63,7 +70,9 @@ public abstract class BaseGatewayController extends SoapControllerBase {
             ADSController adsController,
             AccessControlRegistry registry,
             AccessControlService accessControlService,
-            SenderConfig hubConfig
+            SenderConfig hubConfig,
+            DestinationLimiter limiter,
+            CircuitBreakerService breakers
     ) {
         super(mshService, baseNamespace, wsdlResource, supportedNamespaces);
         this.destinationService = destinationService;
@@ -71,6 +80,8 @@ public abstract class BaseGatewayController extends SoapControllerBase {
         this.messageSender = messageSender;
         this.adsController = adsController;
         this.accessControlService = accessControlService;
+        this.limiter = limiter;
+        this.breakers = breakers;
         setMaxMessageSize(hubConfig.getMaxMessageSize());
         registry.register(this);
     }
@@ -101,7 +112,7 @@ public abstract class BaseGatewayController extends SoapControllerBase {
             adsController.getDestinationStatus(connectivityTest.getWsaHeaders().getMessageID(), null, null, destinationId);
             result = super.connectivityTest(connectivityTest, destinationId);
         } else {
-            ConnectivityTestResponse response = messageSender.sendConnectivityTest(dest, connectivityTest);
+            ConnectivityTestResponse response = callDestination(dest, () -> messageSender.sendConnectivityTest(dest, connectivityTest));
             if (connectivityTest.is2014Message()) {
                 response.setSchema(SoapMessage.HUB_NS);  // Shift from client to Hub Schema
             }
@@ -150,7 +161,7 @@ public abstract class BaseGatewayController extends SoapControllerBase {
         checkAccess(destinationId);
         IEndpointStatus s = endpointStatusService.getEndpointStatus(dest);
         checkMessage(submitSingleMessage);
-        SubmitSingleMessageResponse response = messageSender.sendSubmitSingleMessage(dest, submitSingleMessage);
+        SubmitSingleMessageResponse response = callDestination(dest, () -> messageSender.sendSubmitSingleMessage(dest, submitSingleMessage));
         response.updateAction(isHubWsdl());
 
         // Allow subclasses to customize response processing
@@ -162,6 +173,19 @@ public abstract class BaseGatewayController extends SoapControllerBase {
         return result;
     }
 
+    /**
+     * Send a message to a destination, if its circuit breaker is closed, and it has
+     * fewer messages in progress than its limit.
+     * @param <T>	The type of the response
+     * @param dest	The destination
+     * @param call	The call that sends the message
+     * @return	The response
+     * @throws Fault	If the message cannot be sent, or the destination reports a fault
+     */
+    protected <T> T callDestination(IDestination dest, DestinationLimiter.Call<T> call) throws Fault {
+        return breakers.call(dest, () -> limiter.call(dest, call));
+    }
+
     /**
      * Template method for validating HubHeader. Subclasses can override to provide specific validation.
      */
@@ -182,45 +206,47 @@ public abstract class BaseGatewayController extends SoapControllerBase {
             throw UnknownDestinationFault.invalidDestination(destinationId, "Request has no destination value in the DestinationId element");
         } else if (null == destinationId) {
             throw UnknownDestinationFault.missingDestination("Request is missing the DestinationId element");
-        } else if (!destinationId.matches(IDestination.ID_PATTERN)) {
-            RequestContext.getDestinationInfo().setId(destinationId);
-            throw UnknownDestinationFault.invalidDestination(destinationId, "Destination " + destinationId + " is invalid.");
         }
-        IDestination dest = destinationService.findByDestId(destinationId);
-        if (dest == null) {
+        RouteTable.Route route = destinationService.getRoute(destinationId);
+        if (route == null) {
             RequestContext.getDestinationInfo().setId(destinationId);
+            // Only check the pattern for ids that are not found, so that the fault reports the reason
+            if (!ID_PATTERN.matcher(destinationId).matches()) {
+                throw UnknownDestinationFault.invalidDestination(destinationId, "Destination " + destinationId + " is invalid.");
+            }
             throw UnknownDestinationFault.unknownDestination(destinationId, destinationId, null);
         }
-        logDestination(dest);
-        return dest;
+        logDestination(route);
+        return route.destination();
     }
 
     protected void logDestination(IDestination routing) {
+        logDestination(destinationService.getRoute(routing));
+    }
+
+    private void logDestination(RouteTable.Route route) {
         DestinationInfo destination = RequestContext.getDestinationInfo();
-        destination.setId(routing.getDestId());
+        destination.setId(route.destination().getDestId());
 
-        String wsdlVersion = routing.getDestVersion();
-        if (!StringUtils.isBlank(wsdlVersion)) {
-            destination.setProtocol(wsdlVersion);
+        if (route.protocol() != null) {
+            destination.setProtocol(route.protocol());
         }
 
-        String url = routing.getDestUri();
         // Destination logging uses the local url for diagnostic use.
         // This is only visible in logs.
-        destination.setUrl(destinationService.localUrl(url));
-        if (routing.getDestUri().startsWith("/")) {
+        destination.setUrl(route.localUrl());
+        if (route.local()) {
             destination.setIpAddress(HostInfo.LOCALHOST_IP4);
             destination.setHost(HostInfo.LOCALHOST);
             return;
         }
 
-        String host = destinationService.serverOf(url);
-        destination.setHost(host);
-        InetAddress address;
-        try {
-            address = InetAddress.getByName(host);
-            destination.setIpAddress(address.getHostAddress());
-        } catch (UnknownHostException e) {
+        destination.setHost(route.host());
+        // Use the address resolved in the background, rather than blocking on DNS
+        String address = destinationService.getHostAddress(route.host());
+        if (address != null) {
+            destination.setIpAddress(address);
+        } else {
             destination.setAddressUnknown();
         }
     }
@@ -2,6 +2,8 @@ package gov.cdc.izgateway.hub;
 
 import gov.cdc.izgateway.ads.ADSController;
 import gov.cdc.izgateway.configuration.SenderConfig;
+import gov.cdc.izgateway.hub.service.CircuitBreakerService;
+import gov.cdc.izgateway.hub.service.DestinationLimiter;
 import gov.cdc.izgateway.hub.service.DestinationService;
 import gov.cdc.izgateway.hub.service.accesscontrol.AccessControlService;
 import gov.cdc.izgateway.model.IDestination;
@@ -37,10 +39,12 @@ public class CDCWSDLController extends BaseGatewayController {
 		ADSController adsController,
 		AccessControlRegistry registry,
 		AccessControlService accessControlService,
-		SenderConfig hubConfig
+		SenderConfig hubConfig,
+		DestinationLimiter limiter,
+		CircuitBreakerService breakers
 	) {
 		super(mshService, SoapMessage.IIS2011_NS, "cdc-iis-2011.wsdl", Arrays.asList(SoapMessage.IIS2014_NS),
-			destinationService, endpointStatusService, messageSender, adsController, registry, accessControlService, hubConfig);
+			destinationService, endpointStatusService, messageSender, adsController, registry, accessControlService, hubConfig, limiter, breakers);
 	}
 
     @Override
@@ -8,6 +8,8 @@ import org.springframework.web.bind.annotation.RestController;
 
 import gov.cdc.izgateway.ads.ADSController;
 import gov.cdc.izgateway.configuration.SenderConfig;
+import gov.cdc.izgateway.hub.service.CircuitBreakerService;
+import gov.cdc.izgateway.hub.service.DestinationLimiter;
 import gov.cdc.izgateway.hub.service.DestinationService;
 import gov.cdc.izgateway.hub.service.accesscontrol.AccessControlService;
 import gov.cdc.izgateway.model.IDestination;
@@ -35,11 +37,13 @@ public class HubWSDLController extends BaseGatewayController {
 		ADSController adsController,
 		AccessControlRegistry registry,
 		AccessControlService accessControlService,
-		SenderConfig hubConfig
+		SenderConfig hubConfig,
+		DestinationLimiter limiter,
+		CircuitBreakerService breakers
 	) {
 		// The base schema for HUB messages is still the iis-2014 schema, with the exception of HubHeader and certain faults.
 		super(mshService, SoapMessage.IIS2014_NS, "cdc-iis-hub.wsdl", Arrays.asList(SoapMessage.HUB_NS, SoapMessage.IIS2014_NS),
-			destinationService, endpointStatusService, messageSender, adsController, registry, accessControlService, hubConfig);
+			destinationService, endpointStatusService, messageSender, adsController, registry, accessControlService, hubConfig, limiter, breakers);
 	}
 
     @Override
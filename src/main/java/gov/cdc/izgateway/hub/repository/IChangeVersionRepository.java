@@ -0,0 +1,21 @@
+package gov.cdc.izgateway.hub.repository;
+
+/**
+ * Repository interface for tracking the version of the data for each entity type,
+ * so that caches can skip a full reload when nothing has changed.
+ */
+public interface IChangeVersionRepository {
+    /**
+     * Get the current version for an entity type.
+     * @param entityType the entity type (e.g., Destination)
+     * @return the current version, or null if no change has been recorded
+     */
+    String getVersion(String entityType);
+
+    /**
+     * Record that an entity of the given type has been changed.
+     * @param entityType the entity type (e.g., Destination)
+     * @return the new version
+     */
+    String markChanged(String entityType);
+}
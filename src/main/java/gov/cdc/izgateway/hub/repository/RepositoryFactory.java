@@ -94,4 +94,10 @@ public interface RepositoryFactory {
      * @return The EventRepository
      */
     EventRepository eventRepository();
+
+    /**
+     * Get the Repository for Change Versions.
+     * @return The ChangeVersionRepository
+     */
+    IChangeVersionRepository changeVersionRepository();
 }
\ No newline at end of file
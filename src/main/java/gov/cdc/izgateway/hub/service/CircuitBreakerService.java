@@ -0,0 +1,388 @@
+package gov.cdc.izgateway.hub.service;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Component;
+
+import gov.cdc.izgateway.logging.markers.Markers2;
+import gov.cdc.izgateway.model.IDestination;
+import gov.cdc.izgateway.soap.fault.DestinationConnectionFault;
+import gov.cdc.izgateway.soap.fault.Fault;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Circuit breakers for each destination, driven by the outcomes of messages sent through
+ * this server.
+ *
+ * The outcome and latency of the last hub.breaker.window messages to each destination are
+ * kept in a ring buffer, which is updated without locking.  Once at least hub.breaker.min-calls
+ * messages have been recorded, the breaker opens when the percentage of messages that failed
+ * reaches hub.breaker.error-rate, or the percentage that took longer than
+ * hub.breaker.slow-call-duration milliseconds reaches hub.breaker.slow-call-rate.
+ *
+ * While open, messages fail immediately with the circuit breaker thrown DestinationConnectionFault.  After the open
+ * duration, the breaker is half open, and allows hub.breaker.half-open-permits messages through.
+ * If they all succeed, the breaker closes, otherwise it opens again.  The open duration starts at
+ * hub.breaker.open-duration seconds, and doubles each time the breaker opens again without having
+ * closed, up to hub.breaker.max-open-duration seconds.
+ *
+ * Listeners are told of each change in state, so that the change can be reported in the
+ * status of the destination.
+ *
+ * @author Audacious Inquiry
+ */
+@Slf4j
+@Component
+@Lazy(false)
+public class CircuitBreakerService {
+	/** The state of a circuit breaker */
+	public enum State {
+		/** Messages are sent */
+		CLOSED,
+		/** Messages are rejected */
+		OPEN,
+		/** A limited number of messages are sent to test the destination */
+		HALF_OPEN
+	}
+
+	/** The status reported for a destination whose circuit breaker is half open */
+	public static final String HALF_OPEN_STATUS = "Circuit Breaker Half Open";
+
+	/**
+	 * The state of a circuit breaker at a point in time
+	 * @param state	The state
+	 * @param calls	The number of messages in the window
+	 * @param errorRate	The percentage of messages in the window that failed
+	 * @param slowCallRate	The percentage of messages in the window that were slow
+	 * @param averageLatency	The average time taken by messages in the window in milliseconds
+	 * @param trips	The number of times the breaker has opened since it last closed
+	 * @param openUntil	The time at which an open breaker will become half open, in milliseconds
+	 */
+	public record Snapshot(State state, int calls, int errorRate, int slowCallRate, long averageLatency, int trips,
+		long openUntil) {}
+
+	/**
+	 * Notified when a circuit breaker changes state
+	 */
+	@FunctionalInterface
+	public interface Listener {
+		/**
+		 * Report a change in state
+		 * @param dest	The destination
+		 * @param from	The previous state
+		 * @param snapshot	The new state of the breaker
+		 */
+		void onTransition(IDestination dest, State from, Snapshot snapshot);
+	}
+
+	/** Flags for each outcome stored in the ring buffer, the remaining bits hold the latency */
+	private static final long PRESENT = 4;
+	private static final long SLOW = 2;
+	private static final long ERROR = 1;
+	private static final int FLAG_BITS = 3;
+
+	// Keep track of the singleton to simplify EndpointStatus entity class
+	private static CircuitBreakerService instance;
+
+	@Value("${hub.breaker.enabled:true}")
+	private boolean enabled;
+
+	@Value("${hub.breaker.window:50}")
+	private int windowSize;
+
+	@Value("${hub.breaker.min-calls:10}")
+	private int minCalls;
+
+	@Value("${hub.breaker.error-rate:50}")
+	private int errorRateThreshold;
+
+	@Value("${hub.breaker.slow-call-rate:80}")
+	private int slowCallRateThreshold;
+
+	@Value("${hub.breaker.slow-call-duration:10000}")
+	private long slowCallMillis;
+
+	@Value("${hub.breaker.open-duration:5}")
+	private int openDurationInSeconds;
+
+	@Value("${hub.breaker.max-open-duration:300}")
+	private int maxOpenDurationInSeconds;
+
+	@Value("${hub.breaker.half-open-permits:3}")
+	private int halfOpenPermits;
+
+	private final Map<String, Breaker> breakers = new ConcurrentHashMap<>();
+	private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+	/**
+	 * Create the circuit breaker service
+	 */
+	public CircuitBreakerService() {
+		setInstance(this);
+	}
+
+	private static void setInstance(CircuitBreakerService service) {
+		instance = service;
+	}
+
+	/** @return The circuit breaker service */
+	public static CircuitBreakerService getInstance() {
+		return instance;
+	}
+
+	private final class Breaker {
+		private final AtomicLongArray ring = new AtomicLongArray(Math.max(1, windowSize));
+		private final AtomicLong next = new AtomicLong();
+		private final AtomicInteger calls = new AtomicInteger();
+		private final AtomicInteger errors = new AtomicInteger();
+		private final AtomicInteger slowCalls = new AtomicInteger();
+		private final AtomicLong totalLatency = new AtomicLong();
+		/** Messages that may still be sent while half open */
+		private final AtomicInteger permits = new AtomicInteger();
+		/** Messages that have succeeded while half open */
+		private final AtomicInteger probes = new AtomicInteger();
+		private volatile IDestination dest;
+		private volatile State state = State.CLOSED;
+		private volatile long openUntil = 0;
+		private volatile int trips = 0;
+
+		private Breaker(IDestination dest) {
+			this.dest = dest;
+		}
+
+		private boolean tryAcquire() {
+			State s = state;
+			if (s == State.CLOSED) {
+				return true;
+			}
+			if (s == State.OPEN) {
+				if (System.currentTimeMillis() < openUntil) {
+					return false;
+				}
+				if (transition(State.OPEN, State.HALF_OPEN)) {
+					fire(this, State.OPEN);
+				}
+			}
+			// Only take a permit while one is left, so that a permit returned by cancel() can be used again
+			return state == State.HALF_OPEN && permits.getAndUpdate(p -> p > 0 ? p - 1 : p) > 0;
+		}
+
+		/**
+		 * Return the permit for a message that was not sent
+		 */
+		private void cancel() {
+			if (state == State.HALF_OPEN) {
+				permits.incrementAndGet();
+			}
+		}
+
+		private void record(long elapsed, boolean error) {
+			boolean slow = elapsed >= slowCallMillis;
+			State s = state;
+			if (s == State.HALF_OPEN) {
+				if (error || slow) {
+					trip(State.HALF_OPEN);
+				} else if (probes.incrementAndGet() >= halfOpenPermits && transition(State.HALF_OPEN, State.CLOSED)) {
+					fire(this, State.HALF_OPEN);
+				}
+				return;
+			} else if (s == State.OPEN) {
+				// Sent before the breaker opened
+				return;
+			}
+			long value = (elapsed << FLAG_BITS) | PRESENT | (slow ? SLOW : 0) | (error ? ERROR : 0);
+			int slot = (int) (next.getAndIncrement() % ring.length());
+			count(ring.getAndSet(slot, value), -1);
+			count(value, 1);
+			int n = calls.get();
+			if (n >= minCalls &&
+				(errors.get() * 100 >= errorRateThreshold * n || slowCalls.get() * 100 >= slowCallRateThreshold * n)) {
+				trip(State.CLOSED);
+			}
+		}
+
+		private void count(long value, int delta) {
+			if ((value & PRESENT) == 0) {
+				return;
+			}
+			calls.addAndGet(delta);
+			totalLatency.addAndGet(delta * (value >>> FLAG_BITS));
+			if ((value & ERROR) != 0) {
+				errors.addAndGet(delta);
+			}
+			if ((value & SLOW) != 0) {
+				slowCalls.addAndGet(delta);
+			}
+		}
+
+		private void trip(State from) {
+			if (transition(from, State.OPEN)) {
+				fire(this, from);
+			}
+		}
+
+		private void close() {
+			State from = state;
+			if (from != State.CLOSED && transition(from, State.CLOSED)) {
+				fire(this, from);
+			}
+		}
+
+		/**
+		 * Change state, if still in the expected state.  Transitions are rare, and are
+		 * serialized, the recording of outcomes is not.
+		 * @param from	The expected state
+		 * @param to	The new state
+		 * @return	true if the state changed
+		 */
+		private synchronized boolean transition(State from, State to) {
+			if (state != from) {
+				return false;
+			}
+			long now = System.currentTimeMillis();
+			switch (to) {
+			case OPEN:
+				long duration = Math.min(TimeUnit.SECONDS.toMillis(maxOpenDurationInSeconds),
+					TimeUnit.SECONDS.toMillis(openDurationInSeconds) << Math.min(trips, 20));
+				trips++;
+				openUntil = now + duration;
+				break;
+			case HALF_OPEN:
+				if (now < openUntil) {
+					return false;
+				}
+				probes.set(0);
+				permits.set(Math.max(1, halfOpenPermits));
+				break;
+			case CLOSED:
+				trips = 0;
+				openUntil = 0;
+				for (int i = 0; i < ring.length(); i++) {
+					count(ring.getAndSet(i, 0), -1);
+				}
+				break;
+			}
+			state = to;
+			return true;
+		}
+
+		private Snapshot getSnapshot() {
+			int n = calls.get();
+			return new Snapshot(state, n, n == 0 ? 0 : errors.get() * 100 / n, n == 0 ? 0 : slowCalls.get() * 100 / n,
+				n == 0 ? 0 : totalLatency.get() / n, trips, openUntil);
+		}
+	}
+
+	/** @return true if circuit breakers are driven by traffic through this server */
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Add a listener for changes in state
+	 * @param listener	The listener
+	 */
+	public void addListener(Listener listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * Make a call to a destination if its circuit breaker allows it, recording the outcome.
+	 * Calls that fail with a fault which should break the circuit count as errors.
+	 * @param <T>	The type of the result
+	 * @param dest	The destination
+	 * @param call	The call to make
+	 * @return	The result of the call
+	 * @throws DestinationConnectionFault	If the circuit breaker is open
+	 * @throws Fault	If the call fails
+	 */
+	public <T> T call(IDestination dest, DestinationLimiter.Call<T> call) throws Fault {
+		if (!enabled) {
+			return call.call();
+		}
+		Breaker b = breakers.computeIfAbsent(dest.getDestId(), k -> new Breaker(dest));
+		b.dest = dest;
+		if (!b.tryAcquire()) {
+			throw openFault(dest, b.getSnapshot());
+		}
+		long start = System.currentTimeMillis();
+		try {
+			T result = call.call();
+			b.record(System.currentTimeMillis() - start, false);
+			return result;
+		} catch (DestinationBusyFault f) {
+			// Not sent
+			b.cancel();
+			throw f;
+		} catch (Fault f) {
+			b.record(System.currentTimeMillis() - start, f.shouldBreakCircuit());
+			throw f;
+		} catch (RuntimeException ex) {
+			// Not a failure of the destination
+			b.cancel();
+			throw ex;
+		}
+	}
+
+	/**
+	 * Create the fault reported when the circuit breaker for a destination is open
+	 * @param dest	The destination
+	 * @param snapshot	The state of the circuit breaker
+	 * @return	The circuit breaker thrown fault
+	 */
+	public static DestinationConnectionFault openFault(IDestination dest, Snapshot snapshot) {
+		return DestinationConnectionFault.circuitBreakerThrown(dest,
+			String.format("Circuit breaker for %s is %s, %d%% of the last %d messages failed and %d%% were slow",
+				dest.getDestId(), snapshot.state(), snapshot.errorRate(), snapshot.calls(), snapshot.slowCallRate()));
+	}
+
+	/**
+	 * Get the state of the circuit breaker for a destination
+	 * @param destId	The destination id
+	 * @return	The state, or null if no messages have been sent to the destination
+	 */
+	public Snapshot getSnapshot(String destId) {
+		Breaker b = destId == null ? null : breakers.get(destId);
+		return b == null ? null : b.getSnapshot();
+	}
+
+	/**
+	 * Close the circuit breaker for a destination, e.g., after a successful status check
+	 * @param destId	The destination id
+	 */
+	public void reset(String destId) {
+		Breaker b = destId == null ? null : breakers.get(destId);
+		if (b != null) {
+			b.close();
+		}
+	}
+
+	/**
+	 * Close all circuit breakers
+	 */
+	public void resetAll() {
+		breakers.values().forEach(Breaker::close);
+	}
+
+	private void fire(Breaker b, State from) {
+		Snapshot snapshot = b.getSnapshot();
+		log.info("Circuit breaker for {} changed from {} to {}: {}", b.dest.getDestId(), from, snapshot.state(), snapshot);
+		for (Listener l: listeners) {
+			try {
+				l.onTransition(b.dest, from, snapshot);
+			} catch (RuntimeException ex) {
+				log.error(Markers2.append(ex), "Error reporting circuit breaker change for {}: {}",
+					b.dest.getDestId(), ex.getMessage());
+			}
+		}
+	}
+}
@@ -0,0 +1,70 @@
+package gov.cdc.izgateway.hub.service;
+
+import gov.cdc.izgateway.model.RetryStrategy;
+import gov.cdc.izgateway.soap.fault.Fault;
+import gov.cdc.izgateway.soap.fault.FaultSupport;
+import gov.cdc.izgateway.soap.fault.MessageSupport;
+
+/**
+ * Reports that a message was not sent because the destination already has as many
+ * messages in progress as it is allowed.  The message may be retried.
+ *
+ * @author Audacious Inquiry
+ */
+public class DestinationBusyFault extends Fault implements FaultSupport {
+    private static final long serialVersionUID = 1L;
+
+    private static final MessageSupport MESSAGE_TEMPLATE =
+        new MessageSupport("DestinationBusyFault", "80", "Destination Busy", null,
+            "The destination has too many messages in progress, retry the message later", RetryStrategy.NORMAL);
+    static {
+    	MessageSupport.registerMessageSupport(MESSAGE_TEMPLATE);
+    }
+    private final String destinationId;
+
+    /**
+     * Create a new fault
+     * @param destinationId	The destination
+     * @param limit	The number of messages in progress allowed for the destination
+     */
+    public DestinationBusyFault(String destinationId, int limit) {
+        super(MESSAGE_TEMPLATE.copy().setDetail(
+        	String.format("Destination %s has %d messages in progress", destinationId, limit)), null);
+        this.destinationId = destinationId;
+    }
+
+    /** @return The destination */
+    public String getDestinationId() {
+        return destinationId;
+    }
+
+    @Override
+    public String getSummary() {
+        return messageSupport.getSummary();
+    }
+
+    @Override
+    public String getDetail() {
+        return messageSupport.getDetail();
+    }
+
+    @Override
+    public String getDiagnostics() {
+        return messageSupport.getDiagnostics();
+    }
+
+    @Override
+    public String getCode() {
+        return messageSupport.getCode();
+    }
+
+    @Override
+    public RetryStrategy getRetry() {
+        return messageSupport.getRetry();
+    }
+
+    @Override
+    public String getFaultName() {
+        return messageSupport.getFaultName();
+    }
+}
@@ -0,0 +1,212 @@
+package gov.cdc.izgateway.hub.service;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import gov.cdc.izgateway.dynamodb.model.Destination;
+import gov.cdc.izgateway.model.IDestination;
+import gov.cdc.izgateway.soap.fault.DestinationConnectionFault;
+import gov.cdc.izgateway.soap.fault.Fault;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Limits the number of messages in progress to each destination, so that a destination
+ * which stops responding cannot hold every request thread.
+ *
+ * A destination with maxConcurrency set uses that as its limit.  Otherwise, the limit
+ * adapts to the latency of the destination: while its response time stays near the best
+ * seen recently, the limit grows by about the square root of the limit; as the response
+ * time grows, the limit shrinks in proportion to the ratio of the best to current response
+ * time; and when a connection to the destination fails, it shrinks by a tenth.  By Little's law,
+ * this holds the number of messages queued at the destination near that square root.
+ *
+ * When the limit is reached, further messages fail immediately with a retryable
+ * {@link DestinationBusyFault}.
+ *
+ * Limits are off unless hub.limits.enabled is true.  An adaptive limit starts at
+ * hub.limits.initial, and only grows once at least half of it is in use, so until
+ * then, it caps the messages in progress to a destination.
+ *
+ * @author Audacious Inquiry
+ */
+@Slf4j
+@Component
+public class DestinationLimiter {
+	/**
+	 * The current limit for a destination
+	 * @param limit	The number of messages allowed in progress
+	 * @param inFlight	The number of messages in progress
+	 * @param fixed	True if the limit is set on the destination, false if it adapts
+	 * @param rejected	The number of messages rejected because the limit was reached
+	 * @param minRtt	The best response time seen recently in milliseconds
+	 * @param rtt	The smoothed response time in milliseconds
+	 */
+	public record Limit(int limit, int inFlight, boolean fixed, long rejected, long minRtt, long rtt) {}
+
+	/**
+	 * A call to a destination
+	 * @param <T>	The type of the result
+	 */
+	@FunctionalInterface
+	public interface Call<T> {
+		/**
+		 * Make the call
+		 * @return	The result
+		 * @throws Fault	If the call fails
+		 */
+		T call() throws Fault;
+	}
+
+	/** The fraction of the limit retained when a connection fails */
+	private static final double BACKOFF = 0.9;
+	/** The weight given to each new estimate of the limit */
+	private static final double SMOOTHING = 0.2;
+	/** The smallest and largest ratio of the best to the current response time used to adjust the limit */
+	private static final double MIN_GRADIENT = 0.5;
+	private static final double MAX_GRADIENT = 1.0;
+
+	@Value("${hub.limits.enabled:false}")
+	private boolean enabled;
+
+	@Value("${hub.limits.initial:20}")
+	private int initialLimit;
+
+	@Value("${hub.limits.min:4}")
+	private int minLimit;
+
+	@Value("${hub.limits.max:200}")
+	private int maxLimit;
+
+	/** How long the best response time is remembered, so that the baseline follows the destination */
+	@Value("${hub.limits.min-rtt-window:300}")
+	private int minRttWindowInSeconds;
+
+	private final Map<String, Bulkhead> bulkheads = new ConcurrentHashMap<>();
+
+	private final class Bulkhead {
+		private final AtomicInteger inFlight = new AtomicInteger();
+		private final AtomicLong rejected = new AtomicLong();
+		private volatile int limit;
+		private volatile boolean fixed;
+		/** True from the first rejection until a message is next admitted, so that saturation is logged once */
+		private final AtomicBoolean saturated = new AtomicBoolean();
+		private double estimate;
+		private long minRtt = 0;
+		private long minRttExpiresAt = 0;
+		private long rtt = 0;
+
+		private Bulkhead() {
+			limit = Math.clamp(initialLimit, minLimit, maxLimit);
+			estimate = limit;
+		}
+
+		private void configure(Integer maxConcurrency) {
+			if (maxConcurrency != null && maxConcurrency > 0) {
+				fixed = true;
+				limit = maxConcurrency;
+			} else if (fixed) {
+				// Adapt again, starting from the estimate
+				fixed = false;
+				limit = (int) Math.round(estimate);
+			}
+		}
+
+		private boolean tryAcquire() {
+			int n;
+			do {
+				n = inFlight.get();
+				if (n >= limit) {
+					rejected.incrementAndGet();
+					return false;
+				}
+			} while (!inFlight.compareAndSet(n, n + 1));
+			if (saturated.get()) {
+				saturated.set(false);
+			}
+			return true;
+		}
+
+		private void release(long elapsed, boolean dropped) {
+			int n = inFlight.getAndDecrement();
+			update(elapsed, dropped, n);
+		}
+
+		private synchronized void update(long elapsed, boolean dropped, int inUse) {
+			long now = System.currentTimeMillis();
+			if (minRtt == 0 || elapsed < minRtt || now >= minRttExpiresAt) {
+				minRtt = Math.max(1, elapsed);
+				minRttExpiresAt = now + TimeUnit.SECONDS.toMillis(minRttWindowInSeconds);
+			}
+			rtt = rtt == 0 ? elapsed : (7 * rtt + elapsed) / 8;
+			double next;
+			if (dropped) {
+				next = estimate * BACKOFF;
+			} else if (inUse < estimate / 2) {
+				// Not enough traffic to tell whether the destination can take more
+				return;
+			} else {
+				double gradient = Math.clamp((double) minRtt / Math.max(1, rtt), MIN_GRADIENT, MAX_GRADIENT);
+				next = estimate * gradient + Math.sqrt(estimate);
+			}
+			estimate = Math.clamp(estimate * (1 - SMOOTHING) + next * SMOOTHING, minLimit, maxLimit);
+			if (!fixed) {
+				limit = (int) Math.round(estimate);
+			}
+		}
+
+		private synchronized Limit getLimit() {
+			return new Limit(limit, inFlight.get(), fixed, rejected.get(), minRtt, rtt);
+		}
+	}
+
+	/**
+	 * Make a call to a destination if it has fewer messages in progress than its limit.
+	 * @param <T>	The type of the result
+	 * @param dest	The destination
+	 * @param call	The call to make
+	 * @return	The result of the call
+	 * @throws DestinationBusyFault	If the destination has reached its limit
+	 * @throws Fault	If the call fails
+	 */
+	public <T> T call(IDestination dest, Call<T> call) throws Fault {
+		if (!enabled) {
+			return call.call();
+		}
+		Bulkhead b = bulkheads.computeIfAbsent(dest.getDestId(), k -> new Bulkhead());
+		b.configure(dest instanceof Destination d ? d.getMaxConcurrency() : null);
+		if (!b.tryAcquire()) {
+			// Rejections are counted in /rest/limitstatus, only log when the destination becomes saturated
+			if (b.saturated.compareAndSet(false, true)) {
+				log.warn("Destination {} is busy with {} messages in progress", dest.getDestId(), b.limit);
+			} else {
+				log.debug("Destination {} is busy with {} messages in progress", dest.getDestId(), b.limit);
+			}
+			throw new DestinationBusyFault(dest.getDestId(), b.limit);
+		}
+		boolean dropped = false;
+		long start = System.currentTimeMillis();
+		try {
+			return call.call();
+		} catch (DestinationConnectionFault f) {
+			dropped = true;
+			throw f;
+		} finally {
+			b.release(System.currentTimeMillis() - start, dropped);
+		}
+	}
+
+	/** @return The current limit of each destination that has been called, by destination id */
+	public Map<String, Limit> getLimits() {
+		Map<String, Limit> result = new TreeMap<>();
+		bulkheads.forEach((destId, b) -> result.put(destId, b.getLimit()));
+		return result;
+	}
+}
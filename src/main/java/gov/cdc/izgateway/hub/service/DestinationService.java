@@ -5,6 +5,7 @@ import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import gov.cdc.izgateway.hub.repository.IChangeVersionRepository;
 import gov.cdc.izgateway.hub.repository.IDestinationRepository;
 import gov.cdc.izgateway.hub.repository.RepositoryFactory;
 import gov.cdc.izgateway.logging.markers.Markers2;
@@ -14,12 +15,13 @@ import gov.cdc.izgateway.utils.SystemUtils;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 
-import java.util.Collections;
-import java.util.LinkedHashMap;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Destination Service provides access to the Destination Repository.
@@ -32,11 +34,23 @@ import java.util.concurrent.TimeUnit;
 @Slf4j
 @Service
 public class DestinationService implements InitializingBean, IDestinationService {
+	/** Reads of destinations older than this will trigger a background refresh */
+	private static final long MAX_AGE_IN_MINUTES = 10;
     private final IDestinationRepository destinationRepository;
-    private Map<String, IDestination> cache = Collections.emptyMap();
-    private List<IDestination> list = Collections.emptyList();
+    private final SnapshotCache<String, IDestination> cache;
+    private final IChangeVersionRepository changeVersionRepository;
+    /** The routes built from the current snapshot of destinations */
+    private final AtomicReference<RouteTable> routeTable = new AtomicReference<>(RouteTable.EMPTY);
+    /** Resolves the addresses of destination hosts in the background */
+    private final HostResolver hostResolver;
     @Value("${data.cache.timeToLive:120}")
     private int refreshPeriod;
+    /**
+     * The maximum time between full reloads of destinations when no change has been recorded.  This
+     * is short because destinations may be edited directly in the database, which records no change.
+     */
+    @Value("${data.cache.configReload:120}")
+    private int fullReloadPeriod;
 
     /** The server name as far as the public is concerned */
     @Getter
@@ -66,49 +80,124 @@ public class DestinationService implements InitializingBean, IDestinationService
      * Configure service to update itself periodically after initialization.
      */
     public void afterPropertiesSet() { 
+        cache.trackChanges(changeVersionRepository, "Destination", TimeUnit.SECONDS.toMillis(fullReloadPeriod));
         log.debug("Refresh Scheduled for Destination");
-        Executors.newSingleThreadScheduledExecutor().scheduleAtFixedRate(this::refresh, 0, refreshPeriod, TimeUnit.SECONDS);
+        Executors.newSingleThreadScheduledExecutor().scheduleAtFixedRate(() -> {
+        	cache.refreshIfChanged();
+        	getRouteTable();
+        }, refreshPeriod, refreshPeriod, TimeUnit.SECONDS);
     }
     
     @Override
 	public void refresh() {
-        list = Collections.unmodifiableList(destinationRepository.findAllByDestTypeId(SystemUtils.getDestType()));
-        Map<String, IDestination> map = new LinkedHashMap<>();
-        // Initialize new cache
-        for (IDestination dest: list) {
+        cache.refresh();
+        getRouteTable();
+        log.debug("Destinations Refreshed");
+    }
+    
+    /**
+     * Get the route table for the current destinations, rebuilding it if the destinations
+     * have changed since it was built.  Rebuilding also resolves the addresses of any
+     * destination hosts that have not been resolved, or have expired, in the background.
+     * @return	The route table
+     */
+    public RouteTable getRouteTable() {
+    	SnapshotCache.Snapshot<String, IDestination> s = cache.getSnapshot();
+    	RouteTable table = routeTable.get();
+    	if (table.getVersion() == s.version()) {
+    		return table;
+    	}
+    	RouteTable newTable = new RouteTable(s.version(), s.values(), this);
+    	if (routeTable.compareAndSet(table, newTable)) {
+    		hostResolver.resolveAll(getHosts(newTable));
+    	}
+    	return newTable;
+    }
+    
+    /**
+     * Get the route to a destination
+     * @param destId	The destination id
+     * @return	The route, or null if the destination is not known
+     */
+    public RouteTable.Route getRoute(String destId) {
+    	return getRouteTable().get(destId);
+    }
+    
+    /**
+     * Get the route to a destination, computing it if the destination is not the one in 
+     * the route table (e.g., it has not been saved).
+     * @param dest	The destination
+     * @return	The route
+     */
+    public RouteTable.Route getRoute(IDestination dest) {
+    	RouteTable.Route route = getRoute(dest.getDestId());
+    	return route != null && route.destination() == dest ? route : RouteTable.createRoute(dest, this);
+    }
+    
+    /**
+     * Get the resolved address of a destination host without blocking.  
+     * @param host	The host name
+     * @return	The address, or null if it has not been resolved (yet), or cannot be resolved
+     */
+    public String getHostAddress(String host) {
+    	return hostResolver.getAddress(host);
+    }
+    
+    /**
+     * Get the last resolution of the host of each destination, reporting the time 
+     * taken, and any failures.
+     * @return	The resolutions, by destination id
+     */
+    public Map<String, HostResolver.Resolution> getHostResolutions() {
+    	Map<String, HostResolver.Resolution> result = new TreeMap<>();
+    	for (RouteTable.Route route: getRouteTable().getRoutes()) {
+    		if (!route.local() && StringUtils.isNotEmpty(route.host())) {
+    			result.put(route.id(), hostResolver.getResolution(route.host()));
+    		}
+    	}
+    	return result;
+    }
+    
+    private static List<String> getHosts(RouteTable table) {
+    	return table.getRoutes().stream()
+    		.filter(r -> !r.local() && StringUtils.isNotEmpty(r.host()))
+    		.map(RouteTable.Route::host)
+    		.distinct()
+    		.toList();
+    }
+    
+    private List<IDestination> loadDestinations() {
+    	List<IDestination> all = destinationRepository.findAllByDestTypeId(SystemUtils.getDestType());
+    	List<IDestination> list = new ArrayList<>();
+        for (IDestination dest: all) {
         	if (dest.getDestTypeId() != SystemUtils.getDestType()) {
         		continue;  // Ignore destination types we don't care about.
         	}
-            if (dest.getDestId() != null) {
-                map.put(dest.getDestId(), dest);
-            }
+        	list.add(dest);
         }
-        cache = map;
-        log.debug("Destinations Refreshed");
-
+        return list;
     }
     
     /**
      * Construct a service using the specified repository
      * @param factory the repository factory
+     * @param hostResolver	The resolver for destination host addresses
      */
-    public DestinationService(RepositoryFactory factory) {
+    public DestinationService(RepositoryFactory factory, HostResolver hostResolver) {
+        this.hostResolver = hostResolver;
         this.destinationRepository = factory.destinationRepository();
+        this.changeVersionRepository = factory.changeVersionRepository();
+        this.cache = new SnapshotCache<>("Destinations", this::loadDestinations, IDestination::getDestId, 
+        	TimeUnit.MINUTES.toMillis(MAX_AGE_IN_MINUTES));
     }
     
     @Override
 	public List<IDestination> getAllDestinations() {
-        if (cache.isEmpty()) {
-            refresh();
-        }
-        return list;
+        return cache.toList();
     }
 
     @Override
 	public IDestination findByDestId(String destId) {
-        if (cache.isEmpty()) {
-            refresh();
-        }
         return cache.get(destId.toLowerCase());
     }
 
@@ -117,7 +206,7 @@ public class DestinationService implements InitializingBean, IDestinationService
 		try {
 			destinationRepository.store(dest);
 			// Update the cache
-			cache.put(dest.getDestId(), dest);
+			cache.put(dest);
 		} catch (Exception ex) {
 			log.error(Markers2.append(ex), "Unexpected {}: {}", ex.getClass().getSimpleName(), ex.getMessage());
 			// Force a reread
@@ -0,0 +1,156 @@
+package gov.cdc.izgateway.hub.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import gov.cdc.izgateway.logging.markers.Markers2;
+import gov.cdc.izgateway.model.IEndpointStatus;
+import gov.cdc.izgateway.service.impl.EndpointStatusService;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Writes endpoint status behind the messages that update it, so that steady traffic to a
+ * destination does not write its status on every message.
+ *
+ * A status is written at once when the state of the destination changes between connected,
+ * failing and circuit breaker thrown.  Otherwise, the latest status of each destination is
+ * held in memory, and all those held are written together every hub.status.flush-period seconds,
+ * and on shutdown.
+ *
+ * @author Audacious Inquiry
+ */
+@Slf4j
+@Component
+public class EndpointStatusWriter implements InitializingBean, DisposableBean {
+	private enum State { CONNECTED, FAILING, CIRCUIT_BREAKER_THROWN }
+
+	@Value("${hub.status.flush-period:60}")
+	private int flushPeriodInSeconds;
+
+	private final EndpointStatusService endpointStatusService;
+	/** The latest status of each destination not yet written */
+	private final Map<String, IEndpointStatus> pending = new ConcurrentHashMap<>();
+	/** The state of each destination when its status was last written */
+	private final Map<String, State> written = new ConcurrentHashMap<>();
+	private ScheduledExecutorService scheduler;
+
+	/**
+	 * Create a new writer
+	 * @param endpointStatusService	The service used to save status
+	 */
+	public EndpointStatusWriter(EndpointStatusService endpointStatusService) {
+		this.endpointStatusService = endpointStatusService;
+	}
+
+	@Override
+	public void afterPropertiesSet() {
+		scheduler = Executors.newSingleThreadScheduledExecutor(
+			r -> Thread.ofPlatform().daemon().name("Status-Writer").unstarted(r));
+		int period = Math.max(1, flushPeriodInSeconds);
+		scheduler.scheduleWithFixedDelay(this::flush, period, period, TimeUnit.SECONDS);
+	}
+
+	@Override
+	public void destroy() {
+		scheduler.shutdownNow();
+		flush();
+	}
+
+	/**
+	 * Write the status of a destination, at once if its state has changed since its
+	 * status was last written, or with the next flush otherwise.
+	 * @param status	The status
+	 */
+	public void write(IEndpointStatus status) {
+		if (getState(status) != written.get(status.getDestId())) {
+			writeNow(status);
+		} else {
+			pending.put(status.getDestId(), status);
+		}
+	}
+
+	/**
+	 * Write the status of a destination at once
+	 * @param status	The status
+	 */
+	public void writeNow(IEndpointStatus status) {
+		pending.remove(status.getDestId());
+		if (!save(status)) {
+			pending.putIfAbsent(status.getDestId(), status);
+		}
+	}
+
+	/**
+	 * Write all status held in memory
+	 */
+	public void flush() {
+		List<IEndpointStatus> batch = new ArrayList<>(pending.size());
+		for (String destId: pending.keySet()) {
+			IEndpointStatus status = pending.remove(destId);
+			if (status != null) {
+				batch.add(status);
+			}
+		}
+		if (batch.isEmpty()) {
+			return;
+		}
+		int saved = 0;
+		for (IEndpointStatus status: batch) {
+			if (save(status)) {
+				saved++;
+			} else {
+				// Retry with the next flush, unless a newer status has arrived
+				pending.putIfAbsent(status.getDestId(), status);
+			}
+		}
+		log.debug("Wrote {} of {} endpoint status updates", saved, batch.size());
+	}
+
+	/**
+	 * Forget all status held in memory, e.g., after the stored status has been reset,
+	 * so that it is not overwritten by an earlier status.
+	 */
+	public void clear() {
+		pending.clear();
+		written.clear();
+	}
+
+	/**
+	 * Forget the status held in memory for a destination, e.g., after its stored
+	 * status has been removed, so that it is not overwritten by an earlier status.
+	 * @param destId	The destination
+	 */
+	public void clear(String destId) {
+		pending.remove(destId);
+		written.remove(destId);
+	}
+
+	private boolean save(IEndpointStatus status) {
+		try {
+			endpointStatusService.save(status);
+			written.put(status.getDestId(), getState(status));
+			return true;
+		} catch (RuntimeException ex) {
+			log.error(Markers2.append(ex), "Cannot write status for {}: {}", status.getDestId(), ex.getMessage());
+			written.remove(status.getDestId());
+			return false;
+		}
+	}
+
+	private static State getState(IEndpointStatus status) {
+		if (status.isCircuitBreakerThrown()) {
+			return State.CIRCUIT_BREAKER_THROWN;
+		}
+		return status.isConnected() ? State.CONNECTED : State.FAILING;
+	}
+}
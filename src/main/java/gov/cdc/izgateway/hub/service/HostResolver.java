@@ -0,0 +1,188 @@
+package gov.cdc.izgateway.hub.service;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Resolves the addresses of destination hosts in the background, and caches them,
+ * so that the request thread never waits on DNS to report the address of a destination.
+ *
+ * Resolved addresses are kept for hub.dns.ttl seconds, and failures for hub.dns.negative-ttl
+ * seconds.  A lookup of an expired entry returns the cached value, and schedules it to be
+ * resolved again.  A failure to resolve a host keeps its last good address, so that a
+ * transient DNS error does not lose it.  The time taken by, and failures of, each resolution
+ * are retained for reporting.
+ *
+ * @author Audacious Inquiry
+ */
+@Slf4j
+@Component
+public class HostResolver implements InitializingBean, DisposableBean {
+	/**
+	 * The result of resolving a host
+	 * @param host	The host name
+	 * @param address	The last resolved address, or null if the host has never been resolved
+	 * @param resolvedAt	The time the address was resolved, or of the first failure if it never was, in milliseconds
+	 * @param expiresAt	The time after which the host will be resolved again in milliseconds
+	 * @param elapsed	The time taken to resolve the host in milliseconds
+	 * @param failures	The number of consecutive failures to resolve the host
+	 * @param error	The error reported by the last failure, or null if the last resolution succeeded
+	 */
+	public record Resolution(String host, String address, long resolvedAt, long expiresAt, long elapsed,
+		int failures, String error) {
+		/** @return true if the entry should be resolved again */
+		public boolean isExpired() {
+			return System.currentTimeMillis() >= expiresAt;
+		}
+	}
+
+	@Value("${hub.dns.ttl:300}")
+	private int ttlInSeconds;
+
+	@Value("${hub.dns.negative-ttl:10}")
+	private int negativeTtlInSeconds;
+
+	@Value("${hub.dns.threads:4}")
+	private int threads;
+
+	private final Map<String, Resolution> resolutions = new ConcurrentHashMap<>();
+	/** Hosts queued or being resolved, so that each is only resolved by one thread at a time */
+	private final Set<String> pending = ConcurrentHashMap.newKeySet();
+	/** The hosts in use as of the last call to resolveAll */
+	private volatile Set<String> hosts = Collections.emptySet();
+	/** The number of calls to resolveAll, so that a resolution can tell if hosts were forgotten while it was in flight */
+	private final AtomicLong generation = new AtomicLong();
+	private ExecutorService resolver;
+
+	@Override
+	public void afterPropertiesSet() {
+		resolver = Executors.newFixedThreadPool(Math.max(1, threads),
+			r -> Thread.ofPlatform().daemon().name("Destination-Resolver").unstarted(r));
+	}
+
+	@Override
+	public void destroy() {
+		resolver.shutdownNow();
+	}
+
+	/**
+	 * Get the address of a host without blocking.  If the host has not been resolved,
+	 * or its entry has expired, it is resolved in the background.
+	 * @param host	The host name
+	 * @return	The address, or null if it has not been resolved (yet), or never could be resolved
+	 */
+	public String getAddress(String host) {
+		if (StringUtils.isEmpty(host)) {
+			return null;
+		}
+		Resolution r = resolutions.get(host);
+		if (r == null || r.isExpired()) {
+			schedule(host);
+		}
+		return r == null ? null : r.address();
+	}
+
+	/**
+	 * Resolve the hosts in the background which have not been resolved, or whose entries
+	 * have expired, and forget any other hosts.
+	 * @param hosts	The hosts currently in use
+	 */
+	public void resolveAll(Collection<String> hosts) {
+		// Publish the hosts before forgetting the others, so that a resolution already in flight
+		// for a forgotten host either stores its result before it is removed, or sees that it
+		// was forgotten and removes it itself.
+		Set<String> inUse = Set.copyOf(hosts);
+		this.hosts = inUse;
+		generation.incrementAndGet();
+		resolutions.keySet().retainAll(inUse);
+		for (String host: inUse) {
+			Resolution r = resolutions.get(host);
+			if (r == null || r.isExpired()) {
+				schedule(host);
+			}
+		}
+	}
+
+	/**
+	 * Get the result of the last resolution of a host
+	 * @param host	The host name
+	 * @return	The resolution, or null if the host has not been resolved
+	 */
+	public Resolution getResolution(String host) {
+		return host == null ? null : resolutions.get(host);
+	}
+
+	/** @return The last resolution of each host, by host name */
+	public Map<String, Resolution> getResolutions() {
+		return Collections.unmodifiableMap(new TreeMap<>(resolutions));
+	}
+
+	private void schedule(String host) {
+		if (!pending.add(host)) {
+			return;
+		}
+		long scheduledIn = generation.get();
+		try {
+			resolver.execute(() -> {
+				try {
+					resolve(host, scheduledIn);
+				} finally {
+					pending.remove(host);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			// Shutting down
+			pending.remove(host);
+		}
+	}
+
+	private void resolve(String host, long scheduledIn) {
+		Resolution previous = resolutions.get(host);
+		long start = System.currentTimeMillis();
+		try {
+			String address = InetAddress.getByName(host).getHostAddress();
+			long now = System.currentTimeMillis();
+			if (previous != null && previous.address() != null && !address.equals(previous.address())) {
+				log.info("Address of {} changed from {} to {}", host, previous.address(), address);
+			}
+			store(scheduledIn, new Resolution(host, address, now,
+				now + TimeUnit.SECONDS.toMillis(ttlInSeconds), now - start, 0, null));
+		} catch (UnknownHostException | SecurityException e) {
+			long now = System.currentTimeMillis();
+			int failures = previous == null ? 1 : previous.failures() + 1;
+			log.debug("Cannot resolve {} ({} failures): {}", host, failures, e.getMessage());
+			// Keep the last good address, and try again sooner
+			String address = previous == null ? null : previous.address();
+			long resolvedAt = previous == null ? now : previous.resolvedAt();
+			store(scheduledIn, new Resolution(host, address, resolvedAt,
+				now + TimeUnit.SECONDS.toMillis(negativeTtlInSeconds), now - start, failures, e.getMessage()));
+		}
+	}
+
+	private void store(long scheduledIn, Resolution resolution) {
+		resolutions.put(resolution.host(), resolution);
+		if (generation.get() != scheduledIn && !hosts.contains(resolution.host())) {
+			// Forgotten by resolveAll while it was being resolved
+			resolutions.remove(resolution.host(), resolution);
+		}
+	}
+}
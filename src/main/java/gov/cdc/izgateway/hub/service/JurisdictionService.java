@@ -1,8 +1,6 @@
 package gov.cdc.izgateway.hub.service;
 
-import java.time.Duration;
-import java.util.LinkedHashMap;
-import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import org.springframework.context.annotation.Lazy;
 import org.springframework.stereotype.Service;
@@ -19,12 +17,13 @@ public class JurisdictionService implements IJurisdictionService {
 	private static final long MAX_AGE_IN_MINUTES = 60;  // Update every hour
 	// Keep track of the singleton to simplify Destination entity class
 	private static IJurisdictionService instance;
-	private Map<Integer, IJurisdiction> cache = new LinkedHashMap<>();
+	private final SnapshotCache<Integer, IJurisdiction> cache;
 	private IJurisdictionRepository<Jurisdiction> jurisdictionRepository;
-	long lastUpdate = 0;
 	
 	public JurisdictionService(RepositoryFactory factory) {
 		this.jurisdictionRepository = factory.jurisdictionRepository();
+		this.cache = new SnapshotCache<>("Jurisdictions", jurisdictionRepository::findAll, IJurisdiction::getJurisdictionId,
+			TimeUnit.MINUTES.toMillis(MAX_AGE_IN_MINUTES));
 		setInstance(this);
 	}
 	
@@ -38,30 +37,18 @@ public class JurisdictionService implements IJurisdictionService {
 
 	@Override
 	public IJurisdiction getJurisdiction(int jurisdictionId) {
-		boolean refreshed = false;
-		if (cache.isEmpty() || needsUpdate()) {
-			refresh();
-			refreshed = true;
-		}
+		boolean refreshed = !cache.isLoaded();
+		// Reads older than MAX_AGE_IN_MINUTES return the cached value and refresh in the background.
 		IJurisdiction j = cache.get(jurisdictionId);
 		if (j == null && !refreshed) {
 			// We didn't get a value, but someone thinks it exists, refresh.
-			refresh();
-			j = cache.get(jurisdictionId);
+			j = cache.refresh().get(jurisdictionId);
 		}
 		return j;
 	}
-	
-	private boolean needsUpdate() {
-		long age = System.currentTimeMillis() - lastUpdate;
-		return Duration.ofMillis(age).toMinutes() > MAX_AGE_IN_MINUTES;
-	}
 
 	@Override
 	public void refresh() {
-		Map<Integer, IJurisdiction> newCache = new LinkedHashMap<>();
-		jurisdictionRepository.findAll().forEach(j -> newCache.put(j.getJurisdictionId(), j));
-		lastUpdate = System.currentTimeMillis();
-		cache = newCache;
+		cache.refresh();
 	}
 }
@@ -7,6 +7,7 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import gov.cdc.izgateway.dynamodb.model.MessageHeader;
+import gov.cdc.izgateway.hub.repository.IChangeVersionRepository;
 import gov.cdc.izgateway.hub.repository.IMessageHeaderRepository;
 import gov.cdc.izgateway.hub.repository.RepositoryFactory;
 import gov.cdc.izgateway.model.IMessageHeader;
@@ -14,10 +15,7 @@ import gov.cdc.izgateway.service.IMessageHeaderService;
 import lombok.extern.slf4j.Slf4j;
 
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 
@@ -25,58 +23,59 @@ import java.util.concurrent.TimeUnit;
 @Service
 @Slf4j
 public class MessageHeaderService implements InitializingBean, IMessageHeaderService {
+	/** Reads of message headers older than this will trigger a background refresh */
+	private static final long MAX_AGE_IN_MINUTES = 15;
 
     private final IMessageHeaderRepository<MessageHeader> messageHeaderRepository;
-    private Map<String, IMessageHeader> cache = Collections.emptyMap();
+    private final SnapshotCache<String, IMessageHeader> cache;
+
+    private final IChangeVersionRepository changeVersionRepository;
 
     @Value("${data.cache.timeToLive:300}")
     private int refreshPeriod;
+    /**
+     * The maximum time between full reloads of message headers when no change has been recorded.  This
+     * is short because message headers may be edited directly in the database, which records no change.
+     */
+    @Value("${data.cache.configReload:120}")
+    private int fullReloadPeriod;
     
     public MessageHeaderService(RepositoryFactory factory) {
         this.messageHeaderRepository = factory.messageHeaderRepository();
+        this.changeVersionRepository = factory.changeVersionRepository();
+        this.cache = new SnapshotCache<>("MessageHeaders", messageHeaderRepository::findAll, IMessageHeader::getMsh,
+        	TimeUnit.MINUTES.toMillis(MAX_AGE_IN_MINUTES));
     }
     
     /**
      * Configure service to update itself periodically after initialization.
      */
     public void afterPropertiesSet() { 
+        cache.trackChanges(changeVersionRepository, "MessageHeader", TimeUnit.SECONDS.toMillis(fullReloadPeriod));
         log.debug("Refresh Scheduled for MessageHeader");
-        Executors.newSingleThreadScheduledExecutor().scheduleAtFixedRate(this::refresh, 0, refreshPeriod, TimeUnit.SECONDS);
+        Executors.newSingleThreadScheduledExecutor().scheduleAtFixedRate(cache::refreshIfChanged, refreshPeriod, refreshPeriod, TimeUnit.SECONDS);
     }
     
     @Override
 	public void refresh() {
-        List<? extends IMessageHeader> list = Collections.unmodifiableList(messageHeaderRepository.findAll());
-        Map<String, IMessageHeader> map = new LinkedHashMap<>();
-        // Initialize new cache
-        for (IMessageHeader msh: list) {
-            if (msh.getMsh() != null) {
-                map.put(msh.getMsh(), msh);
-            }
-        }
-        cache = map;
+        cache.refresh();
         log.debug("MessageHeaders Refreshed");
     }
 
     @Override
 	public IMessageHeader findByMsgId(String msgId) {
-        if (cache.isEmpty()) {
-            refresh();
-        }
         return cache.get(msgId);
     }
     
     @Override
 	public List<IMessageHeader> getMessageHeaders(List<String> mshList) {
-        if (cache.isEmpty()) {
-            refresh();
-        }
+        SnapshotCache.Snapshot<String, IMessageHeader> snapshot = cache.getSnapshot();
         List<IMessageHeader> result = new ArrayList<>();
         for (String mshId : mshList) {
         	if (StringUtils.isEmpty(mshId)) {
         		continue;
         	}
-            IMessageHeader msh = cache.get(mshId);
+            IMessageHeader msh = snapshot.get(mshId);
             if (msh != null) {
                 result.add(msh);
             }
@@ -86,23 +85,17 @@ public class MessageHeaderService implements InitializingBean, IMessageHeaderSer
     
     @Override
 	public List<IMessageHeader> getAllMessageHeaders() {
-        if (cache.isEmpty()) {
-            refresh();
-        }
         return new ArrayList<>(cache.values());
     }
     
     @Override
 	public String getSourceType(String ... idList) {
-        if (cache.isEmpty()) {
-            refresh();
-        }
-
+        SnapshotCache.Snapshot<String, IMessageHeader> snapshot = cache.getSnapshot();
         for (String mshId : idList) {
         	if (mshId == null) {
         		continue;
         	}
-            IMessageHeader msh = cache.get(mshId);
+            IMessageHeader msh = snapshot.get(mshId);
             if (msh != null) {
                 return msh.getSourceType();
             }
@@ -120,7 +113,7 @@ public class MessageHeaderService implements InitializingBean, IMessageHeaderSer
 		}
 		h2 = messageHeaderRepository.store(h2);
 		// Update cache
-		cache.put(h2.getMsh(), h2);
+		cache.put(h2);
 		return h2;
 	}
 
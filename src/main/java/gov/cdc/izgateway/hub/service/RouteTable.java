@@ -0,0 +1,89 @@
+package gov.cdc.izgateway.hub.service;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.lang3.StringUtils;
+
+import gov.cdc.izgateway.logging.info.HostInfo;
+import gov.cdc.izgateway.model.IDestination;
+
+/**
+ * An immutable table of routes to destinations, precomputed from a snapshot of the
+ * destinations whenever they are refreshed, so that resolving and logging the destination
+ * of a message is a single lookup, with no pattern matching, URL formatting or parsing.
+ *
+ * @author Audacious Inquiry
+ */
+public class RouteTable {
+	/**
+	 * A precomputed route to a destination
+	 * @param destination	The destination
+	 * @param id	The normalized (lower case) destination id
+	 * @param host	The host name of the destination endpoint
+	 * @param local	True if the destination is served by this server
+	 * @param localUrl	The URL of the endpoint for local use, as reported in logs
+	 * @param publicUrl	The URL of the endpoint as far as the public is concerned
+	 * @param protocol	The protocol (WSDL) version of the destination, or null if not set
+	 */
+	public record Route(IDestination destination, String id, String host, boolean local, String localUrl,
+		String publicUrl, String protocol) {}
+
+	/** An empty table, before destinations have been loaded */
+	static final RouteTable EMPTY = new RouteTable(-1, Collections.emptyList(), null);
+
+	private final long version;
+	private final Map<String, Route> routes;
+
+	/**
+	 * Create a new route table
+	 * @param version	The version of the destination snapshot the table was built from
+	 * @param destinations	The destinations
+	 * @param service	The destination service, used to compute URLs and host names
+	 */
+	RouteTable(long version, Collection<IDestination> destinations, DestinationService service) {
+		this.version = version;
+		Map<String, Route> map = new LinkedHashMap<>();
+		for (IDestination dest: destinations) {
+			if (dest.getDestId() != null) {
+				Route route = createRoute(dest, service);
+				map.put(route.id(), route);
+			}
+		}
+		this.routes = Collections.unmodifiableMap(map);
+	}
+
+	static Route createRoute(IDestination dest, DestinationService service) {
+		String uri = dest.getDestUri();
+		boolean local = uri != null && uri.startsWith("/");
+		String host = local ? HostInfo.LOCALHOST : service.serverOf(uri);
+		return new Route(dest, StringUtils.lowerCase(dest.getDestId()), host, local, service.localUrl(uri),
+			service.publicUrl(uri), StringUtils.trimToNull(dest.getDestVersion()));
+	}
+
+	/** @return The version of the destination snapshot this table was built from */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * Get the route to a destination
+	 * @param destinationId	The destination id, in any case
+	 * @return	The route, or null if there is no such destination
+	 */
+	public Route get(String destinationId) {
+		if (destinationId == null) {
+			return null;
+		}
+		// Ids are almost always sent in lower case already
+		Route route = routes.get(destinationId);
+		return route != null ? route : routes.get(destinationId.toLowerCase());
+	}
+
+	/** @return	The routes in the table */
+	public Collection<Route> getRoutes() {
+		return routes.values();
+	}
+}
@@ -0,0 +1,335 @@
+package gov.cdc.izgateway.hub.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import gov.cdc.izgateway.hub.repository.IChangeVersionRepository;
+import gov.cdc.izgateway.logging.markers.Markers2;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * A versioned cache of immutable snapshots of a repository, shared by the services
+ * that periodically refresh their contents from the database.
+ *
+ * <ul>
+ * <li>Readers get the current {@link Snapshot} with a single volatile read, and never see
+ * a partially built or concurrently modified map.</li>
+ * <li>Refreshes are single flight: concurrent callers of {@link #refresh()} wait for the
+ * load already in progress rather than starting another full read of the repository.</li>
+ * <li>Writes are applied copy-on-write, and writes made while a refresh is in flight are
+ * reapplied over the newly loaded data so that they are not lost.</li>
+ * <li>Reads are stale-while-revalidate: once loaded, a snapshot older than the maximum age
+ * is still returned, while a refresh is started in the background.</li>
+ * <li>When change tracking is enabled with {@link #trackChanges}, periodic refreshes via
+ * {@link #refreshIfChanged()} first read the version of the entity type, and only reload
+ * the full set of entities when it has changed, or the full reload interval has passed.
+ * Writes through this cache record a new version.</li>
+ * </ul>
+ *
+ * @param <K>	The key type
+ * @param <V>	The value type
+ * @author Audacious Inquiry
+ */
+@Slf4j
+public class SnapshotCache<K, V> {
+	/**
+	 * An immutable snapshot of the cache contents.
+	 * @param <K>	The key type
+	 * @param <V>	The value type
+	 * @param version	The version of this snapshot, incremented on each refresh or write
+	 * @param loadedAt	The time in milliseconds at which the data was last loaded from the repository
+	 * @param map	The cached values by key, in load order
+	 */
+	public record Snapshot<K, V>(long version, long loadedAt, Map<K, V> map) {
+		/** @return The cached values, in load order */
+		public Collection<V> values() {
+			return map.values();
+		}
+		/**
+		 * Get a value
+		 * @param key	The key
+		 * @return The value, or null if not present
+		 */
+		public V get(K key) {
+			return map.get(key);
+		}
+	}
+
+	/** The change version used when no change has ever been recorded for the entity type */
+	private static final String NO_VERSION = "none";
+
+	private final String name;
+	private final Supplier<? extends Collection<? extends V>> loader;
+	private final Function<? super V, ? extends K> keyFunction;
+	private final long maxAgeMillis;
+	private final Executor backgroundExecutor;
+	private IChangeVersionRepository changeVersions = null;
+	private String entityType = null;
+	private long fullReloadMillis = 0;
+
+	private final Object writeLock = new Object();
+	/** A refresh in progress, and whether it may skip the reload if nothing has changed */
+	private record Flight<K, V>(CompletableFuture<Snapshot<K, V>> future, boolean onlyIfChanged) {}
+	private final AtomicReference<Flight<K, V>> inFlight = new AtomicReference<>();
+	private volatile Snapshot<K, V> snapshot = new Snapshot<>(0, 0, Collections.emptyMap());
+	private volatile boolean loaded = false;
+	/** The change version at the time of the last load */
+	private volatile String loadedVersion = null;
+	/** The last time the loaded snapshot was confirmed to be current */
+	private volatile long validatedAt = 0;
+	/** Writes made while a refresh is in flight, guarded by writeLock, null when no refresh is in flight */
+	private Map<K, V> pendingWrites = null;
+
+	/**
+	 * Create a new snapshot cache.
+	 * @param name	The name of the cache, used for logging
+	 * @param loader	Loads all the values to cache from the repository
+	 * @param keyFunction	Computes the key for a value.  Values with a null key are not cached.
+	 * @param maxAgeMillis	The age after which a read will trigger a background refresh
+	 */
+	public SnapshotCache(String name, Supplier<? extends Collection<? extends V>> loader,
+		Function<? super V, ? extends K> keyFunction, long maxAgeMillis
+	) {
+		this.name = name;
+		this.loader = loader;
+		this.keyFunction = keyFunction;
+		this.maxAgeMillis = maxAgeMillis;
+		this.backgroundExecutor = r -> Thread.ofPlatform().daemon().name(name + "-refresh").start(r);
+	}
+
+	/**
+	 * Enable change tracking for this cache.
+	 * @param changeVersions	The repository tracking changes
+	 * @param entityType	The entity type of the cached values
+	 * @param fullReloadMillis	The maximum time between full reloads, even when no change has been recorded
+	 * @return	this cache
+	 */
+	public SnapshotCache<K, V> trackChanges(IChangeVersionRepository changeVersions, String entityType, long fullReloadMillis) {
+		this.changeVersions = changeVersions;
+		this.entityType = entityType;
+		this.fullReloadMillis = fullReloadMillis;
+		return this;
+	}
+
+	/**
+	 * Get the current snapshot, loading it if it has never been loaded, and starting
+	 * a background refresh if it is older than the maximum age.
+	 * @return	The current snapshot
+	 */
+	public Snapshot<K, V> getSnapshot() {
+		if (!loaded) {
+			return refresh();
+		}
+		Snapshot<K, V> s = snapshot;
+		if (maxAgeMillis > 0 && System.currentTimeMillis() - Math.max(s.loadedAt(), validatedAt) > maxAgeMillis) {
+			start(backgroundExecutor, true);
+		}
+		return s;
+	}
+
+	/**
+	 * Get a cached value
+	 * @param key	The key
+	 * @return	The value or null if not present
+	 */
+	public V get(K key) {
+		return key == null ? null : getSnapshot().get(key);
+	}
+
+	/** @return The cached values */
+	public Collection<V> values() {
+		return getSnapshot().values();
+	}
+
+	/** @return true if the cache has been loaded from the repository at least once */
+	public boolean isLoaded() {
+		return loaded;
+	}
+
+	/**
+	 * Reload the cache from the repository.  If a refresh is already in progress, wait
+	 * for it to complete instead of starting a new one.
+	 * @return	The refreshed snapshot
+	 */
+	public Snapshot<K, V> refresh() {
+		Flight<K, V> flight = start(Runnable::run, false);
+		if (flight.onlyIfChanged()) {
+			// The refresh in progress may not reload, wait for it and then force a reload. 
+			await(flight);
+			flight = start(Runnable::run, false);
+		}
+		return await(flight);
+	}
+
+	/**
+	 * Reload the cache from the repository if the change version for the entity type has
+	 * changed since the last load, or if the full reload interval has elapsed.  If change
+	 * tracking is not enabled, this is the same as {@link #refresh()}.
+	 * @return	The current snapshot
+	 */
+	public Snapshot<K, V> refreshIfChanged() {
+		return await(start(Runnable::run, true));
+	}
+
+	private Snapshot<K, V> await(Flight<K, V> flight) {
+		try {
+			return flight.future().join();
+		} catch (CompletionException ex) {
+			if (ex.getCause() instanceof RuntimeException rex) {
+				throw rex;
+			}
+			if (ex.getCause() instanceof Error err) {
+				throw err;
+			}
+			throw ex;
+		}
+	}
+
+	private Flight<K, V> start(Executor executor, boolean onlyIfChanged) {
+		CompletableFuture<Snapshot<K, V>> future = new CompletableFuture<>();
+		Flight<K, V> flight = new Flight<>(future, onlyIfChanged);
+		Flight<K, V> existing = inFlight.compareAndExchange(null, flight);
+		if (existing != null) {
+			return existing;
+		}
+		try {
+			executor.execute(() -> load(future, onlyIfChanged));
+		} catch (RuntimeException ex) {
+			inFlight.set(null);
+			future.completeExceptionally(ex);
+		}
+		return flight;
+	}
+
+	private void load(CompletableFuture<Snapshot<K, V>> future, boolean onlyIfChanged) {
+		try {
+			String version = getChangeVersion();
+			if (onlyIfChanged && isCurrent(version)) {
+				validatedAt = System.currentTimeMillis();
+				log.debug("{} unchanged at version {}", name, version);
+				inFlight.set(null);
+				future.complete(snapshot);
+				return;
+			}
+			synchronized (writeLock) {
+				pendingWrites = new LinkedHashMap<>();
+			}
+			Map<K, V> map = new LinkedHashMap<>();
+			for (V value: loader.get()) {
+				K key = keyFunction.apply(value);
+				if (key != null) {
+					map.put(key, value);
+				}
+			}
+			Snapshot<K, V> s;
+			synchronized (writeLock) {
+				applyWrites(map, pendingWrites);
+				pendingWrites = null;
+				s = new Snapshot<>(snapshot.version() + 1, System.currentTimeMillis(), Collections.unmodifiableMap(map));
+				snapshot = s;
+				loadedVersion = version;
+				loaded = true;
+			}
+			log.debug("{} refreshed, {} entries, version {}", name, map.size(), s.version());
+			inFlight.set(null);
+			future.complete(s);
+		} catch (RuntimeException | Error ex) {
+			synchronized (writeLock) {
+				pendingWrites = null;
+			}
+			log.error(Markers2.append(ex), "Error refreshing {}: {}", name, ex.getMessage());
+			inFlight.set(null);
+			future.completeExceptionally(ex);
+		}
+	}
+
+	private String getChangeVersion() {
+		if (changeVersions == null) {
+			return null;
+		}
+		try {
+			// If no change has ever been recorded, the version is still known. 
+			return Objects.toString(changeVersions.getVersion(entityType), NO_VERSION);
+		} catch (RuntimeException ex) {
+			log.warn(Markers2.append(ex), "Cannot read change version for {}: {}", entityType, ex.getMessage());
+			return null;
+		}
+	}
+
+	private boolean isCurrent(String version) {
+		if (changeVersions == null || !loaded || version == null) {
+			return false;
+		}
+		long age = System.currentTimeMillis() - snapshot.loadedAt();
+		return version.equals(loadedVersion) && age < fullReloadMillis;
+	}
+
+	private static <K, V> void applyWrites(Map<K, V> map, Map<K, V> writes) {
+		for (Map.Entry<K, V> e: writes.entrySet()) {
+			if (e.getValue() == null) {
+				map.remove(e.getKey());
+			} else {
+				map.put(e.getKey(), e.getValue());
+			}
+		}
+	}
+
+	/**
+	 * Add or replace a value in the cache, after it has been written to the repository.
+	 * @param value	The value
+	 */
+	public void put(V value) {
+		K key = keyFunction.apply(value);
+		if (key != null) {
+			write(key, value);
+		}
+	}
+
+	/**
+	 * Remove a value from the cache, after it has been removed from the repository.
+	 * @param key	The key of the value to remove
+	 */
+	public void remove(K key) {
+		if (key != null) {
+			write(key, null);
+		}
+	}
+
+	private void write(K key, V value) {
+		synchronized (writeLock) {
+			Snapshot<K, V> s = snapshot;
+			Map<K, V> map = new LinkedHashMap<>(s.map());
+			applyWrites(map, Collections.singletonMap(key, value));
+			snapshot = new Snapshot<>(s.version() + 1, s.loadedAt(), Collections.unmodifiableMap(map));
+			if (pendingWrites != null) {
+				pendingWrites.put(key, value);
+			}
+		}
+		if (changeVersions != null) {
+			try {
+				changeVersions.markChanged(entityType);
+			} catch (RuntimeException ex) {
+				log.warn(Markers2.append(ex), "Cannot record change version for {}: {}", entityType, ex.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Get the values in the cache in load order.
+	 * @return	An immutable list of the cached values
+	 */
+	public List<V> toList() {
+		return Collections.unmodifiableList(new ArrayList<>(values()));
+	}
+}
@@ -1,5 +1,6 @@
 package gov.cdc.izgateway.hub.service;
 
+import gov.cdc.izgateway.Application;
 import gov.cdc.izgateway.configuration.AppProperties;
 import gov.cdc.izgateway.configuration.StatusCheckerConfiguration;
 import gov.cdc.izgateway.dynamodb.model.EndpointStatus;
@@ -27,7 +28,10 @@ import gov.cdc.izgateway.soap.net.MessageSender;
 import lombok.extern.slf4j.Slf4j;
 
 import org.slf4j.MDC;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import gov.cdc.izgateway.utils.SystemUtils;
@@ -36,17 +40,21 @@ import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.Setter;
 
-import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 
 @Slf4j
 @Service
-public class StatusCheckerService implements IStatusCheckerService {
+public class StatusCheckerService implements IStatusCheckerService, InitializingBean, DisposableBean {
 	@Setter(AccessLevel.PRIVATE)
     private static String statusCheckerEventId = EventId.DEFAULT_TX_ID;
 	
@@ -54,6 +62,8 @@ public class StatusCheckerService implements IStatusCheckerService {
     private static String commonName = "unknown";
 
     private static final int[]  CHECK_INTERVALS = { 15, 60, 120, 180, 240, 300, 600, 900 };
+    /** The largest fraction of a retry interval added at random, so that retries of destinations that failed together spread out */
+    private static final double RETRY_JITTER = 0.1;
 
     public static interface ADSChecker {
 		public String check(String dest) throws Fault;
@@ -65,8 +75,21 @@ public class StatusCheckerService implements IStatusCheckerService {
     private final IDestinationService destinationService;
 	private final ClientTlsSupport clientTlsSupport;
 	private final EndpointStatusService endpointStatusService;
+	private final EndpointStatusWriter statusWriter;
+	private final CircuitBreakerService breakers;
 	private final ADSChecker adsChecker;
 	private final ScheduledExecutorService scheduler;
+	@Value("${spring.threads.virtual.enabled:false}")
+	private boolean virtualThreads;
+	/** The number of status checks that may run at once */
+	@Value("${hub.status-check.threads:4}")
+	private int checkThreads;
+	/** Status checks run on a bounded pool, so that a slow destination does not hold up the scheduler or other checks */
+	private ExecutorService checker;
+	/** Runs checks requested through the API, at most one per destination, see {@link #checkDestinationAsync(IDestination)} */
+	private ExecutorService requester;
+	/** Checks requested through the API which are in progress, by destination id */
+	private final Map<String, CompletableFuture<IEndpointStatus>> inProgress = new ConcurrentHashMap<>();
     
     @Autowired
     public StatusCheckerService(
@@ -76,7 +99,9 @@ public class StatusCheckerService implements IStatusCheckerService {
     	EndpointStatusService endpointStatusService, 
     	ClientTlsSupport clientTlsSupport,
     	ADSChecker adsChecker,
-    	AppProperties app
+    	AppProperties app,
+    	EndpointStatusWriter statusWriter,
+    	CircuitBreakerService breakers
     ) {
     	this.scheduler = app.getScheduler();
         this.config = config;
@@ -84,23 +109,27 @@ public class StatusCheckerService implements IStatusCheckerService {
         this.destinationService = destinationService;
         this.clientTlsSupport = clientTlsSupport;
         this.endpointStatusService =  endpointStatusService;
+        this.statusWriter = statusWriter;
+        this.breakers = breakers;
+        breakers.addListener(this::onBreakerTransition);
         this.adsChecker = adsChecker;
         setCommonName(X500Utils.getCommonName(clientTlsSupport.getCertificate()));
         setStatusCheckerEventId(new TransactionData().getEventId());
         messageSender.setStatusChecker(this);
     }
     
-    public List<String> getHosts() {
-    	List<String> l = new ArrayList<>();
-		l.add(SystemUtils.getHostname());
-    	for (IEndpointStatus s: endpointStatusService.findAll()) {
-    		if (!l.contains(s.getStatusBy())) {
-    			l.add(s.getStatusBy());
-    		}
-    	}
-    	return l;
+    @Override
+    public void afterPropertiesSet() {
+    	checker = Executors.newFixedThreadPool(Math.max(1, checkThreads), Application.newThreadFactory("Status-Check", virtualThreads));
+    	requester = Executors.newThreadPerTaskExecutor(Application.newThreadFactory("Status-Request", virtualThreads));
     }
-    
+
+    @Override
+    public void destroy() {
+    	checker.shutdownNow();
+    	requester.shutdownNow();
+    }
+
 	public int getMaxFailures() {
 		return config.getMaxFailuresBeforeCircuitBreaker();
 	}
@@ -120,10 +149,44 @@ public class StatusCheckerService implements IStatusCheckerService {
         } else {
             doHubStatusCheck(s);
         }
-        endpointStatusService.save(s);
+        statusWriter.writeNow(s);
+        if (s.isConnected()) {
+        	// The destination has recovered, no need to wait for the breaker to probe it
+        	breakers.reset(dest.getDestId());
+        }
         return s;
     }
 
+    /**
+     * Report a change in the state of the circuit breaker for a destination in its status
+     * @param dest	The destination
+     * @param from	The previous state of the breaker
+     * @param breaker	The new state of the breaker
+     */
+    private void onBreakerTransition(IDestination dest, CircuitBreakerService.State from, CircuitBreakerService.Snapshot breaker) {
+        EndpointStatus s = new EndpointStatus(dest);
+        switch (breaker.state()) {
+        case OPEN:
+            Fault fault = CircuitBreakerService.openFault(dest, breaker);
+            s.fromFault(fault);
+            s.setStatus(IEndpointStatus.CIRCUIT_BREAKER_THROWN);
+            logCircuitBreakerThrown(s, fault);
+            if (from == CircuitBreakerService.State.CLOSED) {
+                // Status checks also look for recovery, in case no messages arrive to probe it
+                lookForReset(dest);
+            }
+            break;
+        case HALF_OPEN:
+            s.setStatus(CircuitBreakerService.HALF_OPEN_STATUS);
+            break;
+        case CLOSED:
+            s.connected();
+            logCircuitBreakerReset(s);
+            break;
+        }
+        statusWriter.writeNow(s);
+    }
+
 	private void doAdsStatusCheck(IDestination dest, IEndpointStatus s) {
 		try {
 		    adsChecker.check(dest.getDestId());
@@ -213,6 +276,48 @@ public class StatusCheckerService implements IStatusCheckerService {
         }
     }
     
+    /**
+     * Check the status of a destination in the background.  Concurrent callers asking for
+     * the same destination share a single check, so that polling by several users or monitors
+     * does not send more than one connectivity test at a time to a destination.
+     * @param dest	The destination to check
+     * @return	The status when the check completes
+     */
+    public CompletableFuture<IEndpointStatus> checkDestinationAsync(IDestination dest) {
+    	String destId = dest.getDestId();
+    	CompletableFuture<IEndpointStatus> check = new CompletableFuture<>();
+    	CompletableFuture<IEndpointStatus> running = inProgress.putIfAbsent(destId, check);
+    	if (running != null) {
+    		return running;
+    	}
+    	try {
+    		requester.execute(() -> {
+    			try {
+    				IEndpointStatus status = checkDestination(dest);
+    				// Remove before completing, so that a caller who sees this result starts a new check
+    				inProgress.remove(destId, check);
+    				check.complete(status);
+    			} catch (Throwable ex) {  // NOSONAR Report any failure to the caller, so that the check is not left in progress
+    				inProgress.remove(destId, check);
+    				check.completeExceptionally(ex);
+    			}
+    		});
+    	} catch (RejectedExecutionException ex) {
+    		// Shutting down
+    		inProgress.remove(destId, check);
+    		check.completeExceptionally(ex);
+    	}
+    	return check;
+    }
+    
+    /**
+     * @param destId	The destination id
+     * @return	true if a check requested through the API is in progress for the destination
+     */
+    public boolean isChecking(String destId) {
+    	return inProgress.containsKey(destId);
+    }
+    
     public static void setDestinationInfoFromDestination(DestinationInfo info, IDestination route) {
 		if (route == null) {
 			info.setUrl(null);
@@ -245,16 +350,37 @@ public class StatusCheckerService implements IStatusCheckerService {
             // Ignore failures.
         }
 
-        // We did not succeed, set checks for the future if there are any to be scheduled.
-    	lookForReset(dest, Math.max(failureCount, CHECK_INTERVALS.length - 1));
+        // We did not succeed, wait longer before the next check, up to the last interval.
+    	lookForReset(dest, Math.min(failureCount + 1, CHECK_INTERVALS.length - 1));
     }
     
 	private void lookForReset(IDestination dest, int count) {
-        scheduler.schedule(
-            () -> checkStatus(dest, count), StatusCheckerService.CHECK_INTERVALS[count], TimeUnit.SECONDS
+		long interval = TimeUnit.SECONDS.toMillis(CHECK_INTERVALS[count]);
+		long jitter = (long) (ThreadLocalRandom.current().nextDouble() * RETRY_JITTER * interval);
+        schedule(
+            () -> checkStatus(dest, count), interval + jitter, TimeUnit.MILLISECONDS
         );
 	}
 
+	/**
+	 * Schedule a status check.  When due, the check runs on a pool of hub.status-check.threads
+	 * threads, which are virtual threads when virtual threads are enabled.
+	 * @param check	The status check to run
+	 * @param delay	The delay before running it
+	 * @param unit	The unit of the delay
+	 */
+	public void schedule(Runnable check, long delay, TimeUnit unit) {
+		scheduler.schedule(() -> execute(check), delay, unit);
+	}
+
+	private void execute(Runnable check) {
+		try {
+			checker.execute(check);
+		} catch (RejectedExecutionException e) {
+			// Shutting down
+		}
+	}
+
 	public void lookForReset(IDestination dest) {
 		lookForReset(dest, 0);
 	}
@@ -266,7 +392,8 @@ public class StatusCheckerService implements IStatusCheckerService {
 	
 	/**
 	 * Update status after successful or failed message send. This keeps status fresh and avoids
-	 * unnecessary status checks.
+	 * unnecessary status checks.  Changes in state are written at once, other updates are
+	 * written behind by the {@link EndpointStatusWriter}.
 	 * @param status	Current status
 	 * @param dest		Destination (needed on failure states to look for a reset of the circuit breaker)
 	 * @param reason	The reason for the failure
@@ -281,13 +408,14 @@ public class StatusCheckerService implements IStatusCheckerService {
 			}
 		} else {
 			status = new EndpointStatus(dest).fromFault(reason);
-			if (!wasCircuitBreakerThrown && reason.shouldBreakCircuit()) {
+			// When enabled, the circuit breaker driven by traffic decides when to throw the breaker
+			if (!breakers.isEnabled() && !wasCircuitBreakerThrown && reason.shouldBreakCircuit()) {
 				status.setStatus(IEndpointStatus.CIRCUIT_BREAKER_THROWN);
 				logCircuitBreakerThrown(status, reason);
 				lookForReset(dest);
 			}
 		}
-		endpointStatusService.save(status);
+		statusWriter.write(status);
 	}
 	
 
@@ -25,6 +25,7 @@ import gov.cdc.izgateway.dynamodb.repository.OrganizationRecordRepository;
 import gov.cdc.izgateway.hub.repository.IAccessControlRepository;
 import gov.cdc.izgateway.hub.repository.IAccessGroupRepository;
 import gov.cdc.izgateway.hub.repository.IAllowedUserRepository;
+import gov.cdc.izgateway.hub.repository.IChangeVersionRepository;
 import gov.cdc.izgateway.hub.repository.IDenyListRecordRepository;
 import gov.cdc.izgateway.hub.repository.IFileTypeRepository;
 import gov.cdc.izgateway.hub.repository.IOrganizationRecordRepository;
@@ -68,6 +69,7 @@ public class AccessControlMigrator {
     private final IFileTypeRepository<FileType> fileTypeRepository;
     private final IOrganizationRecordRepository<OrganizationRecord> organizationRecordRepository;
 	private final EventRepository eventRepository;
+	private final IChangeVersionRepository changeVersionRepository;
 	private final List<IRepository<?>> repositoriesToMigrate;
 
 	@Value("${server.hostname:dev.izgateway.org}")
@@ -89,6 +91,7 @@ public class AccessControlMigrator {
         this.organizationRecordRepository = factory.organizationRecordRepository();
         factory.destinationRepository();
         this.eventRepository = factory.eventRepository();
+        this.changeVersionRepository = factory.changeVersionRepository();
         factory.certificateStatusRepository();
         this.repositoriesToMigrate = Arrays.asList(accessGroupRepository, allowedUserRepository, denyListRecordRepository, fileTypeRepository, organizationRecordRepository);
     }
@@ -460,6 +463,10 @@ public class AccessControlMigrator {
 			dlr.setPrincipal(principal);
 			denyListRecordRepository.store(dlr);
 		}
+		if (!principalsToDeny.isEmpty()) {
+			// The deny list is only reloaded when a change is recorded
+			changeVersionRepository.markChanged("DenyListRecord");
+		}
 	}
 
 	private OrganizationRecord createOrgRecord(String type, String orgName, Collection<String> finalRow) {
@@ -14,6 +14,7 @@ import gov.cdc.izgateway.dynamodb.model.FileType;
 import gov.cdc.izgateway.hub.repository.IAccessControlRepository;
 import gov.cdc.izgateway.hub.repository.IAccessGroupRepository;
 import gov.cdc.izgateway.hub.repository.IAllowedUserRepository;
+import gov.cdc.izgateway.hub.repository.IChangeVersionRepository;
 import gov.cdc.izgateway.hub.repository.IDenyListRecordRepository;
 import gov.cdc.izgateway.hub.repository.IFileTypeRepository;
 import gov.cdc.izgateway.hub.repository.RepositoryFactory;
@@ -27,14 +28,13 @@ import gov.cdc.izgateway.soap.fault.SecurityFault;
 import lombok.extern.slf4j.Slf4j;
 import lombok.Getter;
 
-import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.ServiceConfigurationError;
 import java.util.Set;
 import java.util.TreeSet;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -47,14 +47,12 @@ import java.util.concurrent.TimeUnit;
 @Service
 public class AccessControlService implements InitializingBean, IAccessControlService {
 
-	private static final int MAX_CACHE_SIZE = 1000;
-	private static final int REDUCE_QTY = 200;
-
 	final IAccessControlRepository<AccessControl> accessControlRepository;
     final IAccessGroupRepository<AccessGroup> accessGroupRepository;
     final IAllowedUserRepository<AllowedUser> allowedUserRepository;
     final IDenyListRecordRepository<DenyListRecord> denyListRecordRepository;
     final IFileTypeRepository<FileType> fileTypeRepository;
+    final IChangeVersionRepository changeVersionRepository;
     
 	private final IAccessControlRegistry registry;
     private final AccessControlMigrator migrator;
@@ -70,13 +68,22 @@ public class AccessControlService implements InitializingBean, IAccessControlSer
     @Getter
 	private boolean migrated = false;
 	/**
-	 * A cache of positive access control decisions. It needs to be concurrent
-	 * because it can be modified by multiple threads.
+	 * A bounded cache of positive access control decisions. Decisions are invalidated
+	 * on each refresh of access control data.
 	 */
-	private Map<String, Set<String>> cachedControlDecisions = new ConcurrentHashMap<>();
+	private DecisionCache cachedControlDecisions;
+	/** Refreshes access control data, and evicts cached decisions off the request threads */
+	private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
 
 	private int refreshPeriod = 300;
 
+	@Value("${hub.access-control.decision-cache-size:10000}")
+	private int decisionCacheSize;
+
+	/** The maximum time between full reloads of the deny list when no change has been recorded */
+	@Value("${data.cache.fullReload:1800}")
+	private int fullReloadPeriod;
+
 	@Getter
 	@Value("${server.hostname:dev.izgateway.org}") 
 	String serverName;
@@ -101,6 +108,7 @@ public class AccessControlService implements InitializingBean, IAccessControlSer
         this.allowedUserRepository = factory.allowedUserRepository();
         this.denyListRecordRepository = factory.denyListRecordRepository();
         this.fileTypeRepository = factory.fileTypeRepository();
+        this.changeVersionRepository = factory.changeVersionRepository();
         this.migrator = migrator;
     }
     
@@ -108,9 +116,11 @@ public class AccessControlService implements InitializingBean, IAccessControlSer
      * Configure service to update itself periodically after initialization.
      */
     public void afterPropertiesSet() {
+    	cachedControlDecisions = new DecisionCache(decisionCacheSize, TimeUnit.SECONDS.toMillis(refreshPeriod), scheduler);
     	// Initialize both model helpers here because they need access to the service after
     	// it has been constructed.
 	    newModelHelper = new NewModelHelper(this);
+	    newModelHelper.trackChanges(changeVersionRepository, TimeUnit.SECONDS.toMillis(fullReloadPeriod));
 	    currentModelHelper = oldModelHelper = new OldModelHelper(this);
     	try {
         	migrated = migrator.checkForMigration();
@@ -120,12 +130,26 @@ public class AccessControlService implements InitializingBean, IAccessControlSer
     		migrated = false;  // Use old model access control data if migration failed.
     	}
         log.debug("Refresh Scheduled for AccessControl");
-        Executors.newSingleThreadScheduledExecutor().scheduleAtFixedRate(this::refresh, 0, refreshPeriod, TimeUnit.SECONDS);
+        scheduler.scheduleAtFixedRate(this::refreshIfChanged, refreshPeriod, refreshPeriod, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Periodic refresh, which skips reloading the deny list when it has not changed.
+     */
+    private void refreshIfChanged() {
+    	if (currentModelHelper != newModelHelper) {
+    		refresh();
+    	} else {
+    		newModelHelper.refreshIfChanged();
+    		cachedControlDecisions.advanceEpoch();
+    	}
     }
 
     @Override
 	public void refresh() {  
-        cachedControlDecisions.clear();
+    	log.debug("Access decision cache size: {}, hits: {}, misses: {}, evictions: {}", cachedControlDecisions.size(),
+    		cachedControlDecisions.getHits(), cachedControlDecisions.getMisses(), cachedControlDecisions.getEvictions());
+        cachedControlDecisions.advanceEpoch();
         currentModelHelper.refresh();
     }
     
@@ -190,34 +214,17 @@ public class AccessControlService implements InitializingBean, IAccessControlSer
     /**
      * Add a new certificate allowed to access the specified path.
      * @param user  The user.
+     * @param method The method
      * @param path  The path the user is allowed to access.
      */
     private void saveAdmittedUser(String user, String method, String path) {
-        // Keep the cache from growing uncontrollably.
-        if (cachedControlDecisions.size() > MAX_CACHE_SIZE) {
-            truncateCache();
-        }
-        Set<String> s = cachedControlDecisions.computeIfAbsent(user, k -> new LinkedHashSet<>());
-        s.add(method + " " + path);
+        cachedControlDecisions.admit(user, method, path);
     }
     
     private boolean wasUserPreviouslyAdmitted(String user, String method, String path) {
-    	Set<String> s = cachedControlDecisions.get(user);
-    	return s != null && s.contains(method + " " + path);
+    	return cachedControlDecisions.isAdmitted(user, method, path);
     }
 
-	private void truncateCache() {
-		// Lop off some entries.  We really don't care which ones. LRU would be best
-		// but it's not really going to matter much.
-		int i = 0;
-		for (String key: cachedControlDecisions.keySet()) {
-		    if (++i > REDUCE_QTY) {
-		        break;
-		    }
-		    cachedControlDecisions.remove(key);
-		}
-	}
-
 	@Override
 	public boolean canAccessDestination(String user, String destId) {
 		if (isUserInRole(user, Roles.ADMIN)) {
@@ -0,0 +1,218 @@
+package gov.cdc.izgateway.hub.service.accesscontrol;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded, concurrent cache of positive access control decisions.
+ *
+ * Entries are keyed by user, then method, then path, so that a lookup allocates nothing, and are
+ * valid only for the access control epoch in which they were admitted and until their time to live
+ * expires. Advancing the epoch on refresh invalidates every decision without discarding the
+ * access frequency of each key, so users that are hot before a refresh stay resident
+ * after it.
+ *
+ * When the cache is full, eviction is handed to an executor, so that it does not run on a
+ * request thread. It sweeps out stale entries and then the least frequently used ones, and
+ * halves the remaining frequencies so that formerly hot entries eventually age out. Until
+ * eviction catches up, decisions beyond a fifth more than the maximum size are not cached.
+ * Hit, miss and eviction counts are tracked for reporting.
+ */
+final class DecisionCache {
+	/** A cached decision */
+	private static final class Entry {
+		private final String user;
+		private final String method;
+		private final String path;
+		private final AtomicInteger frequency = new AtomicInteger();
+		private volatile long epoch;
+		private volatile long expiresAt;
+
+		private Entry(String user, String method, String path, long epoch, long expiresAt) {
+			this.user = user;
+			this.method = method;
+			this.path = path;
+			renew(epoch, expiresAt);
+		}
+
+		private Entry renew(long epoch, long expiresAt) {
+			this.epoch = epoch;
+			this.expiresAt = expiresAt;
+			frequency.incrementAndGet();
+			return this;
+		}
+
+		private boolean isValid(long currentEpoch, long now) {
+			return epoch == currentEpoch && now < expiresAt;
+		}
+	}
+
+	/** An entry, and its frequency when eviction started, which request threads cannot change while it is sorted */
+	private record Candidate(Entry entry, int frequency) {}
+
+	/** Cached decisions by user, method and path */
+	private final Map<String, Map<String, Map<String, Entry>>> entries = new ConcurrentHashMap<>();
+	private final AtomicInteger size = new AtomicInteger();
+	private final AtomicBoolean evicting = new AtomicBoolean();
+	private final Executor evictor;
+	private final int maxSize;
+	private final int evictQty;
+	private final long ttlMillis;
+	private volatile long epoch = 0;
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+	/**
+	 * Create a new decision cache
+	 * @param maxSize	The maximum number of decisions to retain
+	 * @param ttlMillis	The maximum time a decision is valid for in milliseconds
+	 * @param evictor	The executor on which entries are evicted when the cache is full
+	 */
+	DecisionCache(int maxSize, long ttlMillis, Executor evictor) {
+		this.maxSize = Math.max(1, maxSize);
+		this.evictQty = Math.max(1, this.maxSize / 5);
+		this.ttlMillis = ttlMillis;
+		this.evictor = evictor;
+	}
+
+	/**
+	 * Determine if the user was previously admitted to the method and path in the current epoch.
+	 * @param user	The user
+	 * @param method	The HTTP method
+	 * @param path	The request path
+	 * @return true if a valid positive decision is cached
+	 */
+	boolean isAdmitted(String user, String method, String path) {
+		Entry e = get(user, method, path);
+		if (e != null && e.isValid(epoch, System.currentTimeMillis())) {
+			e.frequency.incrementAndGet();
+			hits.increment();
+			return true;
+		}
+		misses.increment();
+		return false;
+	}
+
+	private Entry get(String user, String method, String path) {
+		Map<String, Map<String, Entry>> methods = entries.get(user);
+		Map<String, Entry> paths = methods == null ? null : methods.get(method);
+		return paths == null ? null : paths.get(path);
+	}
+
+	/**
+	 * Record that the user was admitted to the method and path.
+	 * @param user	The user
+	 * @param method	The HTTP method
+	 * @param path	The request path
+	 */
+	void admit(String user, String method, String path) {
+		int n = size.get();
+		if (n >= maxSize && evicting.compareAndSet(false, true)) {
+			try {
+				evictor.execute(this::evict);
+			} catch (RejectedExecutionException ex) {
+				// Shutting down, allow a later admission to try again
+				evicting.set(false);
+			}
+		}
+		if (n >= maxSize + evictQty) {
+			// Eviction has fallen behind, the decision will be made again next time
+			return;
+		}
+		long currentEpoch = epoch;
+		long expiresAt = System.currentTimeMillis() + ttlMillis;
+		// Add within the compute for the user, so that it cannot race with removal of an empty map
+		entries.compute(user, (u, methods) -> {
+			Map<String, Map<String, Entry>> m = methods == null ? new ConcurrentHashMap<>() : methods;
+			m.computeIfAbsent(method, k -> new ConcurrentHashMap<>()).compute(path, (p, e) -> {
+				if (e != null) {
+					return e.renew(currentEpoch, expiresAt);
+				}
+				size.incrementAndGet();
+				return new Entry(user, method, path, currentEpoch, expiresAt);
+			});
+			return m;
+		});
+	}
+
+	/**
+	 * Invalidate all cached decisions by advancing the epoch.  Entries are retained
+	 * so that their access frequency is preserved, but will not be reported as admitted
+	 * until they are admitted again.
+	 */
+	void advanceEpoch() {
+		epoch++;
+	}
+
+	private void evict() {
+		try {
+			long currentEpoch = epoch;
+			long now = System.currentTimeMillis();
+			List<Candidate> candidates = new ArrayList<>(size.get());
+			for (Map<String, Map<String, Entry>> methods: entries.values()) {
+				for (Map<String, Entry> paths: methods.values()) {
+					for (Entry e: paths.values()) {
+						if (e.isValid(currentEpoch, now) || !remove(e)) {
+							candidates.add(new Candidate(e, e.frequency.get()));
+						}
+					}
+				}
+			}
+			if (candidates.size() >= maxSize) {
+				candidates.sort(Comparator.comparingInt(Candidate::frequency));
+				candidates.subList(0, Math.min(evictQty, candidates.size())).forEach(c -> remove(c.entry()));
+			}
+			// Age the survivors so that formerly hot entries do not stay forever.
+			candidates.forEach(c -> c.entry().frequency.updateAndGet(f -> f >> 1));
+			for (String user: entries.keySet()) {
+				entries.computeIfPresent(user, (u, methods) -> {
+					methods.values().removeIf(Map::isEmpty);
+					return methods.isEmpty() ? null : methods;
+				});
+			}
+		} finally {
+			evicting.set(false);
+		}
+	}
+
+	private boolean remove(Entry e) {
+		Map<String, Map<String, Entry>> methods = entries.get(e.user);
+		Map<String, Entry> paths = methods == null ? null : methods.get(e.method);
+		if (paths == null || !paths.remove(e.path, e)) {
+			return false;
+		}
+		size.decrementAndGet();
+		evictions.increment();
+		return true;
+	}
+
+	/** @return The number of cache hits */
+	long getHits() {
+		return hits.sum();
+	}
+
+	/** @return The number of cache misses */
+	long getMisses() {
+		return misses.sum();
+	}
+
+	/** @return The number of evicted entries */
+	long getEvictions() {
+		return evictions.sum();
+	}
+
+	/** @return The number of cached entries */
+	int size() {
+		return size.get();
+	}
+}
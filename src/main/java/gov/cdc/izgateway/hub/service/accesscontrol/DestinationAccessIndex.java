@@ -0,0 +1,112 @@
+package gov.cdc.izgateway.hub.service.accesscontrol;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import gov.cdc.izgateway.model.IAllowedUser;
+
+/**
+ * An immutable index of the principals allowed to send to each destination,
+ * computed from the allowed users at refresh time.
+ *
+ * For each destination with an access control list, exact principal names are held
+ * in a hash set, and "*.suffix" patterns are held as a small array of suffixes, so that
+ * checking a sender is a hash lookup plus a scan of the (usually empty) suffix list, with
+ * no per-message allocation.  Only enabled users are indexed, but a destination whose users
+ * are all disabled still has an (empty) entry, so that it remains restricted.
+ *
+ * Matching follows {@link AccessControlModelHelper#commonNameMatches(String, String)}.
+ */
+final class DestinationAccessIndex {
+	/** An index with no entries, used before the first refresh */
+	static final DestinationAccessIndex EMPTY = new DestinationAccessIndex(Collections.emptyList());
+
+	/** The access control list for a single destination */
+	private static final class Acl {
+		private final boolean allowAll;
+		private final Set<String> principals;
+		private final String[] suffixes;
+
+		private Acl(boolean allowAll, Set<String> principals, Set<String> suffixes) {
+			this.allowAll = allowAll;
+			this.principals = Set.copyOf(principals);
+			this.suffixes = suffixes.toArray(new String[0]);
+		}
+
+		private boolean matches(String cn) {
+			if (allowAll) {
+				return true;
+			}
+			if (cn == null) {
+				return false;
+			}
+			if (principals.contains(cn)) {
+				return true;
+			}
+			for (String suffix : suffixes) {
+				if (cn.endsWith(suffix)) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	private final Map<String, Acl> aclByDestination;
+
+	/**
+	 * Build the index from the allowed users.
+	 * @param allowedUsers	The allowed users for all destinations in this environment
+	 */
+	DestinationAccessIndex(Collection<? extends IAllowedUser> allowedUsers) {
+		Map<String, Set<String>> principals = new HashMap<>();
+		Map<String, Set<String>> suffixes = new HashMap<>();
+		Set<String> allowAll = new HashSet<>();
+		for (IAllowedUser user : allowedUsers) {
+			String destId = user.getDestinationId();
+			if (destId == null) {
+				continue;
+			}
+			Set<String> exact = principals.computeIfAbsent(destId, k -> new HashSet<>());
+			Set<String> patterns = suffixes.computeIfAbsent(destId, k -> new LinkedHashSet<>());
+			String pattern = user.getPrincipal();
+			if (!user.isEnabled() || pattern == null) {
+				continue;
+			}
+			if ("*".equals(pattern)) {
+				allowAll.add(destId);
+			} else if (pattern.startsWith("*.")) {
+				patterns.add(pattern.substring(1));
+			} else {
+				exact.add(pattern);
+			}
+		}
+
+		Map<String, Acl> acls = new HashMap<>();
+		for (Map.Entry<String, Set<String>> e : principals.entrySet()) {
+			String destId = e.getKey();
+			acls.put(destId, new Acl(allowAll.contains(destId), e.getValue(), suffixes.get(destId)));
+		}
+		aclByDestination = Map.copyOf(acls);
+	}
+
+	/**
+	 * Determine if a sender may send to a destination.
+	 * @param cn	The common name of the sender
+	 * @param destId	The destination identifier
+	 * @return true if the destination has no access control list, or the sender matches an enabled entry in it
+	 */
+	boolean canAccessDestination(String cn, String destId) {
+		if (destId == null) {
+			return true;
+		}
+		Acl acl = aclByDestination.get(destId);
+		// No access control list means there is no restriction on this destination.
+		return acl == null || acl.matches(cn);
+	}
+}
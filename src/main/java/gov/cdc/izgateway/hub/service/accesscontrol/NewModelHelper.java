@@ -9,9 +9,10 @@ import java.util.function.Function;
 
 import gov.cdc.izgateway.ads.ADSUtils;
 import gov.cdc.izgateway.dynamodb.model.AccessGroup;
-import gov.cdc.izgateway.dynamodb.model.AllowedUser;
 import gov.cdc.izgateway.dynamodb.model.DenyListRecord;
 import gov.cdc.izgateway.dynamodb.model.FileType;
+import gov.cdc.izgateway.hub.repository.IChangeVersionRepository;
+import gov.cdc.izgateway.hub.service.SnapshotCache;
 import gov.cdc.izgateway.logging.RequestContext;
 import gov.cdc.izgateway.model.IAccessGroup;
 import gov.cdc.izgateway.model.IDenyListRecord;
@@ -33,26 +34,52 @@ class NewModelHelper implements AccessControlModelHelper {
 	 */
 	NewModelHelper(AccessControlService accessControlService) {
 		this.accessControlService = accessControlService;
+		this.denyListRecordCache = new SnapshotCache<>("DenyList", 
+			() -> this.accessControlService.denyListRecordRepository.findAllForEnvironment(), DenyListRecord::getPrincipal, 0);
 	}
 
 	private Map<String, AccessGroup> accessGroupCache = Collections.emptyMap();
-	private Map<String, DenyListRecord> denyListRecordCache = Collections.emptyMap();
+	/** Flattened principal to roles and groups index, rebuilt and swapped in on each refresh */
+	private volatile PrincipalIndex principalIndex = PrincipalIndex.EMPTY;
+	/** Deny list records are updated in place by block and unblock, so these are written copy-on-write */
+	private final SnapshotCache<String, DenyListRecord> denyListRecordCache;
 	Map<String, FileType> fileTypeCache = new TreeMap<>();
-	private Map<String, Set<AllowedUser>> allowedUserCache = Collections.emptyMap();
+	/** Index of enabled principals by destination, rebuilt and swapped in on each refresh */
+	private volatile DestinationAccessIndex destinationAccessIndex = DestinationAccessIndex.EMPTY;
+	/**
+	 * Enable change tracking for the deny list, which is written through this server by block
+	 * and unblock, so that {@link #refreshIfChanged()} can skip reloading it when it has not changed.
+	 * @param changeVersionRepository	The change version repository
+	 * @param fullReloadMillis	The maximum time between full reloads of the deny list
+	 */
+	void trackChanges(IChangeVersionRepository changeVersionRepository, long fullReloadMillis) {
+		denyListRecordCache.trackChanges(changeVersionRepository, "DenyListRecord", fullReloadMillis);
+	}
+
+	/**
+	 * Periodic refresh.  Access groups, file types and allowed users are not written through
+	 * this server, so no change is recorded for them, and they are reloaded every time, so that
+	 * disabled users and revoked roles take effect within a refresh period.  The deny list is
+	 * reloaded only if a change has been recorded, or the full reload interval has elapsed.
+	 */
+	void refreshIfChanged() {
+		refreshUntracked();
+		denyListRecordCache.refreshIfChanged();
+	}
 	
 	@Override
 	public void refresh() {
-    	accessGroupCache = refreshCache(accessControlService.accessGroupRepository, ag -> ag.getGroupName());
-    	denyListRecordCache = refreshCache(accessControlService.denyListRecordRepository, dr -> dr.getPrincipal());
+		refreshUntracked();
+    	denyListRecordCache.refresh();
+	}
+
+	private void refreshUntracked() {
+    	Map<String, AccessGroup> newAccessGroupCache = refreshCache(accessControlService.accessGroupRepository, ag -> ag.getGroupName());
+    	principalIndex = new PrincipalIndex(newAccessGroupCache);
+    	accessGroupCache = newAccessGroupCache;
     	fileTypeCache = refreshCache(accessControlService.fileTypeRepository, FileType::getFileTypeName);
-    	Map<String, Set<AllowedUser>> newAllowedUserCache = new TreeMap<>();
-    	for (AllowedUser user : refreshCache(accessControlService.allowedUserRepository, au -> au.getDestinationId()).values()) {
-    		newAllowedUserCache.computeIfAbsent(
-    			user.getDestinationId(), 
-    			k -> new TreeSet<>()
-    		).add(user);
-    	}
-    	allowedUserCache = newAllowedUserCache;
+    	// There are multiple allowed users per destination, so these cannot be keyed by destination id.
+    	destinationAccessIndex = new DestinationAccessIndex(accessControlService.allowedUserRepository.findAllForEnvironment());
 	}
 	
 	<T> Map<String, T> refreshCache(IRepository<T> repo, Function<T, String> nameFunction) {
@@ -89,10 +116,7 @@ class NewModelHelper implements AccessControlModelHelper {
 
 	@Override
 	public boolean isUserDenied(String user) {
-		if (denyListRecordCache.isEmpty()) {
-			refresh();
-		}
-		return this.accessControlService.blacklistEnabled && denyListRecordCache.containsKey(user);
+		return this.accessControlService.blacklistEnabled && denyListRecordCache.get(user) != null;
 	}
 	
 	@Override
@@ -150,28 +174,17 @@ class NewModelHelper implements AccessControlModelHelper {
 
 	@Override
 	public boolean isUserInRole(String user, String role) {
-		return accessGroupCache.values().stream()
-			.filter(g -> g.getRoles().contains(role))
-			.anyMatch(g -> isUserInGroup(user, g));
+		return principalIndex.isUserInRole(user, role);
 	}
 	
 	@Override
 	public boolean isUserInGroup(String user, String group) {
-		IAccessGroup accessGroup = accessGroupCache.get(group);
-		if (accessGroup == null) {
+		PrincipalIndex index = principalIndex;
+		if (!index.hasGroup(group)) {
 			log.warn("Group {} does not exist", group);
 			return false;
 		}
-		return isUserInGroup(user, accessGroup);
-	}
-
-	private boolean isUserInGroup(String user, IAccessGroup accessGroup) {
-		Set<String> users = accessGroup.getUsers();
-		if (users.contains(user) || users.contains("*")) {
-			return true;
-		}
-		
-		return accessGroup.getGroups().stream().anyMatch(g -> isUserInGroup(user, g));
+		return index.isUserInGroup(user, group);
 	}
 	
 	@Override
@@ -181,23 +194,16 @@ class NewModelHelper implements AccessControlModelHelper {
 
 	@Override
 	public boolean canAccessDestination(String user, String destId) {
-		if (allowedUserCache.isEmpty()) {
+		if (destinationAccessIndex == DestinationAccessIndex.EMPTY) {
 			refresh();
 		}
-		Set<AllowedUser> users = allowedUserCache.get(destId); 
-		if (users == null) {
-			return true;  // There is no restriction on this destination.
-		}
-		// There is an access control list for this destination, so check the sender and verify that
-		// they have not been disabled.
-		return users.stream().anyMatch(au -> AccessControlModelHelper.commonNameMatches(user, au.getPrincipal()) && au.isEnabled());
+		// If there is an access control list for this destination, the index checks the sender 
+		// against the enabled entries in it.
+		return destinationAccessIndex.canAccessDestination(user, destId);
 	}
 
 	@Override
 	public IDenyListRecord unblock(String user) {
-		if (denyListRecordCache.isEmpty()) {
-			refresh();
-		}
 		DenyListRecord dlr = denyListRecordCache.get(user);
 		if (dlr != null) {
 			dlr.setUpdated();
@@ -209,9 +215,6 @@ class NewModelHelper implements AccessControlModelHelper {
 
 	@Override
 	public IDenyListRecord block(String user, String reason) {
-		if (denyListRecordCache.isEmpty()) {
-			refresh();
-		}
 		DenyListRecord dlr = denyListRecordCache.get(user);
 		if (dlr != null) {
 			// Already blocked
@@ -223,12 +226,12 @@ class NewModelHelper implements AccessControlModelHelper {
 		dlr.setReason(reason);
 		dlr.setCreatedBy(RequestContext.getPrincipal().getName());
 		dlr = accessControlService.denyListRecordRepository.store(dlr);
-		denyListRecordCache.put(user, dlr);
+		denyListRecordCache.put(dlr);
 		return dlr;
 	}
 
 	@Override
 	public Set<String> getDenyList() {
-		return denyListRecordCache.keySet();
+		return denyListRecordCache.getSnapshot().map().keySet();
 	}
 }
\ No newline at end of file
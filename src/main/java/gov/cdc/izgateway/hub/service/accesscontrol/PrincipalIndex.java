@@ -0,0 +1,125 @@
+package gov.cdc.izgateway.hub.service.accesscontrol;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import gov.cdc.izgateway.model.IAccessGroup;
+
+/**
+ * An immutable, flattened index of principal to roles and principal to groups
+ * computed from the access groups at refresh time.
+ *
+ * Nested groups are expanded transitively (with protection against cycles), and
+ * memberships granted through the wildcard user "*" are merged into every principal,
+ * so that a role or group check is a single hash lookup followed by a set probe.
+ *
+ * Instances are published by {@link NewModelHelper} through a single volatile reference,
+ * so readers never see a partially built index.
+ */
+final class PrincipalIndex {
+	/** The wildcard principal, which matches every user */
+	static final String WILDCARD = "*";
+	/** An index with no entries, used before the first refresh */
+	static final PrincipalIndex EMPTY = new PrincipalIndex(Collections.emptyMap());
+
+	private final Set<String> groupNames;
+	private final Map<String, Set<String>> rolesByPrincipal;
+	private final Map<String, Set<String>> groupsByPrincipal;
+	private final Set<String> wildcardRoles;
+	private final Set<String> wildcardGroups;
+
+	/**
+	 * Build the index from the current access groups.
+	 * @param accessGroups	The access groups keyed by group name
+	 */
+	PrincipalIndex(Map<String, ? extends IAccessGroup> accessGroups) {
+		Map<String, Set<String>> roles = new HashMap<>();
+		Map<String, Set<String>> groups = new HashMap<>();
+		for (IAccessGroup group : accessGroups.values()) {
+			Set<String> members = new HashSet<>();
+			collectMembers(group, accessGroups, members, new HashSet<>());
+			for (String member : members) {
+				roles.computeIfAbsent(member, k -> new HashSet<>()).addAll(group.getRoles());
+				groups.computeIfAbsent(member, k -> new HashSet<>()).add(group.getGroupName());
+			}
+		}
+
+		wildcardRoles = Set.copyOf(roles.getOrDefault(WILDCARD, Collections.emptySet()));
+		wildcardGroups = Set.copyOf(groups.getOrDefault(WILDCARD, Collections.emptySet()));
+		rolesByPrincipal = freeze(roles, wildcardRoles);
+		groupsByPrincipal = freeze(groups, wildcardGroups);
+		groupNames = Set.copyOf(accessGroups.keySet());
+	}
+
+	private static void collectMembers(
+		IAccessGroup group, Map<String, ? extends IAccessGroup> accessGroups, Set<String> members, Set<String> visited
+	) {
+		if (!visited.add(group.getGroupName())) {
+			// Already expanded, nested groups may form a cycle.
+			return;
+		}
+		members.addAll(group.getUsers());
+		for (String nested : group.getGroups()) {
+			IAccessGroup nestedGroup = accessGroups.get(nested);
+			if (nestedGroup != null) {
+				collectMembers(nestedGroup, accessGroups, members, visited);
+			}
+		}
+	}
+
+	private static Map<String, Set<String>> freeze(Map<String, Set<String>> index, Set<String> wildcard) {
+		Map<String, Set<String>> result = new HashMap<>();
+		for (Map.Entry<String, Set<String>> e : index.entrySet()) {
+			e.getValue().addAll(wildcard);
+			result.put(e.getKey(), Set.copyOf(e.getValue()));
+		}
+		return Map.copyOf(result);
+	}
+
+	/**
+	 * Determine if a principal has the given role, either directly, through nested groups,
+	 * or via a wildcard membership.
+	 * @param principal	The principal
+	 * @param role	The role
+	 * @return true if the principal has the role
+	 */
+	boolean isUserInRole(String principal, String role) {
+		if (role == null) {
+			return false;
+		}
+		if (principal == null) {
+			return wildcardRoles.contains(role);
+		}
+		return rolesByPrincipal.getOrDefault(principal, wildcardRoles).contains(role);
+	}
+
+	/**
+	 * Determine if a principal is a member of the given group, either directly, through nested groups,
+	 * or via a wildcard membership.
+	 * @param principal	The principal
+	 * @param group	The group name
+	 * @return true if the principal is a member of the group
+	 */
+	boolean isUserInGroup(String principal, String group) {
+		if (group == null) {
+			return false;
+		}
+		if (principal == null) {
+			return wildcardGroups.contains(group);
+		}
+		return groupsByPrincipal.getOrDefault(principal, wildcardGroups).contains(group);
+	}
+
+	/**
+	 * Determine if a group exists in this index.
+	 * @param group	The group name
+	 * @return true if the group exists
+	 */
+	boolean hasGroup(String group) {
+		return group != null && groupNames.contains(group);
+	}
+
+}
@@ -5,6 +5,7 @@ import gov.cdc.izgateway.hub.service.DestinationService;
 import gov.cdc.izgateway.hub.service.StatusCheckerService;
 import gov.cdc.izgateway.model.IDestination;
 import gov.cdc.izgateway.model.IEndpointStatus;
+import gov.cdc.izgateway.repository.IHostRepository;
 import gov.cdc.izgateway.service.impl.EndpointStatusService;
 import gov.cdc.izgateway.soap.fault.FaultSupport;
 import gov.cdc.izgateway.soap.fault.MessageSupport;
@@ -16,6 +17,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Lazy;
 import org.springframework.stereotype.Component;
 
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
 import java.util.*;
 import java.util.concurrent.ScheduledExecutorService;
@@ -44,13 +46,16 @@ public class StatusCheckScheduler {
     private final StatusCheckerService statusCheckerService;
     private final EndpointStatusService endpointStatusService;
     private final DestinationService dests;
+    private final IHostRepository hostRepository;
 	private final ScheduledExecutorService scheduler;
 
     @Autowired
-    public StatusCheckScheduler(StatusCheckerService statusCheckerService, EndpointStatusService endpointStatusService, DestinationService dests) {
+    public StatusCheckScheduler(StatusCheckerService statusCheckerService, EndpointStatusService endpointStatusService, DestinationService dests,
+    	IHostRepository hostRepository) {
         this.statusCheckerService = statusCheckerService;
         this.endpointStatusService = endpointStatusService;
         this.dests = dests;
+        this.hostRepository = hostRepository;
         this.scheduler = statusCheckerService.getScheduler();
     }
 
@@ -107,31 +112,14 @@ public class StatusCheckScheduler {
             endpointStatusService.refresh();
             dests.refresh();
 
-            List<IDestination> dList = Arrays.asList(
-                    dests.getAllDestinations().stream()
-                            .filter(this::isInteresting).toArray(len -> new IDestination[len])
-            );
-            IEndpointStatus[] sList = endpointStatusService.findAll().toArray(new IEndpointStatus[0]);
-            List<String> hosts = statusCheckerService.getHosts();
+            List<IDestination> dList = dests.getAllDestinations().stream().filter(this::isInteresting).toList();
+            List<String> hosts = getLiveHosts();
 
             // OK, at two minutes into the future, all nodes have generally agreed on:
             // which destinations need to be checked.
             // what the current status of those destinations are.
-
-            int myInstanceOffset = 0;
-            for (IEndpointStatus s: sList) {
-                if (!hosts.contains(s.getStatusBy())) {
-                    if (s.getStatusBy().equalsIgnoreCase(SystemUtils.getHostname())) {
-                        myInstanceOffset = hosts.size();
-                    }
-                    hosts.add(s.getStatusBy());
-                }
-            }
-            // Hosts will take a position in sorted order by name.
-            hosts.sort(String::compareTo);
-            dList.sort((ths,that) -> ths.getDestId().compareTo(that.getDestId()));
-
-            buildMySchedule(dList, hosts, myInstanceOffset);
+            // which hosts are live, and so which host owns each destination.
+            buildMySchedule(dList, hosts);
         } finally {
         	StatusCheckerService.restoreMDC(map);
         }
@@ -152,41 +140,97 @@ public class StatusCheckScheduler {
         return !isUnderMaintenance && isWorthChecking && !isExempt;
     }
 
+    /**
+     * Get the hosts which are live, being this host, and those which have reported to Elastic in
+     * the last few minutes.  A host which has stopped is dropped from the list, and the destinations
+     * it owned are shared among the remaining hosts.
+     * @return	The names of the live hosts, in sorted order
+     */
+    private List<String> getLiveHosts() {
+        Set<String> hosts = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+        hosts.add(SystemUtils.getHostname());
+        hosts.addAll(hostRepository.getHostsAndRegion().keySet());
+        return new ArrayList<>(hosts);
+    }
+
     /**
      * Build the schedule of status checks for this instance.
+     *
+     * Each destination is owned by the live host with the highest hash of the destination and host
+     * names (rendezvous hashing).  When a host joins or leaves, only the destinations it owns
+     * move, rather than the whole list being split again.  Each destination is checked in one of the
+     * RESYNCS_PER_CYCLE syncs in a cycle, at a time within the sync period, both chosen from the hash
+     * of its name, so that checks are spread evenly, and a destination is checked at about the same
+     * time in each cycle.
+     *
      * Assumptions:  All instances are up and running, and have agreed upon the dList and hosts available.
-     * @param dList
-     * @param hosts
-     * @param myInstanceOffset
+     * @param dList	The destinations to check
+     * @param hosts	The live hosts
      */
-    private void buildMySchedule(List<IDestination> dList, List<String> hosts, int myInstanceOffset) {
-        log.debug("Building status check schedule for {}", SystemUtils.getHostname());
+    private void buildMySchedule(List<IDestination> dList, List<String> hosts) {
+        String me = SystemUtils.getHostname();
+        log.debug("Building status check schedule for {} among {}", me, hosts);
         long now = System.currentTimeMillis();
-        int numberOfDestsToCheckPerSync = (dList.size() + RESYNCS_PER_CYCLE - 1) / RESYNCS_PER_CYCLE;
-        long periodBetweenChecks = RESYNC_DURATION.toMillis() / numberOfDestsToCheckPerSync;
         /** whatPartOfListToCheck will be an integer between 0 and RESYNCS_PER_CYCLE - 1 */
         int whatPartOfListToCheck = (int) ((now % CYCLE_DURATION.toMillis()) / RESYNC_DURATION.toMillis());
-        int startingDestOffset = numberOfDestsToCheckPerSync * whatPartOfListToCheck;
 
-        for (int i = 0; i < numberOfDestsToCheckPerSync; i += hosts.size()) {
-            int index = i + myInstanceOffset + startingDestOffset;
-            if (index >= dList.size()) {
-                break;
+        for (IDestination dest: dList) {
+            String destId = dest.getDestId();
+            if (!me.equalsIgnoreCase(getOwner(destId, hosts))) {
+                continue;
             }
-            scheduler.schedule(
-                    () -> checkDestination(dList.get(index).getDestId()),
-                    (index+1) * periodBetweenChecks, TimeUnit.MILLISECONDS
-            );
+            long h = hash(destId);
+            if (Long.remainderUnsigned(h, RESYNCS_PER_CYCLE) != whatPartOfListToCheck) {
+                continue;
+            }
+            long delay = Long.remainderUnsigned(h / RESYNCS_PER_CYCLE, RESYNC_DURATION.toMillis());
+            statusCheckerService.schedule(() -> checkDestination(destId), delay, TimeUnit.MILLISECONDS);
 
             log.debug(
                     "Status Check on {} scheduled for {} by {}",
-                    dList.get(index).getDestId(),
-                    TIMESTAMP_FORMATTER.format(now + (index+1) * periodBetweenChecks),
-                    SystemUtils.getHostname()
+                    destId, TIMESTAMP_FORMATTER.format(now + delay), me
             );
         }
     }
 
+    /**
+     * Get the host which owns a destination
+     * @param destId	The destination id
+     * @param hosts	The live hosts
+     * @return	The host with the highest hash of the destination and host names
+     */
+    static String getOwner(String destId, List<String> hosts) {
+        String owner = null;
+        long best = 0;
+        for (String host: hosts) {
+            long weight = hash(destId + "@" + host.toLowerCase());
+            if (owner == null || Long.compareUnsigned(weight, best) > 0) {
+                owner = host;
+                best = weight;
+            }
+        }
+        return owner;
+    }
+
+    /**
+     * A 64-bit hash which is the same on every host (FNV-1a, followed by the MurmurHash3 finalizer
+     * to spread the bits of similar names).
+     * @param value	The value to hash
+     * @return	The hash
+     */
+    static long hash(String value) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b: value.getBytes(StandardCharsets.UTF_8)) {
+            h = (h ^ (b & 0xff)) * 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
     private boolean isExempt(String destId) {
         return statusCheckerService.getConfig().getExempt().contains(destId) ||
         	   statusCheckerService.getConfig().getTestingEndpoints().contains(destId);
@@ -2,14 +2,17 @@ package gov.cdc.izgateway.status;
 
 import gov.cdc.izgateway.common.ResourceNotFoundException;
 import gov.cdc.izgateway.dynamodb.model.EndpointStatus;
+import gov.cdc.izgateway.hub.service.CircuitBreakerService;
+import gov.cdc.izgateway.hub.service.DestinationLimiter;
 import gov.cdc.izgateway.hub.service.DestinationService;
+import gov.cdc.izgateway.hub.service.EndpointStatusWriter;
+import gov.cdc.izgateway.hub.service.HostResolver;
 import gov.cdc.izgateway.hub.service.StatusCheckerService;
 import gov.cdc.izgateway.model.IDestination;
 import gov.cdc.izgateway.model.IEndpointStatus;
 import gov.cdc.izgateway.security.AccessControlRegistry;
 import gov.cdc.izgateway.security.Roles;
 import gov.cdc.izgateway.service.impl.EndpointStatusService;
-import gov.cdc.izgateway.utils.ExecUtils;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.media.Content;
 import io.swagger.v3.oas.annotations.media.Schema;
@@ -21,10 +24,18 @@ import org.apache.commons.lang3.Strings;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Lazy;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @RestController
 @CrossOrigin
@@ -35,11 +46,21 @@ public class StatusController {
     private final EndpointStatusService  endpointStatusService;
 	private final StatusCheckerService checkerService;
 	private final DestinationService destinationService;
+	private final DestinationLimiter limiter;
+	private final EndpointStatusWriter statusWriter;
+	private final CircuitBreakerService breakers;
+	/** The default age in seconds after which a status is stale, being the time taken to check every destination */
+	private static final String DEFAULT_MAX_AGE = "900";
     @Autowired
-    public StatusController(EndpointStatusService endpointStatusService, StatusCheckerService checkerService, AccessControlRegistry registry, DestinationService destinationService) {
+    public StatusController(EndpointStatusService endpointStatusService, StatusCheckerService checkerService, AccessControlRegistry registry, 
+    	DestinationService destinationService, DestinationLimiter limiter, EndpointStatusWriter statusWriter, 
+    	CircuitBreakerService breakers) {
         this.endpointStatusService = endpointStatusService;
         this.checkerService = checkerService;
         this.destinationService = destinationService;
+        this.limiter = limiter;
+        this.statusWriter = statusWriter;
+        this.breakers = breakers;
         registry.register(this);
     }
 
@@ -144,6 +165,7 @@ public class StatusController {
 		if (destinationService.findByDestId(id) == null) {
 			throw new ResourceNotFoundException(String.format("Destination %s does not exist", id));
 		}
+		statusWriter.clear(id);
 		endpointStatusService.removeById(id);
 	}
     
@@ -157,10 +179,121 @@ public class StatusController {
 	public Map<String, IEndpointStatus> getStatus() {
     	destinationService.refresh();
 		List<IDestination> l = destinationService.getAllDestinations();
-		Map<String, IEndpointStatus> l2 = new TreeMap<>();
-		ExecUtils.execAll(l, dest -> l2.put(dest.getDestId(),
-				checkerService.checkDestination(dest)), 2, TimeUnit.MINUTES);
-		return l2;
+		Map<String, IEndpointStatus> l2 = new ConcurrentSkipListMap<>();
+		CompletableFuture<?>[] checks = l.stream()
+			.map(dest -> checkerService.checkDestinationAsync(dest).thenAccept(s -> {
+				if (s != null) {
+					l2.put(dest.getDestId(), s);
+				}
+			}))
+			.toArray(CompletableFuture<?>[]::new);
+		try {
+			CompletableFuture.allOf(checks).get(2, TimeUnit.MINUTES);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException | TimeoutException e) {
+			// Report the checks that completed
+		}
+		return new TreeMap<>(l2);
+	}
+
+	/**
+	 * The last known status of a destination, and how old it is
+	 * @param status	The status
+	 * @param age	The time since the status was reported in seconds, or -1 if it is unknown
+	 * @param stale	True if the status is older than the maximum age requested
+	 * @param checking	True if a check of the destination is in progress
+	 */
+	public record StatusReport(IEndpointStatus status, long age, boolean stale, boolean checking) {}
+
+	@GetMapping("/cachedstatus")
+	@Operation(summary = "Get the last known status for all destinations",
+			description = "Report the last known status of all destinations without waiting for them to be checked, "
+				+ "optionally starting checks of those whose status is older than maxAge seconds")
+	@ApiResponse(responseCode = "200", description = "Success", 
+	content = @Content(mediaType = "application/json")
+	)
+	public Map<String, StatusReport> getCachedStatus(
+			@RequestParam(name = "maxAge", defaultValue = DEFAULT_MAX_AGE) long maxAge,
+			@RequestParam(name = "refresh", defaultValue = "false") boolean refresh) {
+		Map<String, StatusReport> result = new TreeMap<>();
+		for (IDestination dest: destinationService.getAllDestinations()) {
+			StatusReport r = getStatusReport(dest, maxAge);
+			if (refresh && r.stale() && !r.checking()) {
+				checkerService.checkDestinationAsync(dest);
+				r = new StatusReport(r.status(), r.age(), true, true);
+			}
+			result.put(dest.getDestId(), r);
+		}
+		return result;
+	}
+
+	/**
+	 * Stream the status of all destinations as Server-Sent Events.  A cached event reporting the
+	 * last known status of every destination is sent at once, then a status event for each
+	 * destination that is checked, as its check completes, and finally a complete event.
+	 * 
+	 * @param maxAge	Destinations whose status is older than this in seconds are checked
+	 * @param all	Check all destinations, not just those whose status is stale
+	 * @return	The event stream
+	 */
+	@GetMapping(path = "/streamedstatus", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+	@Operation(summary = "Stream the status for all destinations",
+			description = "Send the last known status of all destinations, then the status of each destination "
+				+ "as its check completes, as Server-Sent Events")
+	@ApiResponse(responseCode = "200", description = "Success", 
+	content = @Content(mediaType = MediaType.TEXT_EVENT_STREAM_VALUE)
+	)
+	public SseEmitter streamStatus(
+			@RequestParam(name = "maxAge", defaultValue = DEFAULT_MAX_AGE) long maxAge,
+			@RequestParam(name = "all", defaultValue = "false") boolean all) {
+		SseEmitter emitter = new SseEmitter(TimeUnit.MINUTES.toMillis(2));
+		Map<String, StatusReport> cached = getCachedStatus(maxAge, false);
+		List<IDestination> toCheck = destinationService.getAllDestinations().stream()
+			.filter(dest -> all || !cached.containsKey(dest.getDestId()) || cached.get(dest.getDestId()).stale())
+			.toList();
+		if (!send(emitter, "cached", cached)) {
+			return emitter;
+		}
+		AtomicInteger remaining = new AtomicInteger(toCheck.size());
+		if (toCheck.isEmpty()) {
+			complete(emitter);
+		}
+		for (IDestination dest: toCheck) {
+			checkerService.checkDestinationAsync(dest).whenComplete((s, ex) -> {
+				if (s != null) {
+					send(emitter, "status", getStatusReport(dest, maxAge));
+				}
+				if (remaining.decrementAndGet() == 0) {
+					complete(emitter);
+				}
+			});
+		}
+		return emitter;
+	}
+
+	private StatusReport getStatusReport(IDestination dest, long maxAge) {
+		IEndpointStatus status = endpointStatusService.getEndpointStatus(dest);
+		Date at = status == null ? null : status.getStatusAt();
+		long age = at == null ? -1 : TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis() - at.getTime());
+		return new StatusReport(status, age, age < 0 || age > maxAge, checkerService.isChecking(dest.getDestId()));
+	}
+
+	private static boolean send(SseEmitter emitter, String name, Object data) {
+		try {
+			emitter.send(SseEmitter.event().name(name).data(data));
+			return true;
+		} catch (IOException | IllegalStateException e) {
+			// The client has gone away, or the stream has timed out
+			emitter.completeWithError(e);
+			return false;
+		}
+	}
+
+	private static void complete(SseEmitter emitter) {
+		if (send(emitter, "complete", "")) {
+			emitter.complete();
+		}
 	}
 
 	
@@ -180,6 +313,26 @@ public class StatusController {
 		return checkerService.updateDestinationStatus(d);
 	}
 	
+	@GetMapping("/dnsstatus")
+	@Operation(summary = "Get the DNS resolution status of destination hosts",
+			description = "Report the address, resolution time and failures for the host of each destination")
+	@ApiResponse(responseCode = "200", description = "Success", 
+	content = @Content(mediaType = "application/json")
+	)
+	public Map<String, HostResolver.Resolution> getDnsStatus() {
+		return destinationService.getHostResolutions();
+	}
+	
+	@GetMapping("/limitstatus")
+	@Operation(summary = "Get the concurrency limits of destinations",
+			description = "Report the limit, messages in progress, rejections and response times for each destination")
+	@ApiResponse(responseCode = "200", description = "Success", 
+	content = @Content(mediaType = "application/json")
+	)
+	public Map<String, DestinationLimiter.Limit> getLimitStatus() {
+		return limiter.getLimits();
+	}
+	
 	@GetMapping("/reset")
 	@Operation(summary = "Reset the circuit breakers on this host",
 			description = "Reset the circuit breaker for all destinations on this host")
@@ -188,6 +341,8 @@ public class StatusController {
 		schema = @Schema(implementation=EndpointStatus.class))
 	)
 	public Map<String, IEndpointStatus> resetCircuitBreakers() {
+		statusWriter.clear();
+		breakers.resetAll();
 		endpointStatusService.resetCircuitBreakers();
 		Map<String, IEndpointStatus> l2 = new TreeMap<>();
 		endpointStatusService.findAll().forEach(s -> l2.put(s.getDestId(), s));
@@ -0,0 +1,88 @@
+package gov.cdc.izgateway.elastic;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import gov.cdc.izgateway.dynamodb.model.EndpointStatus;
+import gov.cdc.izgateway.hub.service.CircuitBreakerService;
+import gov.cdc.izgateway.service.IDestinationService;
+
+/**
+ * Tests for the caching of status history by quarter hour in {@link ElasticStatusRepository}.
+ */
+class ElasticStatusHistoryTests {
+	private static final long QUARTER_HOUR = 15 * 60_000L;
+
+	private ElasticStatusRepository repo;
+	private final EndpointStatus status = mock(EndpointStatus.class);
+
+	@BeforeEach
+	void setUp() throws Exception {
+		repo = spy(new ElasticStatusRepository(mock(ElasticConfiguration.class), mock(IDestinationService.class),
+			mock(CircuitBreakerService.class)));
+		repo.afterPropertiesSet();
+	}
+
+	@AfterEach
+	void tearDown() {
+		repo.destroy();
+	}
+
+	@Test
+	void testClosedQuarterIsReused() throws Exception {
+		doReturn(Map.of("dev", status)).when(repo).getData(any(Date.class), any(String[].class), eq(false));
+		long end = closedQuarter();
+		CompletableFuture<List<EndpointStatus>> first = repo.getHistory(end);
+		assertEquals(List.of(status), first.join());
+		assertSame(first, repo.getHistory(end));
+		verify(repo, times(1)).getData(any(Date.class), any(String[].class), eq(false));
+	}
+
+	@Test
+	void testFailedLoadIsNotCached() throws Exception {
+		doThrow(new IOException("Elastic is down"))
+			.doReturn(Map.of("dev", status))
+			.when(repo).getData(any(Date.class), any(String[].class), eq(false));
+		long end = closedQuarter();
+		CompletableFuture<List<EndpointStatus>> failed = repo.getHistory(end);
+		assertThrows(CompletionException.class, failed::join);
+		CompletableFuture<List<EndpointStatus>> retried = repo.getHistory(end);
+		assertNotSame(failed, retried);
+		assertEquals(List.of(status), retried.join());
+		verify(repo, times(2)).getData(any(Date.class), any(String[].class), eq(false));
+	}
+
+	@Test
+	void testOpenQuarterIsNotCached() throws Exception {
+		doReturn(Map.of("dev", status)).when(repo).getData(any(Date.class), any(String[].class), eq(false));
+		long end = System.currentTimeMillis();
+		repo.getHistory(end).join();
+		repo.getHistory(end).join();
+		verify(repo, times(2)).getData(any(Date.class), any(String[].class), eq(false));
+	}
+
+	private static long closedQuarter() {
+		return (System.currentTimeMillis() / QUARTER_HOUR - 2) * QUARTER_HOUR;
+	}
+}
@@ -0,0 +1,131 @@
+package gov.cdc.izgateway.elastic;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.jupiter.api.Disabled;
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import gov.cdc.izgateway.elastic.ElasticStatusRepository.ParsedResponse;
+import lombok.extern.slf4j.Slf4j;
+
+@Slf4j
+class ElasticStatusParserTests {
+	private static final long START = 1_700_000_000_000L;
+	private static final long MINUTE = 60_000L;
+	private static final String[] EXTRAS = { "url", "faultCode", "faultName", "errorSummary", "errorDetail", "destVersion", "tags" };
+
+	@Test
+	void testParse() throws IOException {
+		// ok succeeds in both minutes, bad succeeds in the first, and fails three times in the second
+		String json = "{\"took\":5,\"rawResponse\":{\"aggregations\":{\"histogram\":{\"buckets\":["
+			+ histogramBucket(START, destBucket("ok", statusBucket(false, 2, START)), destBucket("bad", statusBucket(false, 1, START)))
+			+ "," + histogramBucket(START + MINUTE, destBucket("ok", statusBucket(false, 1, START + MINUTE)),
+				destBucket("bad", statusBucket(true, 3, START + MINUTE)))
+			+ "]}}}}";
+		Map<String, ParsedResponse> map = new ElasticStatusParser(3).parse(stream(json));
+
+		assertEquals(2, map.size());
+		ParsedResponse ok = map.get("ok");
+		assertTrue(ok.isAvailable());
+		assertEquals(START + MINUTE + 1000, ok.getMaxTime());
+		assertEquals("https://ok/IISService", ok.getUrl());
+
+		ParsedResponse bad = map.get("bad");
+		assertFalse(bad.isAvailable());
+		assertTrue(bad.isCircuitBroken(3));
+		assertEquals("errorSummary of bad", bad.getErrorSummary());
+		assertEquals("42", bad.getFaultCode());
+	}
+
+	@Test
+	void testParseWithoutRawResponse() throws IOException {
+		String json = "{\"aggregations\":{\"histogram\":{\"buckets\":["
+			+ histogramBucket(START, destBucket("ok", statusBucket(false, 1, START))) + "]}}}";
+		Map<String, ParsedResponse> map = new ElasticStatusParser(3).parse(stream(json));
+		assertTrue(map.get("ok").isAvailable());
+	}
+
+	@Test
+	@Disabled("Benchmark, run manually when changing the status response parser")
+	void testStreamingVersusTree() throws IOException {
+		// Thirty minutes of buckets for the 65 destinations requested by statusquery.json
+		StringBuilder b = new StringBuilder("{\"rawResponse\":{\"aggregations\":{\"histogram\":{\"buckets\":[");
+		for (int m = 0; m < 30; m++) {
+			String[] dests = new String[65];
+			for (int d = 0; d < dests.length; d++) {
+				long t = START + m * MINUTE;
+				dests[d] = destBucket("dest" + d, statusBucket(false, 10, t), statusBucket(true, 1, t));
+			}
+			b.append(m == 0 ? "" : ",").append(histogramBucket(START + m * MINUTE, dests));
+		}
+		byte[] json = b.append("]}}}}").toString().getBytes(StandardCharsets.UTF_8);
+		ObjectMapper mapper = new ObjectMapper();
+		int iterations = 200;
+		for (int pass = 0; pass < 2; pass++) {	// The first pass warms up
+			long start = System.nanoTime();
+			for (int i = 0; i < iterations; i++) {
+				// The former path read the response into a String, and then into a tree, before walking it
+				JsonNode node = mapper.readTree(IOUtils.toString(stream(json), StandardCharsets.UTF_8));
+				assertEquals(30, node.get("rawResponse").get("aggregations").get("histogram").get("buckets").size());
+			}
+			long tree = System.nanoTime() - start;
+			start = System.nanoTime();
+			for (int i = 0; i < iterations; i++) {
+				assertEquals(65, new ElasticStatusParser(3).parse(stream(json)).size());
+			}
+			long streaming = System.nanoTime() - start;
+			log.info("{} Kb response: read and tree {} ms, stream and fold {} ms, per response",
+				json.length / 1024, tree / 1_000_000.0 / iterations, streaming / 1_000_000.0 / iterations);
+		}
+	}
+
+	private static InputStream stream(String json) {
+		return stream(json.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static InputStream stream(byte[] json) {
+		return new ByteArrayInputStream(json);
+	}
+
+	private static String histogramBucket(long key, String ... dests) {
+		return "{\"key_as_string\":\"" + key + "\",\"key\":" + key + ",\"doc_count\":10,\"destination\":{"
+			+ "\"doc_count_error_upper_bound\":0,\"sum_other_doc_count\":0,\"buckets\":[" + String.join(",", dests) + "]}}";
+	}
+
+	private static String destBucket(String destId, String ... statii) {
+		return "{\"key\":\"" + destId + "\",\"doc_count\":3,\"hasProcessError\":{\"buckets\":["
+			+ String.join(",", statii).replace("${dest}", destId) + "]}}";
+	}
+
+	private static String statusBucket(boolean hasError, int count, long time) {
+		StringBuilder b = new StringBuilder();
+		b.append("{\"key\":").append(hasError ? 1 : 0)
+			.append(",\"key_as_string\":\"").append(hasError).append("\"")
+			.append(",\"doc_count\":").append(count)
+			.append(",\"latestTxTime\":{\"value\":").append((double) (time + 1000))
+			.append(",\"value_as_string\":\"x\"},\"firstTxTime\":{\"value\":").append(time).append("}");
+		for (String extra: EXTRAS) {
+			String value = switch (extra) {
+				case "url" -> "https://${dest}/IISService";
+				case "faultCode" -> hasError ? "42" : "";
+				default -> hasError ? extra + " of ${dest}" : "";
+			};
+			b.append(",\"").append(extra).append("-bucket\":{\"doc_count\":").append(count).append(",\"")
+				.append(extra).append("-metric\":{\"top\":[{\"sort\":[\"2024-01-01\"],\"metrics\":{\"transactionData.")
+				.append(extra).append(".keyword\":\"").append(value).append("\"}}]}}");
+		}
+		return b.append("}").toString();
+	}
+}
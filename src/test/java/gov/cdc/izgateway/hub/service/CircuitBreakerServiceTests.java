@@ -0,0 +1,260 @@
+package gov.cdc.izgateway.hub.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import gov.cdc.izgateway.hub.service.CircuitBreakerService.Snapshot;
+import gov.cdc.izgateway.hub.service.CircuitBreakerService.State;
+import gov.cdc.izgateway.model.IDestination;
+import gov.cdc.izgateway.soap.fault.DestinationConnectionFault;
+import gov.cdc.izgateway.soap.fault.Fault;
+
+/**
+ * Unit tests for the sliding window and state changes of {@link CircuitBreakerService}.
+ */
+class CircuitBreakerServiceTests {
+	private static final int WINDOW = 10;
+	private static final int MIN_CALLS = 5;
+	private static final long SLOW_CALL_MILLIS = 20;
+	private static final int HALF_OPEN_PERMITS = 2;
+
+	private CircuitBreakerService breakers;
+	private IDestination dest;
+	private Fault error;
+	private final List<State> transitions = new ArrayList<>();
+
+	@BeforeEach
+	void setUp() {
+		breakers = new CircuitBreakerService();
+		ReflectionTestUtils.setField(breakers, "enabled", true);
+		ReflectionTestUtils.setField(breakers, "windowSize", WINDOW);
+		ReflectionTestUtils.setField(breakers, "minCalls", MIN_CALLS);
+		ReflectionTestUtils.setField(breakers, "errorRateThreshold", 50);
+		ReflectionTestUtils.setField(breakers, "slowCallRateThreshold", 80);
+		ReflectionTestUtils.setField(breakers, "slowCallMillis", SLOW_CALL_MILLIS);
+		ReflectionTestUtils.setField(breakers, "openDurationInSeconds", 1);
+		ReflectionTestUtils.setField(breakers, "maxOpenDurationInSeconds", 60);
+		ReflectionTestUtils.setField(breakers, "halfOpenPermits", HALF_OPEN_PERMITS);
+		breakers.addListener((d, from, snapshot) -> transitions.add(snapshot.state()));
+
+		dest = mock(IDestination.class);
+		when(dest.getDestId()).thenReturn("dev");
+		error = mock(Fault.class);
+		when(error.shouldBreakCircuit()).thenReturn(true);
+	}
+
+	@Test
+	void testStaysClosedBelowMinimumCalls() throws Fault {
+		for (int i = 0; i < MIN_CALLS - 1; i++) {
+			fail();
+		}
+		assertEquals(State.CLOSED, state());
+		assertEquals(MIN_CALLS - 1, breakers.getSnapshot("dev").calls());
+	}
+
+	@Test
+	void testTripsOnErrorRate() throws Fault {
+		for (int i = 0; i < MIN_CALLS; i++) {
+			succeed();
+		}
+		// Half of the calls failing reaches the 50% threshold
+		for (int i = 0; i < MIN_CALLS - 1; i++) {
+			fail();
+			assertEquals(State.CLOSED, state());
+		}
+		fail();
+		assertEquals(State.OPEN, state());
+		assertEquals(List.of(State.OPEN), transitions);
+		// While open, calls are rejected without being made
+		assertThrows(DestinationConnectionFault.class, () -> breakers.call(dest, () -> {
+			throw new AssertionError("Call made while open");
+		}));
+	}
+
+	@Test
+	void testTripsOnSlowCallRate() throws Fault {
+		for (int i = 0; i < MIN_CALLS; i++) {
+			slow();
+		}
+		assertEquals(State.OPEN, state());
+		assertEquals(100, breakers.getSnapshot("dev").slowCallRate());
+	}
+
+	@Test
+	void testFaultsThatDoNotBreakCircuitAreNotErrors() throws Fault {
+		Fault clientError = mock(Fault.class);
+		when(clientError.shouldBreakCircuit()).thenReturn(false);
+		for (int i = 0; i < WINDOW; i++) {
+			assertThrows(Fault.class, () -> breakers.call(dest, () -> { throw clientError; }));
+		}
+		assertEquals(State.CLOSED, state());
+		assertEquals(0, breakers.getSnapshot("dev").errorRate());
+	}
+
+	@Test
+	void testWindowSlides() throws Fault {
+		// Too few to trip the breaker as the window fills
+		fail();
+		fail();
+		// Push the failures out of the window with successes
+		for (int i = 0; i < WINDOW; i++) {
+			succeed();
+		}
+		Snapshot s = breakers.getSnapshot("dev");
+		assertEquals(WINDOW, s.calls());
+		assertEquals(0, s.errorRate());
+		assertEquals(State.CLOSED, s.state());
+	}
+
+	@Test
+	void testHalfOpenAllowsPermittedCallsAndCloses() throws Exception {
+		trip();
+		waitForHalfOpen();
+		// Nest the calls so that all the permits are in use at once
+		String result = breakers.call(dest, () -> {
+			assertEquals(State.HALF_OPEN, state());
+			return breakers.call(dest, () -> {
+				assertThrows(DestinationConnectionFault.class, () -> breakers.call(dest, () -> "Too many"));
+				return "OK";
+			});
+		});
+		assertEquals("OK", result);
+		assertEquals(State.CLOSED, state());
+		assertEquals(List.of(State.OPEN, State.HALF_OPEN, State.CLOSED), transitions);
+		Snapshot s = breakers.getSnapshot("dev");
+		assertEquals(0, s.calls());
+		assertEquals(0, s.trips());
+	}
+
+	@Test
+	void testHalfOpenFailureTripsAgainWithDoubledDuration() throws Exception {
+		trip();
+		long firstDuration = breakers.getSnapshot("dev").openUntil() - System.currentTimeMillis();
+		assertTrue(firstDuration > 500 && firstDuration <= 1000, "First open duration " + firstDuration);
+		waitForHalfOpen();
+		fail();
+		Snapshot s = breakers.getSnapshot("dev");
+		assertEquals(State.OPEN, s.state());
+		assertEquals(2, s.trips());
+		long secondDuration = s.openUntil() - System.currentTimeMillis();
+		assertTrue(secondDuration > 1500 && secondDuration <= 2000, "Second open duration " + secondDuration);
+		assertEquals(List.of(State.OPEN, State.HALF_OPEN, State.OPEN), transitions);
+	}
+
+	@Test
+	void testOpenDurationIsCapped() throws Exception {
+		ReflectionTestUtils.setField(breakers, "maxOpenDurationInSeconds", 1);
+		trip();
+		waitForHalfOpen();
+		fail();
+		long duration = breakers.getSnapshot("dev").openUntil() - System.currentTimeMillis();
+		assertTrue(duration <= 1000, "Open duration " + duration);
+	}
+
+	@Test
+	void testCallsRejectedByLimiterAreCancelled() throws Exception {
+		DestinationBusyFault busy = new DestinationBusyFault("dev", 1);
+		// Not counted while closed
+		for (int i = 0; i < WINDOW; i++) {
+			assertThrows(DestinationBusyFault.class, () -> breakers.call(dest, () -> { throw busy; }));
+		}
+		assertEquals(0, breakers.getSnapshot("dev").calls());
+		assertEquals(State.CLOSED, state());
+
+		// And while half open, the permit is returned
+		trip();
+		waitForHalfOpen();
+		for (int i = 0; i < HALF_OPEN_PERMITS + 1; i++) {
+			assertThrows(DestinationBusyFault.class, () -> breakers.call(dest, () -> { throw busy; }));
+		}
+		assertEquals(State.HALF_OPEN, state());
+		for (int i = 0; i < HALF_OPEN_PERMITS; i++) {
+			succeed();
+		}
+		assertEquals(State.CLOSED, state());
+	}
+
+	@Test
+	void testPermitReturnedAfterRejectionIsUsable() throws Exception {
+		DestinationBusyFault busy = new DestinationBusyFault("dev", 1);
+		trip();
+		waitForHalfOpen();
+		breakers.call(dest, () -> {
+			// With all the permits in use, a call is rejected, and then one in use is cancelled
+			assertThrows(DestinationBusyFault.class, () -> breakers.call(dest, () -> {
+				assertThrows(DestinationConnectionFault.class, () -> breakers.call(dest, () -> "Too many"));
+				throw busy;
+			}));
+			return "OK";
+		});
+		assertEquals(State.HALF_OPEN, state());
+		// The cancelled permit is used by the last probe
+		succeed();
+		assertEquals(State.CLOSED, state());
+	}
+
+	@Test
+	void testResetCloses() throws Fault {
+		trip();
+		breakers.reset("dev");
+		assertEquals(State.CLOSED, state());
+		succeed();
+	}
+
+	@Test
+	void testDisabledBreakerDoesNotRecord() throws Fault {
+		ReflectionTestUtils.setField(breakers, "enabled", false);
+		for (int i = 0; i < WINDOW; i++) {
+			fail();
+		}
+		assertNull(breakers.getSnapshot("dev"));
+	}
+
+	private State state() {
+		return breakers.getSnapshot("dev").state();
+	}
+
+	private void succeed() throws Fault {
+		assertEquals("OK", breakers.call(dest, () -> "OK"));
+	}
+
+	private void fail() {
+		assertThrows(Fault.class, () -> breakers.call(dest, () -> { throw error; }));
+	}
+
+	private void slow() throws Fault {
+		breakers.call(dest, () -> {
+			try {
+				Thread.sleep(SLOW_CALL_MILLIS + 5);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return "OK";
+		});
+	}
+
+	private void trip() {
+		for (int i = 0; i < MIN_CALLS; i++) {
+			fail();
+		}
+		assertEquals(State.OPEN, state());
+	}
+
+	private void waitForHalfOpen() throws InterruptedException {
+		long wait = breakers.getSnapshot("dev").openUntil() - System.currentTimeMillis();
+		if (wait > 0) {
+			Thread.sleep(wait + 10);
+		}
+	}
+}
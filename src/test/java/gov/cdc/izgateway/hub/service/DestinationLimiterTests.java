@@ -0,0 +1,115 @@
+package gov.cdc.izgateway.hub.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import gov.cdc.izgateway.dynamodb.model.Destination;
+import gov.cdc.izgateway.hub.service.DestinationLimiter.Limit;
+import gov.cdc.izgateway.model.IDestination;
+import gov.cdc.izgateway.soap.fault.DestinationConnectionFault;
+import gov.cdc.izgateway.soap.fault.Fault;
+
+/**
+ * Unit tests for the fixed and adaptive limits of {@link DestinationLimiter}.
+ */
+class DestinationLimiterTests {
+	private static final int INITIAL = 4;
+	private static final int MIN = 2;
+	private static final int MAX = 10;
+
+	private DestinationLimiter limiter;
+	private IDestination adaptive;
+
+	@BeforeEach
+	void setUp() {
+		limiter = new DestinationLimiter();
+		ReflectionTestUtils.setField(limiter, "enabled", true);
+		ReflectionTestUtils.setField(limiter, "initialLimit", INITIAL);
+		ReflectionTestUtils.setField(limiter, "minLimit", MIN);
+		ReflectionTestUtils.setField(limiter, "maxLimit", MAX);
+		ReflectionTestUtils.setField(limiter, "minRttWindowInSeconds", 300);
+		adaptive = mock(IDestination.class);
+		when(adaptive.getDestId()).thenReturn("adaptive");
+	}
+
+	@Test
+	void testFixedLimitRejects() throws Fault {
+		Destination fixed = mock(Destination.class);
+		when(fixed.getDestId()).thenReturn("fixed");
+		when(fixed.getMaxConcurrency()).thenReturn(2);
+
+		assertEquals("OK", nest(fixed, 2));
+		DestinationBusyFault busy = assertThrows(DestinationBusyFault.class, () -> nest(fixed, 3));
+		assertEquals("fixed", busy.getDestinationId());
+
+		Limit limit = limiter.getLimits().get("fixed");
+		assertTrue(limit.fixed());
+		assertEquals(2, limit.limit());
+		assertEquals(1, limit.rejected());
+		assertEquals(0, limit.inFlight());
+	}
+
+	@Test
+	void testFixedLimitDoesNotAdapt() throws Fault {
+		Destination fixed = mock(Destination.class);
+		when(fixed.getDestId()).thenReturn("fixed");
+		when(fixed.getMaxConcurrency()).thenReturn(3);
+		for (int i = 0; i < 50; i++) {
+			nest(fixed, 3);
+		}
+		assertEquals(3, limiter.getLimits().get("fixed").limit());
+	}
+
+	@Test
+	void testAdaptiveLimitStartsAtInitial() throws Fault {
+		assertEquals("OK", nest(adaptive, INITIAL));
+		assertThrows(DestinationBusyFault.class, () -> nest(adaptive, INITIAL + 1));
+		Limit limit = limiter.getLimits().get("adaptive");
+		assertFalse(limit.fixed());
+		assertEquals(1, limit.rejected());
+	}
+
+	@Test
+	void testAdaptiveLimitGrowsWhileInUse() throws Fault {
+		for (int i = 0; i < 50; i++) {
+			nest(adaptive, limiter.getLimits().getOrDefault("adaptive", new Limit(INITIAL, 0, false, 0, 0, 0)).limit());
+		}
+		int limit = limiter.getLimits().get("adaptive").limit();
+		assertTrue(limit > INITIAL && limit <= MAX, "Limit " + limit);
+	}
+
+	@Test
+	void testAdaptiveLimitShrinksOnConnectionFailure() {
+		DestinationConnectionFault dropped = mock(DestinationConnectionFault.class);
+		for (int i = 0; i < 50; i++) {
+			assertThrows(DestinationConnectionFault.class, () -> limiter.call(adaptive, () -> { throw dropped; }));
+		}
+		assertEquals(MIN, limiter.getLimits().get("adaptive").limit());
+	}
+
+	@Test
+	void testDisabledLimiterDoesNotLimit() throws Fault {
+		ReflectionTestUtils.setField(limiter, "enabled", false);
+		assertEquals("OK", nest(adaptive, MAX + 1));
+		assertTrue(limiter.getLimits().isEmpty());
+	}
+
+	/**
+	 * Make calls to a destination nested within each other, so that they are all in progress at once
+	 * @param dest	The destination
+	 * @param depth	The number of calls
+	 * @return	OK
+	 * @throws Fault	If a call is rejected
+	 */
+	private String nest(IDestination dest, int depth) throws Fault {
+		return limiter.call(dest, () -> depth <= 1 ? "OK" : nest(dest, depth - 1));
+	}
+}
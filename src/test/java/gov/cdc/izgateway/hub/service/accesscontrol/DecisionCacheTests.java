@@ -0,0 +1,134 @@
+package gov.cdc.izgateway.hub.service.accesscontrol;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Unit tests for expiration, invalidation and eviction of cached access control decisions.
+ */
+class DecisionCacheTests {
+	private static final long TTL = 60_000;
+
+	@Test
+	void testAdmitted() {
+		DecisionCache cache = new DecisionCache(10, TTL, Runnable::run);
+		assertFalse(cache.isAdmitted("user", "GET", "/rest/status"));
+		cache.admit("user", "GET", "/rest/status");
+		assertTrue(cache.isAdmitted("user", "GET", "/rest/status"));
+		// Each part of the key matters
+		assertFalse(cache.isAdmitted("other", "GET", "/rest/status"));
+		assertFalse(cache.isAdmitted("user", "POST", "/rest/status"));
+		assertFalse(cache.isAdmitted("user", "GET", "/rest/access"));
+		assertEquals(1, cache.getHits());
+		assertEquals(4, cache.getMisses());
+		assertEquals(1, cache.size());
+	}
+
+	@Test
+	void testExpires() throws InterruptedException {
+		DecisionCache cache = new DecisionCache(10, 20, Runnable::run);
+		cache.admit("user", "GET", "/rest/status");
+		assertTrue(cache.isAdmitted("user", "GET", "/rest/status"));
+		Thread.sleep(30);
+		assertFalse(cache.isAdmitted("user", "GET", "/rest/status"));
+		// Admitting again renews the decision
+		cache.admit("user", "GET", "/rest/status");
+		assertTrue(cache.isAdmitted("user", "GET", "/rest/status"));
+	}
+
+	@Test
+	void testAdvanceEpochInvalidates() {
+		DecisionCache cache = new DecisionCache(10, TTL, Runnable::run);
+		cache.admit("user", "GET", "/rest/status");
+		cache.advanceEpoch();
+		assertFalse(cache.isAdmitted("user", "GET", "/rest/status"));
+		// The entry is kept to preserve its frequency, but must be admitted again
+		assertEquals(1, cache.size());
+		cache.admit("user", "GET", "/rest/status");
+		assertTrue(cache.isAdmitted("user", "GET", "/rest/status"));
+		assertEquals(1, cache.size());
+	}
+
+	@Test
+	void testEvictsStaleEntriesFirst() {
+		DecisionCache cache = new DecisionCache(10, TTL, Runnable::run);
+		for (int i = 0; i < 10; i++) {
+			cache.admit("old" + i, "GET", "/rest/status");
+		}
+		cache.advanceEpoch();
+		cache.admit("new", "GET", "/rest/status");
+		assertEquals(1, cache.size());
+		assertEquals(10, cache.getEvictions());
+		assertTrue(cache.isAdmitted("new", "GET", "/rest/status"));
+	}
+
+	@Test
+	void testEvictsLeastFrequentlyUsed() {
+		DecisionCache cache = new DecisionCache(10, TTL, Runnable::run);
+		for (int i = 0; i < 10; i++) {
+			cache.admit("user" + i, "GET", "/rest/status");
+		}
+		// Make the first half hot
+		for (int i = 0; i < 5; i++) {
+			for (int j = 0; j < 3; j++) {
+				cache.isAdmitted("user" + i, "GET", "/rest/status");
+			}
+		}
+		cache.admit("new", "GET", "/rest/status");
+		// A fifth of the entries, the coldest, are evicted
+		assertEquals(2, cache.getEvictions());
+		assertEquals(9, cache.size());
+		for (int i = 0; i < 5; i++) {
+			assertTrue(cache.isAdmitted("user" + i, "GET", "/rest/status"));
+		}
+		assertTrue(cache.isAdmitted("new", "GET", "/rest/status"));
+	}
+
+	@Test
+	void testEvictionRunsOnExecutor() {
+		List<Runnable> tasks = new ArrayList<>();
+		DecisionCache cache = new DecisionCache(10, TTL, tasks::add);
+		for (int i = 0; i < 10; i++) {
+			cache.admit("user" + i, "GET", "/rest/status");
+		}
+		assertTrue(tasks.isEmpty());
+		// Full, so eviction is requested once, but the decisions are still cached up to the limit
+		cache.admit("user10", "GET", "/rest/status");
+		cache.admit("user11", "GET", "/rest/status");
+		assertEquals(1, tasks.size());
+		assertEquals(12, cache.size());
+		// And beyond it, they are not cached until eviction runs
+		cache.admit("user12", "GET", "/rest/status");
+		assertEquals(12, cache.size());
+		assertFalse(cache.isAdmitted("user12", "GET", "/rest/status"));
+		tasks.get(0).run();
+		assertEquals(10, cache.size());
+		cache.admit("user12", "GET", "/rest/status");
+		assertTrue(cache.isAdmitted("user12", "GET", "/rest/status"));
+	}
+
+	@Test
+	void testRejectedEvictionIsRequestedAgain() {
+		List<Runnable> tasks = new ArrayList<>();
+		boolean[] reject = { true };
+		DecisionCache cache = new DecisionCache(10, TTL, r -> {
+			if (reject[0]) {
+				throw new RejectedExecutionException("Shutting down");
+			}
+			tasks.add(r);
+		});
+		for (int i = 0; i < 11; i++) {
+			cache.admit("user" + i, "GET", "/rest/status");
+		}
+		reject[0] = false;
+		cache.admit("user11", "GET", "/rest/status");
+		assertEquals(1, tasks.size());
+	}
+}
@@ -0,0 +1,84 @@
+package gov.cdc.izgateway.hub.service.accesscontrol;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import gov.cdc.izgateway.dynamodb.model.AllowedUser;
+
+/**
+ * Unit tests for matching senders against the destinations in {@link DestinationAccessIndex}.
+ */
+class DestinationAccessIndexTests {
+
+    private DestinationAccessIndex index;
+
+    private static AllowedUser user(String destId, String principal, boolean enabled) {
+        AllowedUser u = new AllowedUser();
+        u.setDestinationId(destId);
+        u.setPrincipal(principal);
+        u.setEnabled(enabled);
+        return u;
+    }
+
+    /** Set up exact, suffix, allow all and disabled access control lists. */
+    @BeforeEach
+    void setUp() {
+        index = new DestinationAccessIndex(List.of(
+            user("exact", "alice.example.com", true),
+            user("suffix", "*.example.com", true),
+            user("all", "*", true),
+            user("disabled", "alice.example.com", false),
+            user("disabled", "*.example.com", false),
+            user("many", "alice.example.com", true),
+            user("many", "bob.example.org", true),
+            user("many", "*.example.net", true),
+            user("many", "carol.example.com", false)
+        ));
+    }
+
+    @Test
+    void canAccessDestination_exact() {
+        assertTrue(index.canAccessDestination("alice.example.com", "exact"));
+        assertFalse(index.canAccessDestination("bob.example.com", "exact"));
+        assertFalse(index.canAccessDestination("alice.example.com.evil.org", "exact"));
+    }
+
+    @Test
+    void canAccessDestination_suffix() {
+        assertTrue(index.canAccessDestination("alice.example.com", "suffix"));
+        assertTrue(index.canAccessDestination("a.b.example.com", "suffix"));
+        assertFalse(index.canAccessDestination("example.com", "suffix"));
+        assertFalse(index.canAccessDestination("alice.example.org", "suffix"));
+    }
+
+    @Test
+    void canAccessDestination_noAcl() {
+        assertTrue(index.canAccessDestination("anyone.example.org", "unrestricted"));
+        assertTrue(index.canAccessDestination("anyone.example.org", "all"));
+        assertTrue(index.canAccessDestination(null, "all"));
+        assertTrue(index.canAccessDestination("anyone.example.org", null));
+        assertTrue(DestinationAccessIndex.EMPTY.canAccessDestination("anyone.example.org", "exact"));
+    }
+
+    @Test
+    void canAccessDestination_onlyDisabled() {
+        // Still restricted, but no one matches
+        assertFalse(index.canAccessDestination("alice.example.com", "disabled"));
+        assertFalse(index.canAccessDestination("bob.example.com", "disabled"));
+    }
+
+    @Test
+    void canAccessDestination_manyUsers() {
+        assertTrue(index.canAccessDestination("alice.example.com", "many"));
+        assertTrue(index.canAccessDestination("bob.example.org", "many"));
+        assertTrue(index.canAccessDestination("dave.example.net", "many"));
+        assertFalse(index.canAccessDestination("carol.example.com", "many"));
+        assertFalse(index.canAccessDestination("bob.example.com", "many"));
+        assertFalse(index.canAccessDestination(null, "many"));
+    }
+}
@@ -0,0 +1,76 @@
+package gov.cdc.izgateway.hub.service.accesscontrol;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import gov.cdc.izgateway.dynamodb.model.AccessGroup;
+
+/**
+ * Unit tests for the flattened role and group expansion in {@link PrincipalIndex}.
+ */
+class PrincipalIndexTests {
+
+    private PrincipalIndex index;
+
+    private static AccessGroup group(String name, Set<String> roles, Set<String> users, Set<String> groups) {
+        AccessGroup g = new AccessGroup();
+        g.setGroupName(name);
+        g.setRoles(new TreeSet<>(roles));
+        g.setUsers(new TreeSet<>(users));
+        g.setGroups(new TreeSet<>(groups));
+        return g;
+    }
+
+    /** Set up admins nested in operations, a wildcard group, and a cycle. */
+    @BeforeEach
+    void setUp() {
+        Map<String, AccessGroup> groups = new TreeMap<>();
+        groups.put("admins", group("admins", Set.of("admin"), Set.of("alice"), Set.of()));
+        groups.put("operations", group("operations", Set.of("operations"), Set.of("bob"), Set.of("admins")));
+        groups.put("everyone", group("everyone", Set.of("soap"), Set.of("*"), Set.of()));
+        groups.put("a", group("a", Set.of("roleA"), Set.of("carol"), Set.of("b")));
+        groups.put("b", group("b", Set.of("roleB"), Set.of("dave"), Set.of("a")));
+        index = new PrincipalIndex(groups);
+    }
+
+    @Test
+    void isUserInRole_direct() {
+        assertTrue(index.isUserInRole("alice", "admin"));
+        assertFalse(index.isUserInRole("bob", "admin"));
+    }
+
+    @Test
+    void isUserInRole_nestedGroup() {
+        assertTrue(index.isUserInRole("alice", "operations"));
+        assertTrue(index.isUserInGroup("alice", "operations"));
+    }
+
+    @Test
+    void isUserInRole_wildcard() {
+        assertTrue(index.isUserInRole("alice", "soap"));
+        assertTrue(index.isUserInRole("unknown.example.com", "soap"));
+        assertFalse(index.isUserInRole("unknown.example.com", "admin"));
+    }
+
+    @Test
+    void isUserInRole_cycle() {
+        assertTrue(index.isUserInRole("carol", "roleB"));
+        assertTrue(index.isUserInRole("dave", "roleA"));
+    }
+
+    @Test
+    void nullAndMissing() {
+        assertFalse(index.isUserInRole(null, "admin"));
+        assertFalse(index.isUserInRole("alice", null));
+        assertFalse(index.hasGroup("missing"));
+        assertFalse(PrincipalIndex.EMPTY.isUserInRole("alice", "admin"));
+    }
+}
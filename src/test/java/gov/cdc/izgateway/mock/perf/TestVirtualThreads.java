@@ -0,0 +1,94 @@
+package gov.cdc.izgateway.mock.perf;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Disabled;
+import org.junit.jupiter.api.Test;
+
+import gov.cdc.izgateway.Application;
+import gov.cdc.izgateway.soap.mock.perf.AbstractPerformanceSimulator;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Compare the concurrency and memory use of handling requests on a fixed pool of platform
+ * threads sized as server.tomcat.max-threads, with handling them on virtual threads, when each
+ * request waits for a response from an IIS with the delays in {@link AbstractPerformanceSimulator#DELAYS}.
+ */
+@Slf4j
+class TestVirtualThreads {
+	private static final int REQUESTS = 4000;
+	private static final int MAX_THREADS = 400;
+	private static final int MAX_WAIT = 300;
+	private static final int SAMPLE_MILLIS = 10;
+
+	private record Result(String mode, long elapsed, int peakInFlight, int peakThreads, long heapUsed) {}
+
+	@Test
+	@Disabled("Benchmark, run manually when changing the threading model")
+	void testConcurrencyVersusMemory() throws InterruptedException {
+		Result platform = run("platform", Executors.newFixedThreadPool(MAX_THREADS,
+			Application.newThreadFactory("platform-handler", false)));
+		Result virtual = run("virtual", Executors.newThreadPerTaskExecutor(
+			Application.newThreadFactory("virtual-handler", true)));
+		for (Result r: new Result[] { platform, virtual }) {
+			log.info("{}: {} requests in {} ms, {} in flight at peak, {} live platform threads at peak, {} Kb heap used at peak",
+				r.mode(), REQUESTS, r.elapsed(), r.peakInFlight(), r.peakThreads(), r.heapUsed() / 1024);
+		}
+		Assertions.assertTrue(virtual.peakInFlight() > platform.peakInFlight(),
+			"Virtual threads should allow more requests in flight");
+	}
+
+	private Result run(String mode, ExecutorService executor) throws InterruptedException {
+		Random rand = new Random(0);
+		AtomicInteger inFlight = new AtomicInteger();
+		AtomicInteger peakInFlight = new AtomicInteger();
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+		System.gc();
+		long heapBefore = memory.getHeapMemoryUsage().getUsed();
+		// Sample the heap while the most requests are in flight, which is when their threads use the most memory
+		AtomicInteger sampledInFlight = new AtomicInteger();
+		AtomicLong heapUsed = new AtomicLong();
+		ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor(
+			Application.newThreadFactory("heap-sampler", false));
+		sampler.scheduleAtFixedRate(() -> {
+			int n = inFlight.get();
+			if (n >= sampledInFlight.get()) {
+				sampledInFlight.set(n);
+				heapUsed.set(memory.getHeapMemoryUsage().getUsed() - heapBefore);
+			}
+		}, 0, SAMPLE_MILLIS, TimeUnit.MILLISECONDS);
+		threads.resetPeakThreadCount();
+		long start = System.currentTimeMillis();
+		for (int i = 0; i < REQUESTS; i++) {
+			int delay = AbstractPerformanceSimulator.DELAYS.randomValue(rand) + AbstractPerformanceSimulator.OVERHEAD;
+			executor.execute(() -> {
+				peakInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+				try {
+					Thread.sleep(delay);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				} finally {
+					inFlight.decrementAndGet();
+				}
+			});
+		}
+		executor.shutdown();
+		try {
+			Assertions.assertTrue(executor.awaitTermination(MAX_WAIT, TimeUnit.SECONDS), "All tasks not completed");
+		} finally {
+			sampler.shutdownNow();
+		}
+		return new Result(mode, System.currentTimeMillis() - start, peakInFlight.get(), threads.getPeakThreadCount(), heapUsed.get());
+	}
+}
@@ -0,0 +1,95 @@
+package gov.cdc.izgateway.status;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+class StatusCheckSchedulerTests {
+	private static final int DESTINATIONS = 1000;
+	private static final List<String> HOSTS = List.of("izgw-hub-1", "izgw-hub-2", "izgw-hub-3", "izgw-hub-4");
+
+	@Test
+	void testHashIsStable() {
+		// Every host must compute the same hash for the same name, so it must not depend on the JVM
+		assertEquals(0xbbca77e14862f7dfL, StatusCheckScheduler.hash("dev"));
+		assertNotEquals(StatusCheckScheduler.hash("dev"), StatusCheckScheduler.hash("dex"));
+	}
+
+	@Test
+	void testOwnerIgnoresHostCase() {
+		List<String> upper = HOSTS.stream().map(String::toUpperCase).toList();
+		for (String destId: destinations(100)) {
+			assertTrue(StatusCheckScheduler.getOwner(destId, HOSTS)
+				.equalsIgnoreCase(StatusCheckScheduler.getOwner(destId, upper)));
+		}
+	}
+
+	@Test
+	void testDestinationsAreSpreadEvenly() {
+		Map<String, Integer> counts = new HashMap<>();
+		for (String owner: owners(HOSTS).values()) {
+			counts.merge(owner, 1, Integer::sum);
+		}
+		assertEquals(HOSTS.size(), counts.size());
+		for (int count: counts.values()) {
+			// Each of four hosts should own about a quarter
+			assertTrue(count > DESTINATIONS / 5 && count < DESTINATIONS * 3 / 10, "Uneven count " + counts);
+		}
+	}
+
+	@Test
+	void testOnlyNewHostTakesDestinationsOnJoin() {
+		Map<String, String> before = owners(HOSTS);
+		List<String> joined = new ArrayList<>(HOSTS);
+		joined.add("izgw-hub-5");
+		Map<String, String> after = owners(joined);
+		int moved = 0;
+		for (Map.Entry<String, String> e: before.entrySet()) {
+			String owner = after.get(e.getKey());
+			if (!owner.equals(e.getValue())) {
+				assertEquals("izgw-hub-5", owner, "Destination moved between existing hosts");
+				moved++;
+			}
+		}
+		// About a fifth should move to the new host
+		assertTrue(moved > DESTINATIONS / 7 && moved < DESTINATIONS / 4, "Moved " + moved);
+	}
+
+	@Test
+	void testOnlyDepartedHostsDestinationsMoveOnLeave() {
+		Map<String, String> before = owners(HOSTS);
+		List<String> remaining = HOSTS.subList(0, 3);
+		Map<String, String> after = owners(remaining);
+		int moved = 0;
+		for (Map.Entry<String, String> e: before.entrySet()) {
+			if (!after.get(e.getKey()).equals(e.getValue())) {
+				assertEquals("izgw-hub-4", e.getValue(), "Destination of a remaining host moved");
+				moved++;
+			}
+		}
+		assertEquals(before.values().stream().filter("izgw-hub-4"::equals).count(), moved);
+	}
+
+	private static Map<String, String> owners(List<String> hosts) {
+		Map<String, String> owners = new HashMap<>();
+		for (String destId: destinations(DESTINATIONS)) {
+			owners.put(destId, StatusCheckScheduler.getOwner(destId, hosts));
+		}
+		return owners;
+	}
+
+	private static List<String> destinations(int count) {
+		List<String> l = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			l.add("dest" + i);
+		}
+		return l;
+	}
+}